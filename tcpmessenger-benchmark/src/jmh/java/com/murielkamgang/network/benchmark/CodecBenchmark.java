@@ -0,0 +1,85 @@
+package com.murielkamgang.network.benchmark;
+
+import com.murielkamgang.network.CborCodec;
+import com.murielkamgang.network.Codec;
+import com.murielkamgang.network.DeflateCodec;
+import com.murielkamgang.network.JsonCodec;
+import com.murielkamgang.network.SmileCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of each {@link Codec} for typical payload sizes, without any I/O
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    /**
+     * Threshold of {@link Format#DEFLATE_JSON}, small payloads are sent as is
+     */
+    private static final int COMPRESSION_THRESHOLD = 512;
+
+    public enum Format {
+        JSON, SMILE, CBOR, DEFLATE_JSON
+    }
+
+    @Param
+    public Format format;
+
+    @Param
+    public Payload.Size size;
+
+    private Codec codec;
+    private Payload payload;
+    private ByteArrayOutputStream out;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        switch (format) {
+            case SMILE:
+                codec = new SmileCodec();
+                break;
+            case CBOR:
+                codec = new CborCodec();
+                break;
+            case DEFLATE_JSON:
+                codec = new DeflateCodec(new JsonCodec(), COMPRESSION_THRESHOLD);
+                break;
+            default:
+                codec = new JsonCodec();
+                break;
+        }
+
+        payload = Payload.of(size);
+        out = new ByteArrayOutputStream(16 * 1024);
+        codec.encode(payload, out);
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        codec.encode(payload, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Payload decode() throws IOException {
+        return codec.decode(encoded, 0, encoded.length, Payload.class);
+    }
+}
@@ -0,0 +1,22 @@
+package com.murielkamgang.network.benchmark;
+
+/**
+ * Loopback addresses standing for devices, Linux route the whole 127.0.0.0/8 to the loopback interface
+ */
+final class Devices {
+
+    private Devices() {
+    }
+
+    /**
+     * @param count number of devices
+     * @return the ip of each device
+     */
+    static String[] ips(int count) {
+        final String[] ips = new String[count];
+        for (int i = 0; i < count; i++) {
+            ips[i] = "127.0.0." + (i + 1);
+        }
+        return ips;
+    }
+}
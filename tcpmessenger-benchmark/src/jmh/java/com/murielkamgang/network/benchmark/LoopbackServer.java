@@ -0,0 +1,149 @@
+package com.murielkamgang.network.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In process echo server answering every command with the command itself, one thread per connection.
+ * <p>
+ * <p>It listen on every local address so each loopback address (127.0.0.1, 127.0.0.2...) can play a different
+ * device, that work out of the box on Linux.</p>
+ */
+class LoopbackServer {
+
+    private final ServerSocket serverSocket;
+    private final boolean pipelined;
+    private final boolean framed;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param pipelined true to answer with the pipelined envelope or request id
+     * @param framed    true to read and write length prefixed frames
+     * @throws IOException if the server could not be bound
+     */
+    LoopbackServer(boolean pipelined, boolean framed) throws IOException {
+        this.pipelined = pipelined;
+        this.framed = framed;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 0), 1024);
+
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LoopbackServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+
+            sockets.add(socket);
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (framed) {
+                            echoFrames(socket);
+                        } else {
+                            echoJson(socket);
+                        }
+                    } catch (IOException e) {
+                        //client gone
+                    } finally {
+                        sockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            //Ignore
+                        }
+                    }
+                }
+            }, "LoopbackServer-worker");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Echo every frame as is, in pipelined mode the request id is the start of the payload so it is echoed too
+     */
+    private void echoFrames(Socket socket) throws IOException {
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        byte[] buffer = new byte[1024];
+        while (true) {
+            final int length = in.readInt();
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            out.writeInt(length);
+            out.write(buffer, 0, length);
+            if (in.available() == 0) {//flush once per burst
+                out.flush();
+            }
+        }
+    }
+
+    private void echoJson(Socket socket) throws IOException {
+        final JsonParser parser = objectMapper.getFactory().createParser(socket.getInputStream());
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(socket.getOutputStream());
+        while (parser.nextToken() != null) {
+            final JsonNode node = parser.readValueAsTree();
+            if (pipelined) {
+                generator.writeStartObject();
+                generator.writeNumberField("id", node.get("id").asInt());
+                generator.writeFieldName("response");
+                generator.writeTree(node.get("cmd"));
+                generator.writeEndObject();
+            } else {
+                generator.writeTree(node);
+            }
+            generator.flush();
+        }
+    }
+}
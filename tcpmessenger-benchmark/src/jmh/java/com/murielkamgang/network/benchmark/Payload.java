@@ -0,0 +1,61 @@
+package com.murielkamgang.network.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Typical command and response body
+ */
+public class Payload {
+
+    /**
+     * Sizes of the payloads used by the benchmarks
+     */
+    public enum Size {
+        /**
+         * A status query, about 60 bytes of json
+         */
+        SMALL(1, 4),
+        /**
+         * A device state, under 1KB of json
+         */
+        MEDIUM(16, 120),
+        /**
+         * A configuration dump, about 10KB of json
+         */
+        LARGE(256, 1800);
+
+        private final int textLength;
+        private final int valueCount;
+
+        Size(int textLength, int valueCount) {
+            this.textLength = textLength;
+            this.valueCount = valueCount;
+        }
+    }
+
+    public String name;
+    public String text;
+    public int[] values;
+    public boolean enabled;
+
+    public Payload() {
+    }
+
+    /**
+     * @param size the size of the payload
+     * @return a payload of the given size
+     */
+    public static Payload of(Size size) {
+        final Payload payload = new Payload();
+        payload.name = "status";
+        final char[] text = new char[size.textLength];
+        Arrays.fill(text, 'x');
+        payload.text = new String(text);
+        payload.values = new int[size.valueCount];
+        for (int i = 0; i < payload.values.length; i++) {
+            payload.values[i] = i * 31;
+        }
+        payload.enabled = true;
+        return payload;
+    }
+}
@@ -0,0 +1,78 @@
+package com.murielkamgang.network.benchmark;
+
+import com.murielkamgang.network.TCPMessenger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single {@link TCPMessenger#sendCommand(TCPMessenger.Request, Class, TCPMessenger.Callback)} round
+ * trip against the in process {@link LoopbackServer}.
+ * <p>
+ * <p>Sample time mode report the percentiles, run with the gc profiler the {@code gc.alloc.rate.norm} metric is the
+ * number of bytes allocated per request.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    @Param
+    public Transport transport;
+
+    /**
+     * 1 for a single connection, more to spread the requests over many devices
+     */
+    @Param({"1", "16"})
+    public int devices;
+
+    @Param({"SMALL", "MEDIUM"})
+    public Payload.Size size;
+
+    private LoopbackServer server;
+    private TCPMessenger tcpMessenger;
+    private TCPMessenger.Request[] requests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = transport.startServer();
+        tcpMessenger = TCPMessenger.getInstance(transport.config(server.getPort(), 1));
+
+        final String[] ips = Devices.ips(devices);
+        requests = new TCPMessenger.Request[ips.length];
+        for (int i = 0; i < ips.length; i++) {
+            requests[i] = new TCPMessenger.Request(ips[i], Payload.of(size));
+            tcpMessenger.sendAsync(requests[i], Payload.class).get();//connect before measuring
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TCPMessenger.releaseInstance(tcpMessenger);
+        server.close();
+    }
+
+    /**
+     * Device picked by each benchmark thread, round robin
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public Payload sendCommand(Cursor cursor) throws Exception {
+        final TCPMessenger.Request request = requests[cursor.next++ % requests.length];
+        return tcpMessenger.sendAsync(request, Payload.class).get();
+    }
+}
@@ -0,0 +1,90 @@
+package com.murielkamgang.network.benchmark;
+
+import com.murielkamgang.network.RequestFuture;
+import com.murielkamgang.network.TCPMessenger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request throughput as the number of requests in flight grows.
+ * <p>
+ * <p>Each operation send {@link #concurrency} requests spread over the devices and wait for all of them, the
+ * {@code requests} counter is the number of requests completed per second.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThroughputBenchmark {
+
+    @Param
+    public Transport transport;
+
+    @Param({"1", "16"})
+    public int devices;
+
+    /**
+     * Number of requests in flight at once
+     */
+    @Param({"1", "8", "64", "256"})
+    public int concurrency;
+
+    private LoopbackServer server;
+    private TCPMessenger tcpMessenger;
+    private TCPMessenger.Request[] requests;
+    private RequestFuture<?>[] futures;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = transport.startServer();
+        tcpMessenger = TCPMessenger.getInstance(transport.config(server.getPort(), 8));
+
+        final String[] ips = Devices.ips(devices);
+        requests = new TCPMessenger.Request[concurrency];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new TCPMessenger.Request(ips[i % ips.length], Payload.of(Payload.Size.SMALL));
+        }
+        futures = new RequestFuture[concurrency];
+        for (TCPMessenger.Request request : requests) {
+            tcpMessenger.sendAsync(request, Payload.class).get();//connect before measuring
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TCPMessenger.releaseInstance(tcpMessenger);
+        server.close();
+    }
+
+    /**
+     * Number of completed requests, reported next to the operation score
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long requests;
+    }
+
+    @Benchmark
+    public void sendConcurrently(Counters counters) throws Exception {
+        for (int i = 0; i < requests.length; i++) {
+            futures[i] = tcpMessenger.sendAsync(requests[i], Payload.class);
+        }
+        for (int i = 0; i < futures.length; i++) {
+            futures[i].get();
+            futures[i] = null;
+        }
+        counters.requests += requests.length;
+    }
+}
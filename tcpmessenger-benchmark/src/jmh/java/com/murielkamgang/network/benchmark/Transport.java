@@ -0,0 +1,50 @@
+package com.murielkamgang.network.benchmark;
+
+import com.murielkamgang.network.CallbackExecutors;
+import com.murielkamgang.network.SocketConfig;
+
+import java.io.IOException;
+
+/**
+ * Transport modes of {@link com.murielkamgang.network.TCPMessenger} covered by the benchmarks
+ */
+public enum Transport {
+    BLOCKING(false, false, false),
+    PIPELINED(true, false, false),
+    NIO(false, true, false),
+    NIO_PIPELINED(true, true, false),
+    FRAMED_NIO_PIPELINED(true, true, true);
+
+    private final boolean pipelined;
+    private final boolean nio;
+    private final boolean framed;
+
+    Transport(boolean pipelined, boolean nio, boolean framed) {
+        this.pipelined = pipelined;
+        this.nio = nio;
+        this.framed = framed;
+    }
+
+    /**
+     * @return a server speaking the wire format of this transport
+     * @throws IOException if the server could not be bound
+     */
+    LoopbackServer startServer() throws IOException {
+        return new LoopbackServer(pipelined, framed);
+    }
+
+    /**
+     * @param port               port of the loopback server
+     * @param connectionsPerHost max number of socket clients per device
+     * @return the config of this transport, callbacks are invoked on the I/O threads
+     */
+    SocketConfig config(int port, int connectionsPerHost) {
+        final SocketConfig socketConfig = new SocketConfig(port, 5000, pipelined);
+        socketConfig.nio = nio;
+        socketConfig.framed = framed;
+        socketConfig.maxConnectionsPerHost = connectionsPerHost;
+        socketConfig.maxConnections = Math.max(socketConfig.maxConnections, connectionsPerHost * 256);
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        return socketConfig;
+    }
+}
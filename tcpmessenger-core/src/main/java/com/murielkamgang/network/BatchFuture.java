@@ -0,0 +1,30 @@
+package com.murielkamgang.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Future of a batch of requests, done once every request of the batch got its response or error
+ */
+class BatchFuture extends RequestFuture<Void> {
+
+    /**
+     * Number of requests of the batch not yet completed
+     */
+    private final AtomicInteger remaining;
+
+    /**
+     * @param size the number of requests of the batch
+     */
+    BatchFuture(int size) {
+        remaining = new AtomicInteger(size);
+    }
+
+    /**
+     * Count one more request of the batch as completed
+     */
+    void countDown() {
+        if (remaining.decrementAndGet() == 0) {
+            complete(null, null);
+        }
+    }
+}
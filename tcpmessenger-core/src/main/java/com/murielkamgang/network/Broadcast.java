@@ -0,0 +1,294 @@
+package com.murielkamgang.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Command sent to many devices, see
+ * {@link TCPMessenger#broadcast(List, Object, Class, TCPMessenger.Callback)}.
+ * <p>
+ * <p>At most {@code window} requests are in flight at the same time, each result send the request to the next
+ * device so the sweep keep the window full. Results are delivered to the callback in the callback executor as they
+ * come back, the future is completed once the last one was delivered.</p>
+ *
+ * @param <T> Type of the responses
+ */
+class Broadcast<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(Broadcast.class);
+
+    private final TCPMessenger tcpMessenger;
+    /**
+     * Devices not sent to yet, guarded by this
+     */
+    private final Iterator<String> ips;
+    /**
+     * The command, encoded once for every device
+     */
+    private final Object cmd;
+    private final Class<T> responseClass;
+    /**
+     * Callback of each result, weakly held like {@link TCPMessenger.Callback}, null if only the future is used
+     */
+    private final WeakReference<TCPMessenger.Callback<T>> callback;
+    private final Executor callbackExecutor;
+    private final RequestFuture<BroadcastResult<T>> future = new RequestFuture<>();
+    /**
+     * Futures of the requests in flight, cancelled with the broadcast. Guarded by this
+     */
+    private final HashSet<RequestFuture<T>> inFlight = new HashSet<>();
+    /**
+     * Responses and errors per ip, guarded by this
+     */
+    private final LinkedHashMap<String, T> responses = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Throwable> errors = new LinkedHashMap<>();
+    /**
+     * Results not delivered to the callback yet, guarded by itself
+     */
+    private final ArrayDeque<Result> results = new ArrayDeque<>();
+    /**
+     * Deliver the queued results, posted to {@link #callbackExecutor} once each time the queue stop being empty
+     */
+    private final Runnable deliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    /**
+     * Number of devices whose result is not known yet, guarded by this
+     */
+    private int remaining;
+    /**
+     * Number of requests to send by the thread in {@link #sendNext()}, guarded by this
+     */
+    private int toSend;
+    /**
+     * True while a thread is sending, others only add to {@link #toSend} so a result known right away does not
+     * recurse into the next send. Guarded by this
+     */
+    private boolean sending;
+    /**
+     * True while {@link #deliveryTask} is posted, guarded by {@link #results}
+     */
+    private boolean posted;
+
+    Broadcast(TCPMessenger tcpMessenger, List<String> ips, Object cmd, Class<T> responseClass,
+              TCPMessenger.Callback<T> callback, Executor callbackExecutor) {
+        this.tcpMessenger = tcpMessenger;
+        this.ips = ips.iterator();
+        this.cmd = cmd;
+        this.responseClass = responseClass;
+        this.callback = callback != null ? new WeakReference<>(callback) : null;
+        this.callbackExecutor = callbackExecutor;
+        remaining = ips.size();
+        future.addListener(new RequestFuture.Listener<BroadcastResult<T>>() {
+            @Override
+            public void onResponse(BroadcastResult<T> response) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (future.isCancelled()) {
+                    cancel();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the future of this broadcast, cancelling it cancel the requests in flight and skip the rest
+     */
+    RequestFuture<BroadcastResult<T>> getFuture() {
+        return future;
+    }
+
+    /**
+     * Send the first requests
+     *
+     * @param window max number of requests in flight at the same time
+     */
+    void start(int window) {
+        if (remaining == 0) {
+            future.complete(new BroadcastResult<>(responses, errors), null);
+            return;
+        }
+
+        synchronized (this) {
+            toSend += window;
+        }
+        sendNext();
+    }
+
+    /**
+     * Send one more request, or let the thread already sending do it
+     */
+    private void sendNext() {
+        synchronized (this) {
+            if (sending) {
+                return;
+            }
+            sending = true;
+        }
+
+        while (true) {
+            final TCPMessenger.Request request;
+            synchronized (this) {
+                if (toSend == 0 || !ips.hasNext() || future.isDone()) {
+                    sending = false;
+                    return;
+                }
+                toSend--;
+                request = new TCPMessenger.Request(ips.next(), cmd);
+            }
+
+            final RequestFuture<T> requestFuture;
+            try {
+                requestFuture = tcpMessenger.sendAsync(request, responseClass);
+            } catch (RuntimeException e) {
+                onResult(request, null, null, e);
+                continue;
+            }
+
+            synchronized (this) {
+                inFlight.add(requestFuture);
+            }
+            requestFuture.addListener(new RequestFuture.Listener<T>() {
+                @Override
+                public void onResponse(T response) {
+                    onResult(request, requestFuture, response, null);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    onResult(request, requestFuture, null, throwable);
+                }
+            });
+        }
+    }
+
+    /**
+     * Record the result of a device, queue it for the callback and send the next request
+     */
+    private void onResult(TCPMessenger.Request request, RequestFuture<T> requestFuture, T response,
+                          Throwable error) {
+        final boolean last;
+        synchronized (this) {
+            inFlight.remove(requestFuture);
+            if (error == null) {
+                responses.put(request.ip, response);
+            } else {
+                errors.put(request.ip, error);
+            }
+            last = --remaining == 0;
+            toSend++;
+        }
+
+        if (callback == null) {
+            if (last) {
+                complete();
+            }
+        } else {
+            final boolean post;
+            synchronized (results) {
+                results.offer(new Result(request, response, error, last));
+                post = !posted;
+                posted = true;
+            }
+
+            if (post) {
+                callbackExecutor.execute(deliveryTask);
+            }
+        }
+
+        if (!last) {
+            sendNext();
+        }
+    }
+
+    /**
+     * Deliver the queued results then complete the future after the last one, in the callback executor
+     */
+    private void drain() {
+        while (true) {
+            final Result result;
+            synchronized (results) {
+                result = results.poll();
+                if (result == null) {
+                    posted = false;
+                    return;
+                }
+            }
+
+            final TCPMessenger.Callback<T> callback = this.callback.get();
+            if (callback != null && !future.isDone()) {
+                try {
+                    if (result.error == null) {
+                        callback.onResponse(result.request, result.response);
+                    } else {
+                        callback.onError(result.request, result.error);
+                    }
+                } catch (RuntimeException e) {//the other results and the future are still delivered
+                    logger.error("broadcast callback failed for {}", result.request, e);
+                }
+            }
+            if (result.last) {
+                complete();
+            }
+        }
+    }
+
+    private void complete() {
+        final BroadcastResult<T> result;
+        synchronized (this) {
+            inFlight.clear();
+            result = new BroadcastResult<>(new LinkedHashMap<>(responses), new LinkedHashMap<>(errors));
+        }
+        future.complete(result, null);
+    }
+
+    /**
+     * Cancel the requests in flight, the devices not sent to yet are skipped
+     */
+    private void cancel() {
+        final List<RequestFuture<T>> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<>(inFlight);
+            inFlight.clear();
+        }
+
+        for (RequestFuture<T> requestFuture : cancelled) {
+            requestFuture.cancel(false);
+        }
+    }
+
+    /**
+     * Result of one device waiting to be delivered
+     */
+    private class Result {
+
+        private final TCPMessenger.Request request;
+        private final T response;
+        private final Throwable error;
+        /**
+         * True if this is the last result of the broadcast
+         */
+        private final boolean last;
+
+        private Result(TCPMessenger.Request request, T response, Throwable error, boolean last) {
+            this.request = request;
+            this.response = response;
+            this.error = error;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.murielkamgang.network;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a command sent to many devices, see
+ * {@link TCPMessenger#broadcast(java.util.List, Object, Class, TCPMessenger.Callback)}
+ *
+ * @param <T> Type of the responses
+ */
+public class BroadcastResult<T> {
+
+    /**
+     * Response per device ip, in the order they came back
+     */
+    private final Map<String, T> responses;
+    /**
+     * Error per device ip, in the order they came back
+     */
+    private final Map<String, Throwable> errors;
+
+    BroadcastResult(Map<String, T> responses, Map<String, Throwable> errors) {
+        this.responses = Collections.unmodifiableMap(responses);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return the response of each device that answered, by ip
+     */
+    public Map<String, T> getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return the error of each device that failed, by ip
+     */
+    public Map<String, Throwable> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return true if every device answered
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastResult{" +
+                "responses=" + responses.size() +
+                ", errors=" + errors.size() +
+                '}';
+    }
+}
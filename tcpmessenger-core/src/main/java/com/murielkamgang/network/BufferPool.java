@@ -0,0 +1,91 @@
+package com.murielkamgang.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable {@link ByteBuffer} sorted by power of two capacities.
+ * <p>
+ * <p>Buffers are heap buffers on purpose: frames are decoded by Jackson straight from {@link ByteBuffer#array()},
+ * a direct buffer would need to be copied first. Buffers bigger than {@link Constant#BUFFER_POOL_MAX_CAPACITY} are
+ * allocated on demand and never pooled.</p>
+ */
+class BufferPool {
+
+    /**
+     * Smallest pooled capacity is 1 << MIN_SHIFT
+     */
+    private static final int MIN_SHIFT = 8;
+
+    private final Bucket[] buckets;
+
+    BufferPool() {
+        final int maxShift = 31 - Integer.numberOfLeadingZeros(Constant.BUFFER_POOL_MAX_CAPACITY);
+        buckets = new Bucket[maxShift - MIN_SHIFT + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket(1 << (i + MIN_SHIFT));
+        }
+    }
+
+    /**
+     * Get a cleared buffer of at least the given capacity
+     *
+     * @param capacity the minimum capacity needed
+     * @return the buffer, to be given back with {@link #release(ByteBuffer)} once done
+     */
+    ByteBuffer acquire(int capacity) {
+        final int index = indexFor(capacity);
+        if (index >= buckets.length) {
+            return ByteBuffer.allocate(capacity);
+        }
+
+        final Bucket bucket = buckets[index];
+        final ByteBuffer buffer = bucket.queue.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bucket.capacity);
+        }
+
+        bucket.count.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer previously acquired, it must not be used anymore by the caller
+     *
+     * @param buffer the buffer
+     */
+    void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        final int index = indexFor(capacity);
+        if (index >= buckets.length || buckets[index].capacity != capacity) {
+            return;//not one of ours
+        }
+
+        final Bucket bucket = buckets[index];
+        if (bucket.count.incrementAndGet() > Constant.BUFFER_POOL_BUCKET_SIZE) {
+            bucket.count.decrementAndGet();
+            return;
+        }
+        bucket.queue.offer(buffer);
+    }
+
+    private static int indexFor(int capacity) {
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    private static class Bucket {
+
+        private final int capacity;
+        private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Bucket(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.murielkamgang.network;
+
+/**
+ * A request with the class of its expected response and its future, as handed to the transports in a batch
+ */
+class Call {
+
+    final TCPMessenger.Request request;
+    final Class<?> responseClass;
+    /**
+     * Future of the request, shared by every request of a batch sent with
+     * {@link TCPMessenger#sendBatch(java.util.List, Class, TCPMessenger.Callback)}
+     */
+    final RequestFuture<?> future;
+    /**
+     * {@link System#currentTimeMillis()} after which the request fail with a time out, see
+     * {@link TCPMessenger.Request#timeOut}
+     */
+    final long deadline;
+    /**
+     * {@link System#currentTimeMillis()} when the request was written, set by the transport
+     */
+    long writtenAt;
+
+    Call(TCPMessenger.Request request, Class<?> responseClass, RequestFuture<?> future, long deadline) {
+        this.request = request;
+        this.responseClass = responseClass;
+        this.future = future;
+        this.deadline = deadline;
+    }
+}
@@ -0,0 +1,103 @@
+package com.murielkamgang.network;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+
+/**
+ * Executors to invoke callbacks and future listeners with, see {@link SocketConfig#callbackExecutor}
+ */
+public final class CallbackExecutors {
+
+    /**
+     * Main thread executor provided by the tcpmessenger android module
+     */
+    private static final String MAIN_THREAD_EXECUTOR = "com.murielkamgang.network.MainThreadExecutor";
+
+    private static final String LOOPER = "android.os.Looper";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static volatile Executor mainThread;
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * @return an executor running each task right away on the calling thread, for callbacks that is the I/O thread
+     * that read the response
+     */
+    public static Executor direct() {
+        return DIRECT;
+    }
+
+    /**
+     * @return an executor running each task on the Android main thread
+     * @throws IllegalStateException if the tcpmessenger android module is not in the classpath
+     */
+    public static Executor mainThread() {
+        final Executor executor = findMainThread();
+        if (executor == null) {
+            throw new IllegalStateException("main thread executor need the tcpmessenger android module");
+        }
+        return executor;
+    }
+
+    /**
+     * @return the main thread executor on Android, {@link #direct()} anywhere else
+     */
+    static Executor platformDefault() {
+        final Executor executor = findMainThread();
+        return executor != null ? executor : DIRECT;
+    }
+
+    /**
+     * @return true if called from the Android main thread, false anywhere else and in plain java
+     */
+    static boolean isMainThread() {
+        return Thread.currentThread() == MainThreadHolder.THREAD;
+    }
+
+    private static Executor findMainThread() {
+        if (mainThread == null) {
+            synchronized (CallbackExecutors.class) {
+                if (mainThread == null) {
+                    try {
+                        mainThread = (Executor) Class.forName(MAIN_THREAD_EXECUTOR).getConstructor().newInstance();
+                    } catch (ClassNotFoundException e) {
+                        return null;//plain java
+                    } catch (NoSuchMethodException | InstantiationException | IllegalAccessException
+                            | InvocationTargetException e) {
+                        throw new IllegalStateException("could not create main thread executor", e);
+                    }
+                }
+            }
+        }
+
+        return mainThread;
+    }
+
+    /**
+     * Android main thread, looked up through reflection the first time it is needed since this module does not
+     * depend on Android
+     */
+    private static final class MainThreadHolder {
+
+        private static final Thread THREAD = findThread();
+
+        private static Thread findThread() {
+            try {
+                final Class<?> looper = Class.forName(LOOPER);
+                final Object mainLooper = looper.getMethod("getMainLooper").invoke(null);
+                return mainLooper != null ? (Thread) looper.getMethod("getThread").invoke(mainLooper) : null;
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                    | InvocationTargetException e) {
+                return null;//plain java, or android stubs in unit tests
+            }
+        }
+    }
+}
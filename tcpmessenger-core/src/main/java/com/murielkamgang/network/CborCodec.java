@@ -0,0 +1,17 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * CBOR codec (RFC 7049), compact binary payloads. Socket server need to speak CBOR.
+ * <p>
+ * <p>The CBOR parser can not parse non blocking input, so in nio mode ({@link SocketConfig#nio}) framed mode is
+ * needed as well.</p>
+ */
+public class CborCodec extends JacksonCodec {
+
+    public CborCodec() {
+        super(new ObjectMapper(new CBORFactory()));
+    }
+}
@@ -0,0 +1,125 @@
+package com.murielkamgang.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker per host, see {@link SocketConfig#circuitBreakerThreshold}.
+ * <p>
+ * <p>A host is closed (requests go through) until {@code threshold} requests in a row failed to reach it, it is
+ * then open and its requests fail right away for {@code cooldown} ms. After that one request is let through as a
+ * probe (half open): the host is closed again if it succeed, open again if it fail. Another probe is let through
+ * each {@code cooldown} ms until one of them tells.</p>
+ */
+class CircuitBreaker {
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    /**
+     * State per host ip
+     */
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final int threshold;
+    private final int cooldown;
+
+    /**
+     * @param threshold number of failures in a row opening the circuit of a host
+     * @param cooldown  time in ms the circuit stay open before a probe request is let through
+     */
+    CircuitBreaker(int threshold, int cooldown) {
+        this.threshold = threshold;
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * @param ip the host ip
+     * @return true if a request can be sent to the host, false if it must fail right away
+     */
+    boolean allow(String ip) {
+        final Host host = hosts.get(ip);
+        if (host == null) {
+            return true;
+        }
+
+        synchronized (host) {
+            if (host.state == CLOSED) {
+                return true;
+            }
+
+            //open, or half open with a probe that ended without telling if the host is reachable (cancelled...)
+            final long now = System.currentTimeMillis();
+            if (now - host.openedAt < cooldown) {
+                return false;
+            }
+            host.state = HALF_OPEN;
+            host.openedAt = now;
+            return true;
+        }
+    }
+
+    /**
+     * Record that a request got its response, the circuit of the host is closed
+     *
+     * @param ip the host ip
+     */
+    void onSuccess(String ip) {
+        final Host host = hosts.get(ip);
+        if (host == null) {
+            return;
+        }
+
+        synchronized (host) {
+            host.state = CLOSED;
+            host.failures = 0;
+        }
+    }
+
+    /**
+     * Record that a request failed to reach its host. A failure reported to several requests, such as a connect
+     * they all waited for or a connection they were all sent on, is counted once
+     *
+     * @param ip    the host ip
+     * @param error the error of the request
+     */
+    void onFailure(String ip, Throwable error) {
+        final Throwable failure = error instanceof SharedConnectException ? error.getCause() : error;
+        Host host = hosts.get(ip);
+        if (host == null) {
+            final Host created = new Host();
+            host = hosts.putIfAbsent(ip, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+
+        synchronized (host) {
+            if (failure == host.lastFailure) {
+                return;
+            }
+
+            host.lastFailure = failure;
+            if (host.state == HALF_OPEN || ++host.failures >= threshold) {
+                host.state = OPEN;
+                host.openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static class Host {
+
+        private int state = CLOSED;
+        /**
+         * Number of failures in a row
+         */
+        private int failures;
+        /**
+         * {@link System#currentTimeMillis()} when the circuit was last opened or a probe let through
+         */
+        private long openedAt;
+        /**
+         * Last failure counted
+         */
+        private Throwable lastFailure;
+    }
+}
@@ -0,0 +1,16 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+
+/**
+ * Error of a request failed right away because the circuit breaker of its device is open, see
+ * {@link SocketConfig#circuitBreakerThreshold}
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
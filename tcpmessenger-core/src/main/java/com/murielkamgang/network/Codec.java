@@ -0,0 +1,47 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec used by {@link TCPMessenger} to encode commands and decode responses, see {@link SocketConfig#codec}.
+ * <p>
+ * <p>Implementations need to be thread safe. Any codec can be used in framed mode ({@link SocketConfig#framed}),
+ * unframed modes rely on the parser to find where a response end and need a {@link JacksonCodec}.</p>
+ */
+public interface Codec {
+
+    /**
+     * Encode a value
+     *
+     * @param value the value to encode
+     * @param out   the stream to write to, it must not be closed
+     * @throws IOException if the value can not be encoded
+     */
+    void encode(Object value, OutputStream out) throws IOException;
+
+    /**
+     * Decode the next value of a stream
+     *
+     * @param in   the stream to read from, it must not be closed
+     * @param type the class of the expected value
+     * @param <T>  Type of the object expected
+     * @return the decoded value
+     * @throws IOException if the value can not be decoded
+     */
+    <T> T decode(InputStream in, Class<T> type) throws IOException;
+
+    /**
+     * Decode a value from a byte array
+     *
+     * @param bytes  the array holding the encoded value
+     * @param offset the offset of the encoded value
+     * @param length the length of the encoded value
+     * @param type   the class of the expected value
+     * @param <T>    Type of the object expected
+     * @return the decoded value
+     * @throws IOException if the value can not be decoded
+     */
+    <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException;
+}
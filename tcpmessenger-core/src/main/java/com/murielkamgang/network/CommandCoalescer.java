@@ -0,0 +1,114 @@
+package com.murielkamgang.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather the requests sent to the same host within {@link SocketConfig#coalescingWindow} so they can be written
+ * as one batch.
+ * <p>
+ * <p>The window start with the first request queued for a host, the batch is handed to the {@link Sink} once the
+ * window is over or as soon as it hold {@link Constant#MAX_COALESCED_BATCH} requests.</p>
+ */
+class CommandCoalescer {
+
+    /**
+     * Receiver of the coalesced batches
+     */
+    interface Sink {
+
+        /**
+         * @param calls the requests gathered for one host, never empty
+         */
+        void send(List<Call> calls);
+    }
+
+    /**
+     * The coalescing window in milliseconds
+     */
+    private final long window;
+    /**
+     * Receiver of the batches
+     */
+    private final Sink sink;
+    /**
+     * Requests waiting for the end of the window per ip, guarded by itself
+     */
+    private final HashMap<String, List<Call>> pendingCalls = new HashMap<>();
+    /**
+     * Flag set once this coalescer is shutdown, the windows are ended by the {@link SharedResources#timer()}
+     */
+    private volatile boolean shutdown;
+
+    CommandCoalescer(long window, Sink sink) {
+        this.window = window;
+        this.sink = sink;
+    }
+
+    /**
+     * Queue a request for the current window of its host
+     *
+     * @param call the request
+     * @throws RejectedExecutionException if this coalescer was shutdown
+     */
+    void add(Call call) {
+        if (shutdown) {
+            throw new RejectedExecutionException("coalescer is shutdown");
+        }
+
+        final String ip = call.request.ip;
+        List<Call> full = null;
+        synchronized (pendingCalls) {
+            List<Call> calls = pendingCalls.get(ip);
+            if (calls == null) {
+                calls = new ArrayList<>();
+                pendingCalls.put(ip, calls);
+                scheduleFlush(ip, calls);
+            }
+            calls.add(call);
+            if (calls.size() >= Constant.MAX_COALESCED_BATCH) {
+                full = pendingCalls.remove(ip);
+            }
+        }
+
+        if (full != null) {
+            sink.send(full);
+        }
+    }
+
+    /**
+     * Stop gathering requests, requests still waiting for their window are dropped and the {@link TCPMessenger}
+     * fails them through its in flight table
+     */
+    void shutdown() {
+        shutdown = true;
+        synchronized (pendingCalls) {
+            pendingCalls.clear();
+        }
+    }
+
+    /**
+     * End the window of the given requests after {@link #window}, unless they were already sent as a full batch
+     *
+     * @param ip    the host ip
+     * @param calls the requests of the window
+     */
+    private void scheduleFlush(final String ip, final List<Call> calls) {
+        SharedResources.timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pendingCalls) {
+                    if (pendingCalls.get(ip) != calls) {
+                        return;
+                    }
+                    pendingCalls.remove(ip);
+                }
+
+                sink.send(calls);
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,16 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+
+/**
+ * Error of a request the device received but failed to handle, only that request fails and the connection stays
+ * open. It is not retried and does not count as a failure of the device, see {@link TCPMessengerServer.Handler}
+ */
+public class CommandFailedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CommandFailedException(String message) {
+        super(message);
+    }
+}
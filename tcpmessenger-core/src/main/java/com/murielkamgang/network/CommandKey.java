@@ -0,0 +1,52 @@
+package com.murielkamgang.network;
+
+import java.util.Arrays;
+
+/**
+ * Identity of a command: the ip, the serialized command and the response class. Two requests with equal keys
+ * get the same response from an idempotent command.
+ */
+class CommandKey {
+
+    private final String ip;
+    private final byte[] cmd;
+    private final Class<?> responseClass;
+    private final int hash;
+
+    CommandKey(String ip, byte[] cmd, Class<?> responseClass) {
+        this.ip = ip;
+        this.cmd = cmd;
+        this.responseClass = responseClass;
+        int result = ip.hashCode();
+        result = 31 * result + Arrays.hashCode(cmd);
+        result = 31 * result + responseClass.hashCode();
+        hash = result;
+    }
+
+    /**
+     * @param ip  the ip
+     * @param cmd the serialized command, or null to match every command
+     * @return true if this key is for the given ip and command, whatever the response class
+     */
+    boolean matches(String ip, byte[] cmd) {
+        return this.ip.equals(ip) && (cmd == null || Arrays.equals(this.cmd, cmd));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CommandKey that = (CommandKey) o;
+
+        if (hash != that.hash) return false;
+        if (!ip.equals(that.ip)) return false;
+        if (responseClass != that.responseClass) return false;
+        return Arrays.equals(cmd, that.cmd);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
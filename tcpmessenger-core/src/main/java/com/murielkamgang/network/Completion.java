@@ -0,0 +1,162 @@
+package com.murielkamgang.network;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Record of a request from the time it is sent until its callback is invoked, it is also the task run by the
+ * executor in blocking and pipelined mode.
+ * <p>
+ * <p>Records are pooled per thread, see {@link #obtain(TCPMessenger, TCPMessenger.Request, Class,
+ * TCPMessenger.Callback, RequestFuture)} and {@link #recycle()}. A record must not be touched once recycled. They
+ * are not pooled for a messenger running a virtual thread per request, each thread would get a pool of its own.</p>
+ */
+class Completion implements Runnable {
+
+    /**
+     * Recycled records of each thread, linked through {@link #next}
+     */
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    TCPMessenger messenger;
+    TCPMessenger.Request request;
+    /**
+     * Id of {@link #request}, key of this record in the {@link InFlightTable}
+     */
+    int id;
+    Class<?> responseClass;
+    /**
+     * The callback, null for requests sent with {@link TCPMessenger#sendAsync(TCPMessenger.Request, Class)}
+     */
+    WeakReference<TCPMessenger.Callback<?>> callback;
+    RequestFuture<?> future;
+    /**
+     * Key of the response in the response cache, null if the response is not to be cached
+     */
+    CommandKey cacheKey;
+    /**
+     * Key of the flight this request lead in single flight mode or with {@link SocketConfig#OVERFLOW_COALESCE},
+     * null otherwise
+     */
+    CommandKey flightKey;
+    /**
+     * Key of the command, only computed while the request is queued and another one overflow the queue of its
+     * host, see {@link RequestScheduler#lead(String, CommandKey)}
+     */
+    CommandKey commandKey;
+    /**
+     * {@link System#nanoTime()} when the request was handed to the transport, only set if
+     * {@link SocketConfig#metricsListener} is set
+     */
+    long startedAt;
+    /**
+     * {@link System#currentTimeMillis()} after which the request fail with a time out
+     */
+    long deadline;
+    /**
+     * Set if the request went through the {@link RequestScheduler}, its slot is released once done
+     */
+    boolean scheduled;
+    /**
+     * {@link System#nanoTime()} when the {@link RequestScheduler} dispatched the request, only set if
+     * {@link SocketConfig#adaptiveLimit} is set
+     */
+    long dispatchedAt;
+    /**
+     * Number of times the request was sent again, see {@link SocketConfig#maxRetries}
+     */
+    int attempt;
+    Object response;
+    Throwable error;
+    /**
+     * Next record in the pool or in the delivery list
+     */
+    Completion next;
+
+    private Completion() {
+    }
+
+    /**
+     * Get a record from the pool of the current thread, or a new one if empty
+     *
+     * @param messenger     the messenger sending the request
+     * @param request       the request
+     * @param responseClass the response class object expected
+     * @param callback      the callback to be invoked
+     * @param future        the future of the request
+     * @return the record
+     */
+    static Completion obtain(TCPMessenger messenger, TCPMessenger.Request request, Class<?> responseClass,
+                             TCPMessenger.Callback<?> callback, RequestFuture<?> future) {
+        Completion completion = null;
+        if (messenger == null || !messenger.usesVirtualThreads()) {
+            final Pool pool = pools.get();
+            completion = pool.head;
+            if (completion != null) {
+                pool.head = completion.next;
+                pool.size--;
+                completion.next = null;
+            }
+        }
+        if (completion == null) {
+            completion = new Completion();
+        }
+
+        completion.messenger = messenger;
+        completion.request = request;
+        completion.id = request.getId();
+        completion.responseClass = responseClass;
+        completion.callback = callback != null ? new WeakReference<TCPMessenger.Callback<?>>(callback) : null;
+        completion.future = future;
+        return completion;
+    }
+
+    /**
+     * Clear this record and give it back to the pool of the current thread
+     */
+    void recycle() {
+        final boolean pooled = messenger == null || !messenger.usesVirtualThreads();
+        messenger = null;
+        request = null;
+        responseClass = null;
+        callback = null;
+        future = null;
+        cacheKey = null;
+        flightKey = null;
+        commandKey = null;
+        startedAt = 0;
+        scheduled = false;
+        dispatchedAt = 0;
+        attempt = 0;
+        response = null;
+        error = null;
+        if (!pooled) {
+            next = null;
+            return;
+        }
+
+        final Pool pool = pools.get();
+        if (pool.size < Constant.COMPLETION_POOL_SIZE) {
+            next = pool.head;
+            pool.head = this;
+            pool.size++;
+        } else {
+            next = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        messenger.execute(this);
+    }
+
+    private static class Pool {
+
+        private Completion head;
+        private int size;
+    }
+}
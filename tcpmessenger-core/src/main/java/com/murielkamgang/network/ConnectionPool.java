@@ -0,0 +1,586 @@
+package com.murielkamgang.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of socket clients used by the blocking transport.
+ * <p>
+ * <p>A socket is borrowed by one request at a time with {@link #acquire(String, long)} and given back with
+ * {@link #release(String, Socket)}, or {@link #invalidate(String, Socket)} if its state is unknown. Each host can
+ * have up to {@link SocketConfig#maxConnectionsPerHost} sockets and the whole pool up to
+ * {@link SocketConfig#maxConnections}; when the pool is full the oldest idle socket of another host is closed to
+ * make room, otherwise the caller wait for a socket to be given back.</p>
+ * <p>
+ * <p>Connects are coalesced: a host has at most one connect in progress, other callers wait for it and fail with it
+ * if it fails, so a device coming back does not get a burst of connects from every request that was waiting.</p>
+ * <p>
+ * <p>A background task close sockets idle for more than {@link SocketConfig#idleTimeOut} (keeping
+ * {@link SocketConfig#minConnectionsPerHost} per host), drop sockets idle for a while
+ * ({@link Constant#POOL_PROBE_INTERVAL}) and closed by the peer, and open sockets up to the minimum of each known
+ * host. It is run by the threads shared with the other pools.</p>
+ */
+class ConnectionPool {
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * Socket config of this pool
+     */
+    private final SocketConfig socketConfig;
+    /**
+     * {@link SocketConfig#metricsListener}, null if disabled
+     */
+    private final MetricsListener metricsListener;
+    /**
+     * Lock guarding every host pool and {@link #openCount}. Not a monitor, so a virtual thread waiting for a socket
+     * does not pin its carrier thread
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when a socket is given back, a connect ended or a slot was freed
+     */
+    private final Condition available = lock.newCondition();
+    /**
+     * Pool per host
+     */
+    private final HashMap<String, HostPool> hostPools = new HashMap<>();
+    /**
+     * Number of sockets open or being opened in the whole pool
+     */
+    private int openCount;
+    /**
+     * Eviction scheduled on the {@link SharedResources#timer()} with the first socket, run in the
+     * {@link SharedResources#ioExecutor()} as it probes and opens sockets
+     */
+    private ScheduledFuture<?> evictor;
+    private boolean shutdown;
+
+    ConnectionPool(SocketConfig socketConfig) {
+        this.socketConfig = socketConfig;
+        this.metricsListener = socketConfig.metricsListener;
+    }
+
+    /**
+     * Borrow a socket to the given host, a new one is opened if none is idle and limits allow it
+     *
+     * @param ip       the host ip
+     * @param deadline {@link System#currentTimeMillis()} after which waiting for a socket or connecting a new one
+     *                 fail with a {@link SocketTimeoutException}
+     * @return a connected socket, to be given back with {@link #release(String, Socket)} or
+     * {@link #invalidate(String, Socket)}
+     * @throws SocketTimeoutException if no socket was available before the deadline
+     * @throws IOException            if a new socket could not be opened
+     */
+    Socket acquire(String ip, long deadline) throws IOException {
+        Socket victim = null;
+        long connectFailures = -1;//failures of the host when starting to wait for its connect in progress
+        try {
+            lock.lock();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        throw new IllegalStateException("pool is shutdown");
+                    }
+
+                    final HostPool hostPool = hostPoolFor(ip);
+                    PooledSocket pooledSocket;
+                    while ((pooledSocket = hostPool.idle.pollFirst()) != null) {
+                        if (!pooledSocket.socket.isClosed()) {
+                            if (Constant.ENABLE_LOGS) {
+                                logger.debug("reusing pooled client for ip {}", ip);
+                            }
+                            if (metricsListener != null) {
+                                metricsListener.onPoolHit(ip);
+                            }
+                            return pooledSocket.socket;
+                        }
+                        hostPool.openCount--;
+                        openCount--;
+                        if (metricsListener != null) {
+                            metricsListener.onPoolEviction(ip);
+                        }
+                    }
+
+                    if (connectFailures >= 0 && hostPool.connectFailures != connectFailures) {
+                        throw new SharedConnectException(ip, hostPool.connectError);
+                    }
+
+                    if (hostPool.connecting) {
+                        if (connectFailures < 0) {
+                            connectFailures = hostPool.connectFailures;
+                        }
+                    } else if (hostPool.openCount < socketConfig.maxConnectionsPerHost) {
+                        if (openCount >= socketConfig.maxConnections) {
+                            victim = removeOldestIdle();
+                        }
+
+                        if (openCount < socketConfig.maxConnections) {
+                            hostPool.openCount++;
+                            openCount++;
+                            hostPool.connecting = true;
+                            startEvictor();
+                            if (metricsListener != null) {
+                                metricsListener.onPoolMiss(ip);
+                            }
+                            break;
+                        }
+                    }
+
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new WaitTimeoutException("no pooled client available for ip " + ip);
+                    }
+                    available.await(remaining, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WaitTimeoutException("interrupted while waiting for a pooled client");
+        } finally {
+            closeQuietly(victim);
+        }
+
+        //slot reserved, connect outside of the lock
+        final Socket socket;
+        try {
+            socket = connect(ip, deadline);
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                final HostPool hostPool = hostPoolFor(ip);
+                hostPool.connecting = false;
+                hostPool.connectError = e;
+                hostPool.connectFailures++;
+            } finally {
+                lock.unlock();
+            }
+            forget(ip);
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            hostPoolFor(ip).connecting = false;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return socket;
+    }
+
+    /**
+     * Open a socket to the given host unless one is idle, so the next request does not wait for the connect
+     *
+     * @param ip       the host ip
+     * @param deadline {@link System#currentTimeMillis()} after which the connect fail with a
+     *                 {@link SocketTimeoutException}
+     * @throws IOException if the socket could not be opened
+     */
+    void preconnect(String ip, long deadline) throws IOException {
+        release(ip, acquire(ip, deadline));
+    }
+
+    /**
+     * Give back a borrowed socket that is still in a clean state
+     *
+     * @param ip     the host ip
+     * @param socket the socket
+     */
+    void release(String ip, Socket socket) {
+        lock.lock();
+        try {
+            if (!shutdown && !socket.isClosed()) {
+                hostPoolFor(ip).idle.offerFirst(new PooledSocket(socket, System.currentTimeMillis()));
+                available.signalAll();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        invalidate(ip, socket);
+    }
+
+    /**
+     * Close a borrowed socket whose state is unknown, a new one will be opened for the next request
+     *
+     * @param ip     the host ip
+     * @param socket the socket
+     */
+    void invalidate(String ip, Socket socket) {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("invalidating client for ip {}", ip);
+        }
+
+        closeQuietly(socket);
+        forget(ip);
+    }
+
+    /**
+     * Open a new socket with the socket config options, not tracked by this pool. The connect is bounded by the
+     * socket time out
+     *
+     * @param ip the host ip
+     * @return the connected socket
+     * @throws IOException if the socket could not be opened
+     */
+    Socket connect(String ip) throws IOException {
+        return connect(ip, socketConfig.timeOut > 0 ? System.currentTimeMillis() + socketConfig.timeOut
+                : Long.MAX_VALUE);
+    }
+
+    /**
+     * Open a new socket with the socket config options, not tracked by this pool
+     *
+     * @param ip       the host ip
+     * @param deadline {@link System#currentTimeMillis()} after which the connect fail with a
+     *                 {@link SocketTimeoutException}
+     * @return the connected socket
+     * @throws IOException if the socket could not be opened
+     */
+    Socket connect(String ip, long deadline) throws IOException {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("creating new client for ip {}", ip);
+        }
+
+        final Socket socket = new Socket();
+        try {
+            socketConfig.applyTo(socket);
+            final long start = metricsListener != null ? System.nanoTime() : 0;
+            socket.connect(new InetSocketAddress(ip, socketConfig.port), timeOutUntil(deadline));
+            if (metricsListener != null) {
+                metricsListener.onConnect(ip, System.nanoTime() - start);
+            }
+            socket.setSoTimeout(socketConfig.timeOut);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Close every idle socket and stop the background thread, borrowed sockets are closed when given back
+     */
+    void shutdown() {
+        final List<Socket> sockets = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (HostPool hostPool : hostPools.values()) {
+                for (PooledSocket pooledSocket : hostPool.idle) {
+                    sockets.add(pooledSocket.socket);
+                }
+                hostPool.openCount -= hostPool.idle.size();
+                openCount -= hostPool.idle.size();
+                hostPool.idle.clear();
+            }
+            if (evictor != null) {
+                evictor.cancel(false);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Put back an idle socket taken by the eviction thread, keeping its idle time
+     *
+     * @param ip           the host ip
+     * @param pooledSocket the idle socket
+     */
+    private void restore(String ip, PooledSocket pooledSocket) {
+        lock.lock();
+        try {
+            if (!shutdown) {
+                hostPoolFor(ip).idle.offerLast(pooledSocket);
+                available.signalAll();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        invalidate(ip, pooledSocket.socket);
+    }
+
+    private void forget(String ip) {
+        lock.lock();
+        try {
+            hostPoolFor(ip).openCount--;
+            openCount--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private HostPool hostPoolFor(String ip) {
+        HostPool hostPool = hostPools.get(ip);
+        if (hostPool == null) {
+            hostPool = new HostPool();
+            hostPools.put(ip, hostPool);
+        }
+        return hostPool;
+    }
+
+    /**
+     * Remove the oldest idle socket of the pool, must be called with the lock held
+     *
+     * @return the removed socket to be closed outside of the lock, or null if no socket is idle
+     */
+    private Socket removeOldestIdle() {
+        String oldestIp = null;
+        HostPool oldestPool = null;
+        for (Map.Entry<String, HostPool> entry : hostPools.entrySet()) {
+            final HostPool hostPool = entry.getValue();
+            if (!hostPool.idle.isEmpty() && (oldestPool == null
+                    || hostPool.idle.peekLast().idleSince < oldestPool.idle.peekLast().idleSince)) {
+                oldestIp = entry.getKey();
+                oldestPool = hostPool;
+            }
+        }
+
+        if (oldestPool == null) {
+            return null;
+        }
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("pool is full, evicting the oldest idle client");
+        }
+        if (metricsListener != null) {
+            metricsListener.onPoolEviction(oldestIp);
+        }
+        oldestPool.openCount--;
+        openCount--;
+        return oldestPool.idle.pollLast().socket;
+    }
+
+    private void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+
+        final Runnable eviction = new Runnable() {
+            @Override
+            public void run() {
+                evict(System.currentTimeMillis());
+            }
+        };
+        evictor = SharedResources.timer().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                SharedResources.ioExecutor().execute(eviction);
+            }
+        }, Constant.POOL_EVICTION_INTERVAL, Constant.POOL_EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close expired and dead idle sockets and open sockets up to the minimum of each host. Only the sockets not
+     * checked for {@link Constant#POOL_PROBE_INTERVAL} are taken out of the pool to be probed
+     *
+     * @param now {@link System#currentTimeMillis()}
+     */
+    void evict(long now) {
+        final List<Socket> expired = new ArrayList<>();
+        final Map<String, List<PooledSocket>> toProbe = new HashMap<>();
+        final List<String> toOpen = new ArrayList<>();
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+
+            for (Map.Entry<String, HostPool> entry : hostPools.entrySet()) {
+                final HostPool hostPool = entry.getValue();
+                final Iterator<PooledSocket> iterator = hostPool.idle.descendingIterator();//oldest first
+                while (iterator.hasNext()) {
+                    final PooledSocket pooledSocket = iterator.next();
+                    if (now - pooledSocket.idleSince >= socketConfig.idleTimeOut
+                            && hostPool.openCount > socketConfig.minConnectionsPerHost) {
+                        iterator.remove();
+                        hostPool.openCount--;
+                        openCount--;
+                        expired.add(pooledSocket.socket);
+                        if (metricsListener != null) {
+                            metricsListener.onPoolEviction(entry.getKey());
+                        }
+                    } else if (now - pooledSocket.checkedAt >= Constant.POOL_PROBE_INTERVAL) {//borrowed for the probe
+                        iterator.remove();
+                        pooledSocket.checkedAt = now;
+                        List<PooledSocket> pooledSockets = toProbe.get(entry.getKey());
+                        if (pooledSockets == null) {
+                            pooledSockets = new ArrayList<>();
+                            toProbe.put(entry.getKey(), pooledSockets);
+                        }
+                        pooledSockets.add(pooledSocket);
+                    }
+                }
+
+                for (int i = hostPool.openCount; i < socketConfig.minConnectionsPerHost
+                        && openCount < socketConfig.maxConnections; i++) {
+                    hostPool.openCount++;
+                    openCount++;
+                    toOpen.add(entry.getKey());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (Socket socket : expired) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("closing idle client {}", socket);
+            }
+            closeQuietly(socket);
+        }
+
+        for (Map.Entry<String, List<PooledSocket>> entry : toProbe.entrySet()) {
+            final List<PooledSocket> pooledSockets = entry.getValue();
+            for (int i = pooledSockets.size() - 1; i >= 0; i--) {//newest first, so the oldest end up last again
+                final PooledSocket pooledSocket = pooledSockets.get(i);
+                if (isAlive(pooledSocket.socket)) {
+                    restore(entry.getKey(), pooledSocket);
+                } else {
+                    if (metricsListener != null) {
+                        metricsListener.onPoolEviction(entry.getKey());
+                    }
+                    invalidate(entry.getKey(), pooledSocket.socket);
+                }
+            }
+        }
+
+        for (String ip : toOpen) {
+            try {
+                release(ip, connect(ip));
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("could not open min client for ip {}", ip, e);
+                }
+                forget(ip);
+            }
+        }
+    }
+
+    /**
+     * Check that an idle socket was not closed by its peer, nothing is expected to be readable on an idle socket
+     *
+     * @param socket the idle socket
+     * @return true if the socket can still be used
+     */
+    private boolean isAlive(Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        try {
+            socket.setSoTimeout(1);
+            try {
+                socket.getInputStream().read();
+                return false;//closed by peer, or unexpected data meaning the stream is out of sync
+            } catch (SocketTimeoutException e) {
+                return true;//nothing to read, still connected
+            } finally {
+                socket.setSoTimeout(socketConfig.timeOut);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param deadline {@link System#currentTimeMillis()} of the deadline, {@link Long#MAX_VALUE} for none
+     * @return the time out in ms to give to a socket operation so it end by the deadline, 0 for none
+     * @throws SocketTimeoutException if the deadline is already passed
+     */
+    static int timeOutUntil(long deadline) throws SocketTimeoutException {
+        if (deadline == Long.MAX_VALUE) {
+            return 0;
+        }
+
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("request deadline exceeded");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (Exception e) {
+            //Ignore
+        }
+    }
+
+    /**
+     * Sockets of one host
+     */
+    private static class HostPool {
+
+        /**
+         * Idle sockets, most recently released first
+         */
+        private final ArrayDeque<PooledSocket> idle = new ArrayDeque<>();
+        /**
+         * Number of sockets of this host open or being opened, idle or borrowed
+         */
+        private int openCount;
+        /**
+         * True while a connect to this host is in progress
+         */
+        private boolean connecting;
+        /**
+         * Number of connects to this host that failed, tells the callers waiting for a connect that it failed
+         */
+        private long connectFailures;
+        /**
+         * Error of the last connect that failed
+         */
+        private Exception connectError;
+    }
+
+    private static class PooledSocket {
+
+        private final Socket socket;
+        private final long idleSince;
+        /**
+         * {@link System#currentTimeMillis()} of the last probe, or of the release if never probed. Guarded by the
+         * pool lock
+         */
+        private long checkedAt;
+
+        private PooledSocket(Socket socket, long idleSince) {
+            this.socket = socket;
+            this.idleSince = idleSince;
+            this.checkedAt = idleSince;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.murielkamgang.network;
+
+/**
+ * Created by kamga on 3/11/2017.
+ */
+
+/**
+ * Constant holder for default constant value
+ */
+public class Constant {
+
+    /**
+     * Flag to enable logs, I know this is bad as it will require useless dependency of this Class.
+     */
+    static final boolean ENABLE_LOGS = false; //This is maybe not so good
+    /**
+     * Default tcp socket server port
+     */
+    static final int TCP_PORT = 49152;
+
+    /**
+     * Default client socket time out, for now it is set to 3000ms because i believe it is best for this
+     * project, although it can be override anytime to fit your need
+     */
+    static final int DEFAULT_TIME_OUT = 3000;
+
+    /**
+     * Field name of the request/response id in pipelined mode envelope
+     */
+    static final String ENVELOPE_ID = "id";
+
+    /**
+     * Field name of the command in pipelined mode request envelope
+     */
+    static final String ENVELOPE_CMD = "cmd";
+
+    /**
+     * Field name of the response in pipelined mode response envelope
+     */
+    static final String ENVELOPE_RESPONSE = "response";
+
+    /**
+     * Field name of the error message in pipelined mode response envelope, set instead of the response when the
+     * command failed
+     */
+    static final String ENVELOPE_ERROR = "error";
+
+    /**
+     * Number of event loop threads of the {@link NioTransport}, each one can serve hundreds of devices
+     */
+    static final int NIO_EVENT_LOOP_COUNT = 2;
+
+    /**
+     * Max time in ms an event loop of the {@link NioTransport} wait before checking time outs
+     */
+    static final int NIO_TICK = 100;
+
+    /**
+     * Size of the read buffer of each event loop of the {@link NioTransport}
+     */
+    static final int NIO_READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Max frame payload size accepted in framed mode, anything bigger means the stream is out of sync
+     */
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Initial capacity of frame buffers in framed mode
+     */
+    static final int FRAME_INITIAL_CAPACITY = 1024;
+
+    /**
+     * Biggest buffer capacity kept by {@link BufferPool}, must be a power of two
+     */
+    static final int BUFFER_POOL_MAX_CAPACITY = 64 * 1024;
+
+    /**
+     * Max number of buffers kept by {@link BufferPool} per capacity
+     */
+    static final int BUFFER_POOL_BUCKET_SIZE = 16;
+
+    /**
+     * Default max number of pooled socket clients per host
+     */
+    static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+    /**
+     * Default max number of pooled socket clients for all hosts
+     */
+    static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /**
+     * Default time in ms after which an idle pooled socket client is closed
+     */
+    static final int DEFAULT_IDLE_TIME_OUT = 60000;
+
+    /**
+     * Interval in ms between two runs of the {@link ConnectionPool} eviction thread
+     */
+    static final int POOL_EVICTION_INTERVAL = 5000;
+
+    /**
+     * Time in ms an idle socket stays in the {@link ConnectionPool} before the eviction checks it was not closed by
+     * its peer, then between two checks. The check take the socket out of the pool for a moment
+     */
+    static final int POOL_PROBE_INTERVAL = 30000;
+
+    /**
+     * Max number of commands gathered in one batch by the coalescing window
+     */
+    static final int MAX_COALESCED_BATCH = 64;
+
+    /**
+     * Number of slots of the table of requests in flight, must be a power of two
+     */
+    static final int IN_FLIGHT_TABLE_SIZE = 1024;
+
+    /**
+     * Max number of recycled request records kept per thread
+     */
+    static final int COMPLETION_POOL_SIZE = 64;
+
+    /**
+     * Max number of objects kept by an {@link ObjectPool}, about the number of requests encoding or decoding at the
+     * same time
+     */
+    static final int OBJECT_POOL_SIZE = 16;
+
+    /**
+     * Interval in ms between two runs of the {@link Watchdog} thread, the max delay to abort a request past its
+     * deadline or cancelled while blocked on a socket
+     */
+    static final int WATCHDOG_INTERVAL = 50;
+
+    /**
+     * Max number of elements of a stream read and not delivered yet, the reader wait for the callback past that
+     */
+    static final int STREAM_WINDOW = 32;
+
+    /**
+     * Request id of a pushed message in framed pipelined mode, request ids start at 1
+     */
+    static final int PUSH_ID = 0;
+
+    /**
+     * Marker of an error frame in framed pipelined mode, followed by the request id and the utf-8 error message
+     */
+    static final int ERROR_ID = -1;
+
+    /**
+     * Interval in ms between two checks that every device with a push listener still has an open connection
+     */
+    static final int PUSH_CHECK_INTERVAL = 1000;
+
+    /**
+     * Default backoff in ms before the first retry of a request
+     */
+    static final int DEFAULT_RETRY_BACKOFF = 100;
+
+    /**
+     * Default max backoff in ms between two retries of a request
+     */
+    static final int DEFAULT_MAX_RETRY_BACKOFF = 2000;
+
+    /**
+     * Default time in ms the circuit breaker of a device stay open
+     */
+    static final int DEFAULT_CIRCUIT_BREAKER_COOLDOWN = 5000;
+
+    /**
+     * Field name of the type of an object command, see {@link TCPMessengerServer#addHandler}
+     */
+    static final String COMMAND_TYPE_FIELD = "type";
+
+    /**
+     * Max number of connections waiting to be accepted by the {@link TCPMessengerServer}
+     */
+    static final int SERVER_BACKLOG = 1024;
+
+    /**
+     * Bytes of responses waiting to be written to a client of the {@link TCPMessengerServer} past which its commands
+     * are no longer read, until the client read its responses
+     */
+    static final int SERVER_WRITE_HIGH_WATER = 256 * 1024;
+
+    /**
+     * Max number of commands of a client of the {@link TCPMessengerServer} received and not answered yet, its
+     * commands are no longer read past it until some are answered
+     */
+    static final int SERVER_MAX_PENDING_COMMANDS = 256;
+
+    /**
+     * Max bytes waiting to be written to a client of the {@link TCPMessengerServer}, a client not reading the
+     * messages pushed to it is disconnected past it
+     */
+    static final int SERVER_MAX_BUFFERED_OUTPUT = 4 * 1024 * 1024;
+
+    /**
+     * Number of threads of the blocking I/O executor shared by every {@link TCPMessenger}, see {@link SharedResources}
+     */
+    static final int IO_THREAD_COUNT = 5;
+
+    /**
+     * Time in ms a thread shared by every {@link TCPMessenger} stay idle before it is stopped, it is started again on
+     * demand
+     */
+    static final int SHARED_THREAD_KEEP_ALIVE = 30000;
+
+    /**
+     * Initial number of requests per host sent and not yet answered when {@link SocketConfig#adaptiveLimit} is set
+     */
+    static final int ADAPTIVE_LIMIT_INITIAL = 4;
+
+    /**
+     * Factor applied to the adaptive limit of a host each time its latency grows or a request time out
+     */
+    static final double ADAPTIVE_LIMIT_BACKOFF = 0.9;
+
+    /**
+     * Latency over the lowest one seen, as a factor, from which a host is considered overloaded
+     */
+    static final int ADAPTIVE_LIMIT_TOLERANCE = 2;
+
+    /**
+     * Number of responses after which the lowest latency of a host is measured again, so the baseline follows a
+     * device whose latency changed for good
+     */
+    static final int ADAPTIVE_LIMIT_WINDOW = 500;
+
+}
@@ -0,0 +1,314 @@
+package com.murielkamgang.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link Codec} compressing the messages of another codec with deflate, only the messages of at least
+ * {@code threshold} bytes are compressed. Needs {@link SocketConfig#framed} since a compressed message can not be
+ * told apart from the next one without its frame, and the socket server need to speak the same format.
+ * <p>
+ * <p>Each message start with one byte: {@link #RAW} followed by the message of the wrapped codec, or
+ * {@link #DEFLATED} followed by that message deflated in the zlib format. With a preset dictionary (see
+ * {@link Deflater#setDictionary(byte[])}) small messages sharing the same keys and values compress well too, both
+ * sides need the same dictionary.</p>
+ * <p>
+ * <p>The {@link Deflater}, {@link Inflater} and buffers are pooled (see {@link ObjectPool}) and shared by every
+ * thread, so a message is compressed or decompressed without allocating once the buffers have grown to the usual message size.</p>
+ */
+public class DeflateCodec implements Codec {
+
+    /**
+     * First byte of a message sent as is
+     */
+    public static final int RAW = 0;
+    /**
+     * First byte of a deflated message
+     */
+    public static final int DEFLATED = 1;
+
+    /**
+     * Codec encoding the messages before they are compressed
+     */
+    private final Codec codec;
+    /**
+     * Min size in bytes of a message to be compressed, smaller ones are not worth the CPU
+     */
+    private final int threshold;
+    /**
+     * Compression level, see {@link Deflater#setLevel(int)}
+     */
+    private final int level;
+    /**
+     * Preset dictionary, null if none
+     */
+    private final byte[] dictionary;
+    /**
+     * Deflaters with their encoded message and compressed message buffers, the native memory of the ones not pooled
+     * is freed right away
+     */
+    private final ObjectPool<Compressor> compressors = new ObjectPool<Compressor>() {
+        @Override
+        protected Compressor create() {
+            return new Compressor(new Deflater(level));
+        }
+
+        @Override
+        protected void discard(Compressor compressor) {
+            compressor.deflater.end();
+        }
+    };
+    /**
+     * Inflaters with their decompressed message buffer
+     */
+    private final ObjectPool<Decompressor> decompressors = new ObjectPool<Decompressor>() {
+        @Override
+        protected Decompressor create() {
+            return new Decompressor(new Inflater());
+        }
+
+        @Override
+        protected void discard(Decompressor decompressor) {
+            decompressor.inflater.end();
+        }
+    };
+
+    /**
+     * @param codec     the codec encoding the messages, {@link JsonCodec} for plain json
+     * @param threshold min size in bytes of a message to be compressed
+     */
+    public DeflateCodec(Codec codec, int threshold) {
+        this(codec, threshold, Deflater.BEST_SPEED, null);
+    }
+
+    /**
+     * @param codec      the codec encoding the messages, {@link JsonCodec} for plain json
+     * @param threshold  min size in bytes of a message to be compressed
+     * @param level      the compression level, {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     * @param dictionary preset dictionary, typically messages concatenated with the most common strings last. Null
+     *                   for none
+     */
+    public DeflateCodec(Codec codec, int threshold, int level, byte[] dictionary) {
+        this.codec = codec;
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary != null ? Arrays.copyOf(dictionary, dictionary.length) : null;
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        final Compressor compressor = compressors.acquire();
+        try {
+            final Buffer encoded = compressor.encoded;
+            encoded.reset();
+            codec.encode(value, encoded);
+            if (encoded.size() < threshold || !compressor.deflate(encoded, dictionary)) {
+                out.write(RAW);
+                out.write(encoded.array(), 0, encoded.size());
+                return;
+            }
+
+            out.write(DEFLATED);
+            out.write(compressor.deflated.array(), 0, compressor.deflated.size());
+        } finally {
+            compressors.release(compressor);
+        }
+    }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> type) throws IOException {
+        final int flag = in.read();
+        if (flag == RAW) {
+            return codec.decode(in, type);
+        }
+        if (flag != DEFLATED) {
+            throw new StreamCorruptedException("invalid compression flag " + flag);
+        }
+
+        //read the rest of the message, the inflater need the whole input to tell a truncated message
+        final Decompressor decompressor = decompressors.acquire();
+        try {
+            final Buffer input = decompressor.input;
+            input.reset();
+            int read;
+            do {
+                if (input.size() >= Constant.MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("deflated message too big");
+                }
+                input.ensureRemaining(Constant.FRAME_INITIAL_CAPACITY);
+                read = in.read(input.array(), input.size(), input.array().length - input.size());
+                input.advance(read);
+            } while (read != -1);
+
+            final int size = decompressor.inflate(input.array(), 0, input.size());
+            return codec.decode(decompressor.inflated, 0, size, type);
+        } finally {
+            decompressors.release(decompressor);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+        if (length < 1) {
+            throw new StreamCorruptedException("message without compression flag");
+        }
+
+        final int flag = bytes[offset];
+        if (flag == RAW) {
+            return codec.decode(bytes, offset + 1, length - 1, type);
+        }
+        if (flag != DEFLATED) {
+            throw new StreamCorruptedException("invalid compression flag " + flag);
+        }
+
+        final Decompressor decompressor = decompressors.acquire();
+        try {
+            final int size = decompressor.inflate(bytes, offset + 1, length - 1);
+            return codec.decode(decompressor.inflated, 0, size, type);
+        } finally {
+            decompressors.release(decompressor);
+        }
+    }
+
+    private void setDictionary(Inflater inflater) throws IOException {
+        if (dictionary == null) {
+            throw new StreamCorruptedException("message deflated with a dictionary, none is set");
+        }
+        try {
+            inflater.setDictionary(dictionary);
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException("message deflated with another dictionary");
+        }
+    }
+
+    /**
+     * Byte array output stream exposing its array
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer() {
+            super(Constant.FRAME_INITIAL_CAPACITY);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+
+        /**
+         * Make room for at least {@code length} more bytes
+         */
+        private void ensureRemaining(int length) {
+            if (count + length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + length));
+            }
+        }
+
+        /**
+         * Count {@code length} bytes written directly in {@link #array()}, nothing if negative
+         */
+        private void advance(int length) {
+            if (length > 0) {
+                count += length;
+            }
+        }
+    }
+
+    private static class Compressor {
+
+        private final Deflater deflater;
+        private final Buffer encoded = new Buffer();
+        private final Buffer deflated = new Buffer();
+
+        private Compressor(Deflater deflater) {
+            this.deflater = deflater;
+        }
+
+        /**
+         * Deflate a message into {@link #deflated}
+         *
+         * @param encoded    the message
+         * @param dictionary the preset dictionary, null if none
+         * @return false if the deflated message is not smaller than the message, it is then sent as is
+         */
+        private boolean deflate(Buffer encoded, byte[] dictionary) {
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(encoded.array(), 0, encoded.size());
+            deflater.finish();
+
+            deflated.reset();
+            while (!deflater.finished()) {
+                if (deflated.size() >= encoded.size()) {
+                    return false;
+                }
+                deflated.ensureRemaining(encoded.size() - deflated.size());
+                deflated.advance(deflater.deflate(deflated.array(), deflated.size(),
+                        deflated.array().length - deflated.size()));
+            }
+            return deflated.size() < encoded.size();
+        }
+    }
+
+    private class Decompressor {
+
+        private final Inflater inflater;
+        /**
+         * Deflated message read from a stream
+         */
+        private final Buffer input = new Buffer();
+        /**
+         * Decompressed message, grown as needed
+         */
+        private byte[] inflated = new byte[Constant.FRAME_INITIAL_CAPACITY];
+
+        private Decompressor(Inflater inflater) {
+            this.inflater = inflater;
+        }
+
+        /**
+         * Inflate a message into {@link #inflated}
+         *
+         * @return the size of the decompressed message
+         * @throws IOException if the message is corrupted or bigger than {@link Constant#MAX_FRAME_SIZE}
+         */
+        private int inflate(byte[] bytes, int offset, int length) throws IOException {
+            inflater.reset();
+            inflater.setInput(bytes, offset, length);
+            int size = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (size == inflated.length) {
+                        if (size >= Constant.MAX_FRAME_SIZE) {
+                            throw new StreamCorruptedException("decompressed message too big");
+                        }
+                        inflated = Arrays.copyOf(inflated, Math.min(size << 1, Constant.MAX_FRAME_SIZE));
+                    }
+
+                    final int read = inflater.inflate(inflated, size, inflated.length - size);
+                    size += read;
+                    if (read == 0) {
+                        if (inflater.needsDictionary()) {
+                            setDictionary(inflater);
+                        } else if (inflater.needsInput()) {
+                            throw new StreamCorruptedException("truncated deflated message");
+                        }
+                    }
+                }
+            } catch (DataFormatException e) {
+                final StreamCorruptedException error = new StreamCorruptedException("invalid deflated message");
+                error.initCause(e);
+                throw error;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Command encoded once and sent as is to many devices, see
+ * {@link TCPMessenger#broadcast(java.util.List, Object, Class, TCPMessenger.Callback)}.
+ * <p>
+ * <p>Framed writes copy its bytes with {@link #write(Codec, Object, OutputStream)}. Writes through a Jackson
+ * generator, the pipelined envelope or a batch, copy the json text as a raw value, or the tokens of the bytes for
+ * binary formats.</p>
+ */
+class EncodedCommand implements JsonSerializable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The command before encoding, only used by {@link #toString()}
+     */
+    private final Object cmd;
+    /**
+     * The command encoded with the codec
+     */
+    private final byte[] bytes;
+    /**
+     * Factory of the codec, null if it is not a {@link JacksonCodec}
+     */
+    private final JsonFactory factory;
+    /**
+     * The json text of the command, null if the format is not json. Its utf-8 bytes are cached once written
+     */
+    private final SerializedString json;
+
+    private EncodedCommand(Object cmd, byte[] bytes, JsonFactory factory) {
+        this.cmd = cmd;
+        this.bytes = bytes;
+        this.factory = factory;
+        json = factory != null && JsonFactory.FORMAT_NAME_JSON.equals(factory.getFormatName())
+                ? new SerializedString(new String(bytes, UTF_8)) : null;
+    }
+
+    /**
+     * @param cmd   the command
+     * @param codec the codec of the {@link TCPMessenger} sending it
+     * @return the command encoded
+     * @throws IOException if the command can not be encoded
+     */
+    static EncodedCommand of(Object cmd, Codec codec) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(codec, cmd, out);
+        return new EncodedCommand(cmd, out.toByteArray(),
+                codec instanceof JacksonCodec ? ((JacksonCodec) codec).getObjectMapper().getFactory() : null);
+    }
+
+    /**
+     * Encode a command, the bytes of an encoded command are copied as is
+     *
+     * @param codec the codec
+     * @param cmd   the command
+     * @param out   the stream to write to
+     * @throws IOException if the command can not be encoded
+     */
+    static void write(Codec codec, Object cmd, OutputStream out) throws IOException {
+        if (cmd instanceof EncodedCommand) {
+            final byte[] bytes = ((EncodedCommand) cmd).bytes;
+            out.write(bytes, 0, bytes.length);
+        } else {
+            codec.encode(cmd, out);
+        }
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        if (factory == null) {
+            throw new IOException("command encoded with a codec that is not a JacksonCodec");
+        }
+
+        if (json != null) {
+            generator.writeRawValue(json);
+            return;
+        }
+
+        try (final JsonParser parser = factory.createParser(bytes)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider serializers,
+                                  TypeSerializer typeSerializer) throws IOException {
+        serialize(generator, serializers);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(cmd);
+    }
+}
@@ -0,0 +1,95 @@
+package com.murielkamgang.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable output stream building length prefixed frames: a 4 bytes big endian length followed by the payload.
+ * Several frames can be appended to be written at once. Its internal array is reused from one write to the other
+ * so writing a frame does not allocate once the stream has grown to the usual frame size.
+ * <p>
+ * <p>Unframed modes use it as a plain reusable buffer.</p>
+ */
+class FrameOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * Offset of the length prefix of the current frame
+     */
+    private int frameStart;
+
+    FrameOutputStream() {
+        super(Constant.FRAME_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Start a new frame, previous content is discarded
+     */
+    void begin() {
+        reset();
+        next();
+    }
+
+    /**
+     * Start a new frame after the frames already written
+     */
+    void next() {
+        frameStart = count;
+        writeInt(0);//length placeholder, set by finish()
+    }
+
+    /**
+     * Drop everything written after the given size, used to roll back a value that failed to encode
+     *
+     * @param size the size to go back to
+     */
+    void truncate(int size) {
+        count = size;
+    }
+
+    /**
+     * Write a 4 bytes big endian int in the payload
+     *
+     * @param value the int to write
+     */
+    void writeInt(int value) {
+        write(value >>> 24);
+        write(value >>> 16);
+        write(value >>> 8);
+        write(value);
+    }
+
+    /**
+     * Complete the current frame by setting its length prefix
+     */
+    void finish() {
+        final int length = count - frameStart - 4;
+        buf[frameStart] = (byte) (length >>> 24);
+        buf[frameStart + 1] = (byte) (length >>> 16);
+        buf[frameStart + 2] = (byte) (length >>> 8);
+        buf[frameStart + 3] = (byte) length;
+    }
+
+    /**
+     * Write every frame to the given stream
+     *
+     * @param out the output stream
+     * @throws IOException if the frame can not be written
+     */
+    void writeFrameTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * @return a buffer view of every frame, valid until the next {@link #begin()}
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    @Override
+    public void close() {
+        //nothing to close, Jackson close its target once a value is written
+    }
+}
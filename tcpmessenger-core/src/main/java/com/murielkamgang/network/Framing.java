@@ -0,0 +1,144 @@
+package com.murielkamgang.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers to read length prefixed frames, see {@link SocketConfig#framed}
+ */
+final class Framing {
+
+    private Framing() {
+    }
+
+    /**
+     * Read one frame from a blocking stream
+     *
+     * @param in         the input stream
+     * @param bufferPool the pool the frame buffer is taken from
+     * @return a buffer holding the frame payload from 0 to its limit, to be released to the pool once decoded
+     * @throws IOException if the frame could not be read or its length is invalid
+     */
+    static ByteBuffer readFrame(InputStream in, BufferPool bufferPool) throws IOException {
+        final ByteBuffer buffer = readFrameOrEnd(in, bufferPool);
+        if (buffer == null) {
+            throw new EOFException("connection closed by peer");
+        }
+        return buffer;
+    }
+
+    /**
+     * Read one frame from a blocking stream, or nothing if the stream end before the frame start
+     *
+     * @param in         the input stream
+     * @param bufferPool the pool the frame buffer is taken from
+     * @return a buffer holding the frame payload from 0 to its limit, to be released to the pool once decoded, or
+     * null if the stream ended
+     * @throws IOException if the frame could not be read or its length is invalid
+     */
+    static ByteBuffer readFrameOrEnd(InputStream in, BufferPool bufferPool) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire(Constant.FRAME_INITIAL_CAPACITY);
+        try {
+            final int read = in.read(buffer.array(), 0, 4);
+            if (read < 0) {
+                bufferPool.release(buffer);
+                return null;
+            }
+
+            readFully(in, buffer.array(), read, 4 - read);
+            final int length = checkLength(buffer.getInt(0));
+            if (length > buffer.capacity()) {
+                bufferPool.release(buffer);
+                buffer = bufferPool.acquire(length);
+            }
+
+            readFully(in, buffer.array(), 0, length);
+            buffer.limit(length);
+            return buffer;
+        } catch (IOException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Decode the payload of a frame, a {@link RawResponse} takes the frame over without decoding it
+     *
+     * @param codec      the codec
+     * @param frame      the frame
+     * @param offset     the offset of the payload in the frame
+     * @param type       the class of the expected value
+     * @param bufferPool the pool the frame buffer was taken from
+     * @param <T>        Type of the object expected
+     * @return the decoded value
+     * @throws IOException if the value can not be decoded
+     */
+    static <T> T decode(Codec codec, ByteBuffer frame, int offset, Class<T> type, BufferPool bufferPool)
+            throws IOException {
+        if (keepsFrame(type)) {
+            return type.cast(new RawResponse(frame, offset, bufferPool));
+        }
+        return codec.decode(frame.array(), offset, frame.limit() - offset, type);
+    }
+
+    /**
+     * @param type the class of the expected value
+     * @return true if {@link #decode(Codec, ByteBuffer, int, Class, BufferPool)} hand the frame over to the value,
+     * the frame must not be released to the pool then
+     */
+    static boolean keepsFrame(Class<?> type) {
+        return type == RawResponse.class;
+    }
+
+    /**
+     * Read an error frame, see {@link Constant#ERROR_ID}
+     *
+     * @param frame the frame
+     * @return the request id of the error frame
+     * @throws StreamCorruptedException if the frame is too short for a request id
+     */
+    static int errorIdOf(ByteBuffer frame) throws StreamCorruptedException {
+        if (frame.limit() < 8) {
+            throw new StreamCorruptedException("error frame too short for a request id");
+        }
+        return frame.getInt(4);
+    }
+
+    /**
+     * @param frame an error frame, see {@link #errorIdOf(ByteBuffer)}
+     * @return the error the request of the frame fails with
+     */
+    static CommandFailedException errorOf(ByteBuffer frame) {
+        return new CommandFailedException(new String(frame.array(), 8, frame.limit() - 8, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Check a frame length read from the wire
+     *
+     * @param length the length
+     * @return the length
+     * @throws StreamCorruptedException if the length is negative or above {@link Constant#MAX_FRAME_SIZE}, the stream
+     *                                  is then out of sync and the connection need to be closed
+     */
+    static int checkLength(int length) throws StreamCorruptedException {
+        if (length < 0 || length > Constant.MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("invalid frame length " + length);
+        }
+        return length;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int read = in.read(bytes, offset, length);
+            if (read < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.murielkamgang.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of positive values, recording does not allocate.
+ * <p>
+ * <p>Values are counted in buckets of 4 per power of two, so percentiles are known within 25%.</p>
+ */
+public final class Histogram {
+
+    /**
+     * Number of buckets, enough for {@link Long#MAX_VALUE}
+     */
+    private static final int BUCKET_COUNT = 248;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * @param value the value to record, negative values are recorded as 0
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            //retry
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the recorded values
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the greatest recorded value, 0 if none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if none
+     */
+    public double getMean() {
+        final long count = this.count.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return an upper bound of the value below which the given percent of the recorded values fall, 0 if none
+     */
+    public long getPercentile(double percentile) {
+        final long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < 4) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - 2)) & 3;
+        return (exponent - 1) * 4 + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+
+        final int exponent = bucket / 4 + 1;
+        final long lower = (long) (4 + bucket % 4) << (exponent - 2);
+        return lower + (1L << (exponent - 2)) - 1;
+    }
+}
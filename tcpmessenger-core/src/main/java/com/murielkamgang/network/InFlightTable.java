@@ -0,0 +1,73 @@
+package com.murielkamgang.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free table of the requests in flight keyed by request id.
+ * <p>
+ * <p>Request ids are sequential so each request get its own slot of a fixed array, nothing is allocated on put
+ * or remove. A request whose slot is still used by an older request still in flight goes to an overflow map.</p>
+ */
+class InFlightTable {
+
+    private final AtomicReferenceArray<Completion> slots = new AtomicReferenceArray<>(Constant.IN_FLIGHT_TABLE_SIZE);
+    private final ConcurrentHashMap<Integer, Completion> overflow = new ConcurrentHashMap<>();
+
+    /**
+     * @param completion the record of a request in flight, replace any record with the same id
+     */
+    void put(Completion completion) {
+        final int index = completion.id & (Constant.IN_FLIGHT_TABLE_SIZE - 1);
+        while (true) {
+            final Completion current = slots.get(index);
+            if (current == null || current.id == completion.id) {
+                if (slots.compareAndSet(index, current, completion)) {
+                    return;
+                }
+                continue;
+            }
+
+            overflow.put(completion.id, completion);
+            return;
+        }
+    }
+
+    /**
+     * @param id the request id
+     * @return the removed record, or null if the request is not in flight
+     */
+    Completion remove(int id) {
+        final int index = id & (Constant.IN_FLIGHT_TABLE_SIZE - 1);
+        final Completion current = slots.get(index);
+        if (current != null && current.id == id && slots.compareAndSet(index, current, null)) {
+            return current;
+        }
+
+        return overflow.isEmpty() ? null : overflow.remove(id);
+    }
+
+    /**
+     * Remove every record, each one is returned once even if removed by another thread at the same time
+     *
+     * @return the removed records
+     */
+    List<Completion> removeAll() {
+        final List<Completion> removed = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            final Completion completion = slots.getAndSet(i, null);
+            if (completion != null) {
+                removed.add(completion);
+            }
+        }
+        for (Integer id : overflow.keySet()) {
+            final Completion completion = overflow.remove(id);
+            if (completion != null) {
+                removed.add(completion);
+            }
+        }
+        return removed;
+    }
+}
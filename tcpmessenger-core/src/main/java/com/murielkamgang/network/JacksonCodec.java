@@ -0,0 +1,135 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Codec} backed by a Jackson {@link ObjectMapper}, the data format is the one of the mapper factory.
+ * <p>
+ * <p>An {@link ObjectReader} and an {@link ObjectWriter} are resolved once per class and cached, so serializers
+ * and deserializers are not looked up again for each message.</p>
+ */
+public class JacksonCodec implements Codec {
+
+    /**
+     * The mapper of this codec, must not be reconfigured once the codec is in use
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * Reader cache per response class
+     */
+    private final ConcurrentHashMap<Class<?>, ObjectReader> readerCache = new ConcurrentHashMap<>();
+    /**
+     * Writer cache per command class
+     */
+    private final ConcurrentHashMap<Class<?>, ObjectWriter> writerCache = new ConcurrentHashMap<>();
+
+    public JacksonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the mapper of this codec
+     */
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * Build the serializer and deserializer of a class now rather than with its first message, see
+     * {@link TCPMessenger#warmUp(java.util.List, Class[])}
+     *
+     * @param type the class of commands or responses
+     */
+    public void warmUp(Class<?> type) {
+        readerFor(type);
+        writerFor(type);
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        writerFor(value.getClass()).writeValue(generator, value);
+        generator.flush();
+    }
+
+    /**
+     * Encode a value with an existing generator, consecutive root values get the separator of the format if any
+     *
+     * @param value     the value to encode
+     * @param generator the generator
+     * @throws IOException if the value can not be encoded
+     */
+    void encode(Object value, JsonGenerator generator) throws IOException {
+        writerFor(value.getClass()).writeValue(generator, value);
+    }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> type) throws IOException {
+        return decode(objectMapper.getFactory().createParser(in), type);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+        return readerFor(type).readValue(bytes, offset, length);
+    }
+
+    /**
+     * Decode the next value of a parser
+     *
+     * @param parser the parser
+     * @param type   the class of the expected value
+     * @param <T>    Type of the object expected
+     * @return the decoded value
+     * @throws IOException if the value can not be decoded
+     */
+    <T> T decode(JsonParser parser, Class<T> type) throws IOException {
+        return readerFor(type).readValue(parser);
+    }
+
+    /**
+     * Decode a value from a tree
+     *
+     * @param node the tree
+     * @param type the class of the expected value
+     * @param <T>  Type of the object expected
+     * @return the decoded value
+     * @throws IOException if the value can not be decoded
+     */
+    <T> T decode(JsonNode node, Class<T> type) throws IOException {
+        return readerFor(type).readValue(node);
+    }
+
+    private ObjectReader readerFor(Class<?> type) {
+        ObjectReader reader = readerCache.get(type);
+        if (reader == null) {
+            reader = objectMapper.readerFor(type);
+            final ObjectReader previous = readerCache.putIfAbsent(type, reader);
+            if (previous != null) {
+                reader = previous;
+            }
+        }
+        return reader;
+    }
+
+    private ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = writerCache.get(type);
+        if (writer == null) {
+            writer = objectMapper.writerFor(type);
+            final ObjectWriter previous = writerCache.putIfAbsent(type, writer);
+            if (previous != null) {
+                writer = previous;
+            }
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,17 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Plain json codec, the default one
+ */
+public class JsonCodec extends JacksonCodec {
+
+    public JsonCodec() {
+        this(new ObjectMapper());
+    }
+
+    public JsonCodec(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+}
@@ -0,0 +1,63 @@
+package com.murielkamgang.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream remembering when its first byte was read, pooled and reused from one request to the other so the
+ * time to first byte can be measured without allocating, see {@link MetricsListener#onFirstByte(String, long)}
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    /**
+     * {@link System#nanoTime()} of the first byte read since {@link #wrap(InputStream)}, 0 if none yet
+     */
+    private long firstByteAt;
+
+    MeteredInputStream() {
+        super(null);
+    }
+
+    /**
+     * @param in the stream to read from
+     * @return this stream, reading from the given one
+     */
+    MeteredInputStream wrap(InputStream in) {
+        this.in = in;
+        firstByteAt = 0;
+        return this;
+    }
+
+    /**
+     * Drop the wrapped stream so it is not retained by the pool
+     */
+    void clear() {
+        in = null;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the first byte read, or now if nothing was read yet
+     */
+    long getFirstByteAt() {
+        return firstByteAt != 0 ? firstByteAt : System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = in.read();
+        if (read >= 0 && firstByteAt == 0) {
+            firstByteAt = System.nanoTime();
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read > 0 && firstByteAt == 0) {
+            firstByteAt = System.nanoTime();
+        }
+        return read;
+    }
+}
@@ -0,0 +1,235 @@
+package com.murielkamgang.network;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MetricsListener} keeping counters and {@link Histogram}s per host, cheap enough to stay enabled in release
+ * builds: once a host is known recording does not allocate nor lock.
+ * <p>
+ * <pre>
+ * final Metrics metrics = new Metrics();
+ * socketConfig.metricsListener = metrics;
+ * ...
+ * metrics.getHost("192.168.1.10").getLatency().getPercentile(99);
+ * </pre>
+ */
+public final class Metrics implements MetricsListener {
+
+    /**
+     * Metrics per host ip
+     */
+    private final ConcurrentHashMap<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param ip the host ip
+     * @return the metrics of the host, null if nothing was recorded for it yet
+     */
+    public HostMetrics getHost(String ip) {
+        return hosts.get(ip);
+    }
+
+    /**
+     * @return a live view of the metrics per host ip
+     */
+    public Map<String, HostMetrics> getHosts() {
+        return Collections.unmodifiableMap(hosts);
+    }
+
+    /**
+     * Forget every recorded value
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    @Override
+    public void onRequestStart(String ip) {
+        final HostMetrics host = hostFor(ip);
+        host.requests.incrementAndGet();
+        host.inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void onRequestEnd(String ip, long nanos, Throwable error) {
+        final HostMetrics host = hostFor(ip);
+        host.inFlight.decrementAndGet();
+        host.latency.record(nanos);
+        if (error instanceof SocketTimeoutException) {
+            host.timeouts.incrementAndGet();
+        } else if (error != null && !(error instanceof CancellationException)) {
+            host.errors.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onQueueWait(String ip, long nanos) {
+        hostFor(ip).queueWait.record(nanos);
+    }
+
+    @Override
+    public void onConnect(String ip, long nanos) {
+        hostFor(ip).connect.record(nanos);
+    }
+
+    @Override
+    public void onWrite(String ip, long nanos) {
+        hostFor(ip).write.record(nanos);
+    }
+
+    @Override
+    public void onFirstByte(String ip, long nanos) {
+        hostFor(ip).firstByte.record(nanos);
+    }
+
+    @Override
+    public void onParse(String ip, long nanos) {
+        hostFor(ip).parse.record(nanos);
+    }
+
+    @Override
+    public void onPoolHit(String ip) {
+        hostFor(ip).poolHits.incrementAndGet();
+    }
+
+    @Override
+    public void onPoolMiss(String ip) {
+        hostFor(ip).poolMisses.incrementAndGet();
+    }
+
+    @Override
+    public void onPoolEviction(String ip) {
+        hostFor(ip).poolEvictions.incrementAndGet();
+    }
+
+    private HostMetrics hostFor(String ip) {
+        HostMetrics host = hosts.get(ip);
+        if (host == null) {
+            final HostMetrics created = new HostMetrics();
+            host = hosts.putIfAbsent(ip, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+        return host;
+    }
+
+    /**
+     * Metrics of one host, times are in nanoseconds
+     */
+    public static final class HostMetrics {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong poolHits = new AtomicLong();
+        private final AtomicLong poolMisses = new AtomicLong();
+        private final AtomicLong poolEvictions = new AtomicLong();
+        private final Histogram latency = new Histogram();
+        private final Histogram queueWait = new Histogram();
+        private final Histogram connect = new Histogram();
+        private final Histogram write = new Histogram();
+        private final Histogram firstByte = new Histogram();
+        private final Histogram parse = new Histogram();
+
+        private HostMetrics() {
+        }
+
+        /**
+         * @return the number of requests sent
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the number of requests waiting for their response
+         */
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the number of requests failed with another error than a time out, cancelled requests are not
+         * counted
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the number of requests failed with a time out
+         */
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        /**
+         * @return the number of idle pooled sockets reused
+         */
+        public long getPoolHits() {
+            return poolHits.get();
+        }
+
+        /**
+         * @return the number of times no idle pooled socket was available
+         */
+        public long getPoolMisses() {
+            return poolMisses.get();
+        }
+
+        /**
+         * @return the number of idle pooled sockets closed by the pool
+         */
+        public long getPoolEvictions() {
+            return poolEvictions.get();
+        }
+
+        /**
+         * @return time from send to response or error
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return time waited in the I/O executor
+         */
+        public Histogram getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * @return time to open a socket
+         */
+        public Histogram getConnect() {
+            return connect;
+        }
+
+        /**
+         * @return time to encode and write a request
+         */
+        public Histogram getWrite() {
+            return write;
+        }
+
+        /**
+         * @return time from the end of the write to the first byte of the response
+         */
+        public Histogram getFirstByte() {
+            return firstByte;
+        }
+
+        /**
+         * @return time from the first byte of the response to its decoded value
+         */
+        public Histogram getParse() {
+            return parse;
+        }
+    }
+}
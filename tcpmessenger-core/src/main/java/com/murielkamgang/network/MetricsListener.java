@@ -0,0 +1,90 @@
+package com.murielkamgang.network;
+
+/**
+ * Listener notified along the lifecycle of every request, see {@link SocketConfig#metricsListener} and
+ * {@link Metrics} for a ready to use implementation.
+ * <p>
+ * <p>Methods are invoked on the I/O threads in the middle of the request, implementations need to be thread safe,
+ * fast and must not throw. Times are in nanoseconds.</p>
+ */
+public interface MetricsListener {
+
+    /**
+     * A request was handed to the transport, it is in flight until
+     * {@link #onRequestEnd(String, long, Throwable)}. Responses served by the response cache or shared in single
+     * flight mode are not reported
+     *
+     * @param ip the host ip
+     */
+    void onRequestStart(String ip);
+
+    /**
+     * A request got its response or error
+     *
+     * @param ip    the host ip
+     * @param nanos time since {@link #onRequestStart(String)}
+     * @param error the error, null on success. A {@link java.net.SocketTimeoutException} for a time out
+     */
+    void onRequestEnd(String ip, long nanos, Throwable error);
+
+    /**
+     * Time a request or batch waited in the I/O executor before being run, blocking and pipelined modes only
+     *
+     * @param ip    the host ip
+     * @param nanos the wait
+     */
+    void onQueueWait(String ip, long nanos);
+
+    /**
+     * Time to open a new socket, whatever the mode
+     *
+     * @param ip    the host ip
+     * @param nanos the connect time
+     */
+    void onConnect(String ip, long nanos);
+
+    /**
+     * Time to encode and write a request, blocking mode only
+     *
+     * @param ip    the host ip
+     * @param nanos the write time
+     */
+    void onWrite(String ip, long nanos);
+
+    /**
+     * Time from the end of the write to the first byte of the response, blocking mode only
+     *
+     * @param ip    the host ip
+     * @param nanos the time to first byte
+     */
+    void onFirstByte(String ip, long nanos);
+
+    /**
+     * Time from the first byte of the response to its decoded value, blocking mode only
+     *
+     * @param ip    the host ip
+     * @param nanos the parse time
+     */
+    void onParse(String ip, long nanos);
+
+    /**
+     * An idle pooled socket was reused, blocking mode only
+     *
+     * @param ip the host ip
+     */
+    void onPoolHit(String ip);
+
+    /**
+     * No idle pooled socket was available and a new one is opened, blocking mode only
+     *
+     * @param ip the host ip
+     */
+    void onPoolMiss(String ip);
+
+    /**
+     * An idle pooled socket was closed because it expired, was closed by its peer or made room for another host
+     *
+     * @param ip the host ip
+     */
+    void onPoolEviction(String ip);
+}
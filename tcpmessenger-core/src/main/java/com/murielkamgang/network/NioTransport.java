@@ -0,0 +1,847 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non blocking transport built on {@link SocketChannel} and {@link Selector} event loops.
+ * <p>
+ * <p>Connect, write and read never block a thread, so a couple of I/O threads can serve hundreds of devices at
+ * the same time. Each ip is bound to one event loop and one channel, requests to the same ip are written one after
+ * the other (or all at once in pipelined mode, see {@link SocketConfig#pipelined}) and responses are decoded
+ * incrementally with the Jackson non blocking parser as bytes come in.</p>
+ * <p>
+ * <p>In framed mode (see {@link SocketConfig#framed}) frames are read straight from the channel into pooled buffers
+ * and decoded from there.</p>
+ * <p>
+ * <p>In pipelined mode a message without id is given to {@link ResponseListener#onPush(String, Object)}, see
+ * {@link #listen(String)}.</p>
+ * <p>
+ * <p>Every connect is bounded by the {@link SocketConfig#timeOut} and every request by its deadline, see
+ * {@link TCPMessenger.Request#timeOut}. A request past its deadline or cancelled fail on its own and its late
+ * response is dropped, the channel is only closed if nothing was read since such a request was written.</p>
+ */
+class NioTransport {
+
+    private final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+
+    /**
+     * Socket config of this transport
+     */
+    private final SocketConfig socketConfig;
+    /**
+     * Codec used to encode commands and decode responses
+     */
+    private final Codec codec;
+    /**
+     * Same as {@link #codec}, only set in unframed mode where the Jackson non blocking parser is used
+     */
+    private final JacksonCodec jacksonCodec;
+    /**
+     * Pool of frame buffers, used in framed mode
+     */
+    private final BufferPool bufferPool;
+    /**
+     * Listener to be notified for each response or error
+     */
+    private final ResponseListener listener;
+    /**
+     * Event loops, each ip is always served by the same one
+     */
+    private final EventLoop[] eventLoops;
+    /**
+     * Flag set once this transport is shutdown
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * @param socketConfig the socket config
+     * @param codec        the codec to encode commands and decode responses with, a {@link JacksonCodec} able to
+     *                     parse non blocking input in unframed mode
+     * @param bufferPool   the pool of frame buffers
+     * @param listener     the listener to be notified for each response or error
+     * @throws IOException if a selector can not be opened
+     */
+    NioTransport(SocketConfig socketConfig, Codec codec, BufferPool bufferPool,
+                 ResponseListener listener) throws IOException {
+        this.socketConfig = socketConfig;
+        this.codec = codec;
+        jacksonCodec = socketConfig.framed ? null : (JacksonCodec) codec;
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+        eventLoops = new EventLoop[Constant.NIO_EVENT_LOOP_COUNT];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Queue a request, it will be written by the event loop in charge of its ip
+     *
+     * @param request       the request
+     * @param responseClass the response class object expected
+     * @param future        the future of the request, cancelled requests are skipped if not yet written
+     * @param deadline      {@link System#currentTimeMillis()} after which the request fail with a time out
+     * @throws IllegalStateException if this transport was shutdown
+     */
+    void send(TCPMessenger.Request request, Class<?> responseClass, RequestFuture<?> future, long deadline) {
+        if (shutdown) {
+            throw new IllegalStateException("transport is shutdown");
+        }
+
+        final EventLoop eventLoop = eventLoopFor(request.ip);
+        eventLoop.submitted.offer(new Pending(request, responseClass, future, null, deadline));
+        eventLoop.selector.wakeup();
+    }
+
+    /**
+     * Queue a batch of requests to the same ip, they will be written with one write, even when not in pipelined mode
+     *
+     * @param calls the requests with their expected response class and future, cancelled requests are skipped if
+     *              not yet written
+     * @throws IllegalStateException if this transport was shutdown
+     */
+    void sendAll(List<Call> calls) {
+        if (shutdown) {
+            throw new IllegalStateException("transport is shutdown");
+        }
+
+        final EventLoop eventLoop = eventLoopFor(calls.get(0).request.ip);
+        for (Call call : calls) {
+            eventLoop.submitted.offer(new Pending(call.request, call.responseClass, call.future, calls, call.deadline));
+        }
+        eventLoop.selector.wakeup();
+    }
+
+    /**
+     * Open the channel to an ip if not already open, so messages pushed by the device are read. Channels are never
+     * closed for being idle
+     *
+     * @param ip the device ip
+     * @throws IllegalStateException if this transport was shutdown
+     */
+    void listen(String ip) {
+        if (shutdown) {
+            throw new IllegalStateException("transport is shutdown");
+        }
+
+        final EventLoop eventLoop = eventLoopFor(ip);
+        eventLoop.listening.offer(ip);
+        eventLoop.selector.wakeup();
+    }
+
+    /**
+     * @param error an error of a channel
+     * @return the error, or a {@link SocketException} if it is a plain {@link IOException} as a channel report a
+     * reset or broken pipe, so it is seen as a connection error like with the blocking transport
+     */
+    private static IOException connectionError(IOException error) {
+        if (error.getClass() != IOException.class) {
+            return error;
+        }
+
+        final SocketException socketException = new SocketException(error.getMessage());
+        socketException.initCause(error);
+        return socketException;
+    }
+
+    private EventLoop eventLoopFor(String ip) {
+        return eventLoops[(ip.hashCode() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+
+    /**
+     * Shutdown this transport, close every channel. Requests still in flight are not notified
+     */
+    void shutdown() {
+        shutdown = true;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Single thread event loop owning a selector and the connections of its ips
+     */
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        /**
+         * Requests submitted from other threads, drained by the loop thread
+         */
+        private final ConcurrentLinkedQueue<Pending> submitted = new ConcurrentLinkedQueue<>();
+        /**
+         * Ips to open a channel to without request, see {@link #listen(String)}
+         */
+        private final ConcurrentLinkedQueue<String> listening = new ConcurrentLinkedQueue<>();
+        /**
+         * Connections per ip, only accessed from the loop thread
+         */
+        private final HashMap<String, Connection> connections = new HashMap<>();
+        /**
+         * Read buffer shared by every connection of this loop, bytes are fully consumed by the parser after each read
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(Constant.NIO_READ_BUFFER_SIZE);
+
+        private EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            final Thread thread = new Thread(this, "TCPMessenger-nio-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    selector.select(Constant.NIO_TICK);
+                    drainSubmitted();
+
+                    final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        final SelectionKey key = iterator.next();
+                        iterator.remove();
+                        handle(key);
+                    }
+
+                    checkDeadlines(System.currentTimeMillis());
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("event loop stopped", e);
+                }
+            } finally {
+                for (Connection connection : new ArrayList<>(connections.values())) {
+                    connection.close(new IOException("transport is shutdown"), true);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    //Ignore
+                }
+            }
+        }
+
+        private void drainSubmitted() {
+            String ip;
+            while ((ip = listening.poll()) != null) {
+                if (!connections.containsKey(ip)) {
+                    try {
+                        connections.put(ip, new Connection(this, ip));
+                    } catch (IOException e) {
+                        if (Constant.ENABLE_LOGS) {
+                            logger.debug("could not open channel for ip {}", ip, e);
+                        }
+                    }
+                }
+            }
+
+            Pending pending;
+            while ((pending = submitted.poll()) != null) {
+                Connection connection = connections.get(pending.request.ip);
+                if (connection == null) {
+                    try {
+                        connection = new Connection(this, pending.request.ip);
+                    } catch (IOException e) {
+                        listener.onError(pending.request, e);
+                        continue;
+                    }
+                    connections.put(pending.request.ip, connection);
+                }
+
+                connection.queued.offer(pending);
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    connection.close(connectionError(e), false);
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            final Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                return;
+            }
+
+            try {
+                if (key.isConnectable()) {
+                    connection.finishConnect();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("error on channel for ip {}", connection.ip, e);
+                }
+                connection.close(connectionError(e), !connection.connected);
+            }
+        }
+
+        private void checkDeadlines(long now) {
+            for (Connection connection : new ArrayList<>(connections.values())) {
+                if (!connection.connected && now >= connection.connectDeadline) {
+                    connection.close(new SocketTimeoutException("connect timed out"), true);
+                    continue;
+                }
+
+                connection.expire(now);
+            }
+        }
+    }
+
+    /**
+     * Channel to one ip with its queued and in flight requests
+     */
+    private class Connection {
+
+        private final EventLoop eventLoop;
+        private final String ip;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final long connectDeadline;
+        /**
+         * {@link System#nanoTime()} when the connect started, only set if {@link SocketConfig#metricsListener} is set
+         */
+        private final long connectStart;
+        /**
+         * Requests not written yet
+         */
+        private final ArrayDeque<Pending> queued = new ArrayDeque<>();
+        /**
+         * Requests written and waiting for their response, in write order
+         */
+        private final LinkedHashMap<Integer, Pending> inFlight = new LinkedHashMap<>();
+        /**
+         * Non blocking parser fed with every byte read, null in framed mode
+         */
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        /**
+         * Buffer of the response being parsed
+         */
+        private TokenBuffer tokens;
+        private int depth;
+        /**
+         * Bytes of the request being written
+         */
+        private ByteBuffer writeBuffer;
+        /**
+         * Buffer the requests are encoded into before being written, reused for every write
+         */
+        private final FrameOutputStream out = new FrameOutputStream();
+        /**
+         * Length prefix of the frame being read in framed mode
+         */
+        private ByteBuffer frameHeader;
+        /**
+         * Pooled buffer of the frame payload being read in framed mode
+         */
+        private ByteBuffer frameBuffer;
+        private boolean connected;
+        /**
+         * {@link System#currentTimeMillis()} of the last bytes read
+         */
+        private long lastReadAt;
+
+        private Connection(EventLoop eventLoop, String ip) throws IOException {
+            this.eventLoop = eventLoop;
+            this.ip = ip;
+            lastReadAt = System.currentTimeMillis();
+            if (socketConfig.framed) {
+                parser = null;
+                feeder = null;
+                frameHeader = ByteBuffer.allocate(4);
+            } else {
+                parser = jacksonCodec.getObjectMapper().getFactory().createNonBlockingByteArrayParser();
+                feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+                tokens = new TokenBuffer(jacksonCodec.getObjectMapper(), false);
+            }
+
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("opening channel for ip {}", ip);
+            }
+
+            connectStart = socketConfig.metricsListener != null ? System.nanoTime() : 0;
+            channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                socketConfig.applyTo(channel.socket());
+                connected = channel.connect(new InetSocketAddress(ip, socketConfig.port));
+                key = channel.register(eventLoop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            connectDeadline = socketConfig.timeOut > 0 ? System.currentTimeMillis() + socketConfig.timeOut
+                    : Long.MAX_VALUE;//no time out, like a blocking connect
+            if (connected) {
+                onConnected();
+            }
+        }
+
+        private void finishConnect() throws IOException {
+            if (channel.finishConnect()) {
+                connected = true;
+                onConnected();
+                key.interestOps(SelectionKey.OP_READ);
+                flush();
+            }
+        }
+
+        private void onConnected() {
+            if (socketConfig.metricsListener != null) {
+                socketConfig.metricsListener.onConnect(ip, System.nanoTime() - connectStart);
+            }
+        }
+
+        /**
+         * Fail the requests past their deadline or cancelled, close this channel if nothing was read since such a
+         * request was written. In non pipelined mode the channel is also closed once every request in flight
+         * failed, the queued ones could not be written before their responses otherwise
+         *
+         * @param now {@link System#currentTimeMillis()}
+         */
+        private void expire(long now) {
+            final Iterator<Pending> queuedIterator = queued.iterator();
+            while (queuedIterator.hasNext()) {
+                final Pending pending = queuedIterator.next();
+                final Throwable error = errorOf(pending, now, false);
+                if (error != null) {
+                    queuedIterator.remove();
+                    listener.onError(pending.request, error);
+                }
+            }
+
+            boolean allExpired = !inFlight.isEmpty();
+            final Iterator<Pending> inFlightIterator = inFlight.values().iterator();
+            while (inFlightIterator.hasNext()) {
+                final Pending pending = inFlightIterator.next();
+                final Throwable error = pending.expired ? null : errorOf(pending, now, true);
+                if (error == null) {
+                    allExpired &= pending.expired;
+                    continue;
+                }
+
+                if (error instanceof SocketTimeoutException && lastReadAt < pending.writtenAt) {
+                    close(new SocketTimeoutException("Read timed out"), false);
+                    return;
+                }
+
+                if (socketConfig.pipelined) {
+                    inFlightIterator.remove();
+                } else {//responses are matched in order, keep its slot until its response is read
+                    pending.expired = true;
+                }
+                listener.onError(pending.request, error);
+            }
+
+            if (!socketConfig.pipelined && allExpired) {
+                close(new IOException("requests in flight failed"), false);
+            }
+        }
+
+        /**
+         * @param written true if the request was written, false if still queued
+         * @return the error of a request past its deadline or cancelled, null otherwise
+         */
+        private Throwable errorOf(Pending pending, long now, boolean written) {
+            if (pending.future.isCancelled()) {
+                return new CancellationException();
+            }
+            if (now < pending.deadline) {
+                return null;
+            }
+            //a request queued behind a slow connect did reach the network, one queued behind other requests did not
+            return written || !connected ? new SocketTimeoutException("request deadline exceeded")
+                    : new WaitTimeoutException("request deadline exceeded");
+        }
+
+        private Pending oldestInFlight() {
+            return inFlight.isEmpty() ? null : inFlight.values().iterator().next();
+        }
+
+        /**
+         * Write as many queued requests as the channel can take
+         */
+        private void flush() throws IOException {
+            if (!connected) {
+                return;
+            }
+
+            while (true) {
+                if (writeBuffer == null && !encodeQueued()) {
+                    break;
+                }
+
+                channel.write(writeBuffer);
+                if (writeBuffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeBuffer = null;
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Encode into {@link #writeBuffer} every queued request that can be written now, so they go out with one
+         * write: all of them in pipelined mode, otherwise the next one followed by the rest of its batch if any
+         *
+         * @return false if there is nothing to write
+         */
+        private boolean encodeQueued() throws IOException {
+            if (!socketConfig.pipelined && !inFlight.isEmpty()) {
+                return false;
+            }
+
+            out.reset();
+            JsonGenerator generator = socketConfig.framed ? null
+                    : jacksonCodec.getObjectMapper().getFactory().createGenerator(out);
+            final long now = System.currentTimeMillis();
+            Object batch = null;
+            boolean first = true;
+            Pending pending;
+            while ((pending = queued.peek()) != null) {
+                if (!socketConfig.pipelined && !first && (batch == null || pending.batch != batch)) {
+                    break;
+                }
+
+                queued.poll();
+                final Throwable error = errorOf(pending, now, false);
+                if (error != null) {
+                    listener.onError(pending.request, error);
+                    continue;
+                }
+
+                final int size = out.size();
+                try {
+                    encode(pending.request, generator);
+                } catch (IOException e) {
+                    out.truncate(size);
+                    if (generator != null) {//could be left in the middle of a value
+                        generator = jacksonCodec.getObjectMapper().getFactory().createGenerator(out);
+                    }
+                    listener.onError(pending.request, e);
+                    continue;
+                }
+                first = false;
+                batch = pending.batch;
+                pending.writtenAt = now;
+                inFlight.put(pending.request.getId(), pending);
+            }
+
+            if (out.size() == 0) {
+                return false;
+            }
+
+            writeBuffer = out.asByteBuffer();
+            return true;
+        }
+
+        /**
+         * Append a request to {@link #out}
+         *
+         * @param request   the request
+         * @param generator the generator writing to {@link #out} in unframed mode
+         */
+        private void encode(TCPMessenger.Request request, JsonGenerator generator) throws IOException {
+            if (socketConfig.framed) {
+                out.next();
+                if (socketConfig.pipelined) {
+                    out.writeInt(request.getId());
+                }
+                EncodedCommand.write(codec, request.cmd, out);
+                out.finish();
+                return;
+            }
+
+            if (!socketConfig.pipelined) {
+                jacksonCodec.encode(request.cmd, generator);
+            } else {
+                final HashMap<String, Object> envelope = new HashMap<>(2);
+                envelope.put(Constant.ENVELOPE_ID, request.getId());
+                envelope.put(Constant.ENVELOPE_CMD, request.cmd);
+                jacksonCodec.encode(envelope, generator);
+            }
+            generator.flush();
+        }
+
+        /**
+         * Read what is available and dispatch every complete response
+         */
+        private void read() throws IOException {
+            if (socketConfig.framed) {
+                readFrames();
+                flush();
+                return;
+            }
+
+            final ByteBuffer buffer = eventLoop.readBuffer;
+            buffer.clear();
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+            lastReadAt = System.currentTimeMillis();
+
+            feeder.feedInput(buffer.array(), 0, read);
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                tokens.copyCurrentEvent(parser);
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+
+                if (depth == 0) {
+                    final TokenBuffer value = tokens;
+                    tokens = new TokenBuffer(jacksonCodec.getObjectMapper(), false);
+                    onValue(value);
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Read frames until the channel has nothing more to give, each payload is read directly into a pooled buffer
+         */
+        private void readFrames() throws IOException {
+            lastReadAt = System.currentTimeMillis();
+            while (true) {
+                if (frameBuffer == null) {
+                    if (channel.read(frameHeader) < 0) {
+                        throw new EOFException("connection closed by peer");
+                    }
+                    if (frameHeader.hasRemaining()) {
+                        return;
+                    }
+
+                    final int length = Framing.checkLength(frameHeader.getInt(0));
+                    frameHeader.clear();
+                    frameBuffer = bufferPool.acquire(length);
+                    frameBuffer.limit(length);
+                }
+
+                if (channel.read(frameBuffer) < 0) {
+                    throw new EOFException("connection closed by peer");
+                }
+                if (frameBuffer.hasRemaining()) {
+                    return;
+                }
+
+                final ByteBuffer frame = frameBuffer;
+                frameBuffer = null;
+                boolean kept = false;
+                try {
+                    kept = onFrame(frame);
+                } finally {
+                    if (!kept) {
+                        bufferPool.release(frame);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Dispatch a frame to its request
+         *
+         * @param frame the frame
+         * @return true if the frame was handed over to a {@link RawResponse}, it must not be released then
+         */
+        private boolean onFrame(ByteBuffer frame) throws IOException {
+            final Pending pending;
+            final int offset;
+            if (socketConfig.pipelined) {
+                if (frame.limit() < 4) {
+                    throw new StreamCorruptedException("frame too short for a request id");
+                }
+                if (frame.getInt(0) == Constant.PUSH_ID) {
+                    listener.onPush(ip, Arrays.copyOfRange(frame.array(), 4, frame.limit()));
+                    return false;
+                }
+                if (frame.getInt(0) == Constant.ERROR_ID) {
+                    final Pending failed = inFlight.remove(Framing.errorIdOf(frame));
+                    if (failed != null && !failed.expired) {
+                        listener.onError(failed.request, Framing.errorOf(frame));
+                    }
+                    return false;
+                }
+                pending = inFlight.remove(frame.getInt(0));
+                offset = 4;
+            } else {
+                final Pending oldest = oldestInFlight();
+                pending = oldest == null ? null : inFlight.remove(oldest.request.getId());
+                offset = 0;
+            }
+
+            if (pending == null || pending.expired) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("dropping frame without matching request from ip {}", ip);
+                }
+                return false;
+            }
+
+            final Object response;
+            try {
+                response = Framing.decode(codec, frame, offset, pending.responseClass, bufferPool);
+            } catch (IOException e) {
+                listener.onError(pending.request, e);//the stream is still in sync, only this request fail
+                return false;
+            }
+            listener.onResponse(pending.request, response);
+            return Framing.keepsFrame(pending.responseClass);
+        }
+
+        private void onValue(TokenBuffer value) throws IOException {
+            final Pending pending;
+            final JsonParser valueParser;
+            if (socketConfig.pipelined) {
+                final JsonNode envelope = jacksonCodec.getObjectMapper().readTree(value.asParser());
+                final JsonNode idNode = envelope.get(Constant.ENVELOPE_ID);
+                if (idNode == null) {
+                    listener.onPush(ip, envelope);
+                    return;
+                }
+                final JsonNode responseNode = envelope.get(Constant.ENVELOPE_RESPONSE);
+                final JsonNode errorNode = envelope.get(Constant.ENVELOPE_ERROR);
+                if (responseNode == null && errorNode == null) {
+                    throw new StreamCorruptedException("response without pipelined envelope");
+                }
+                pending = inFlight.remove(idNode.asInt());
+                if (responseNode == null) {
+                    if (pending != null && !pending.expired) {
+                        listener.onError(pending.request, new CommandFailedException(errorNode.asText()));
+                    }
+                    return;
+                }
+                valueParser = pending == null ? null : responseNode.traverse(jacksonCodec.getObjectMapper());
+            } else {
+                final Pending oldest = oldestInFlight();
+                pending = oldest == null ? null : inFlight.remove(oldest.request.getId());
+                valueParser = value.asParser();
+            }
+
+            if (pending == null || pending.expired) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("dropping response without matching request from ip {}", ip);
+                }
+                return;
+            }
+
+            final Object response;
+            try {
+                response = jacksonCodec.decode(valueParser, pending.responseClass);
+            } catch (IOException e) {
+                listener.onError(pending.request, e);
+                return;
+            }
+            listener.onResponse(pending.request, response);
+        }
+
+        /**
+         * Close this channel and fail its requests
+         *
+         * @param cause     the error to report
+         * @param failQueue also fail the requests not written yet, otherwise they are sent again on a new channel
+         */
+        private void close(Throwable cause, boolean failQueue) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("closing channel for ip {}", ip);
+            }
+
+            eventLoop.connections.remove(ip);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+            if (frameBuffer != null) {
+                bufferPool.release(frameBuffer);
+                frameBuffer = null;
+            }
+
+            for (Pending pending : inFlight.values()) {
+                listener.onError(pending.request, cause);
+            }
+            inFlight.clear();
+
+            if (failQueue || shutdown) {
+                for (Pending pending : queued) {
+                    listener.onError(pending.request, cause);
+                }
+            } else {
+                eventLoop.submitted.addAll(queued);
+                eventLoop.selector.wakeup();
+            }
+            queued.clear();
+        }
+    }
+
+    /**
+     * Request waiting to be written or to be answered
+     */
+    private static class Pending {
+
+        private final TCPMessenger.Request request;
+        private final Class<?> responseClass;
+        private final RequestFuture<?> future;
+        /**
+         * The batch this request belongs to, null if sent alone
+         */
+        private final Object batch;
+        /**
+         * {@link System#currentTimeMillis()} after which the request fail with a time out
+         */
+        private final long deadline;
+        private long writtenAt;
+        /**
+         * Set once the request failed while in flight in non pipelined mode, its response is
+         * then dropped
+         */
+        private boolean expired;
+
+        private Pending(TCPMessenger.Request request, Class<?> responseClass, RequestFuture<?> future, Object batch,
+                        long deadline) {
+            this.request = request;
+            this.responseClass = responseClass;
+            this.future = future;
+            this.batch = batch;
+            this.deadline = deadline;
+        }
+    }
+}
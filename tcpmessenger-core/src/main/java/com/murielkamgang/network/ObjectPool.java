@@ -0,0 +1,59 @@
+package com.murielkamgang.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of reusable objects shared by every thread, each object is borrowed for one request.
+ * <p>
+ * <p>Unlike a {@link ThreadLocal} cache it does not keep one object per thread that ever used it, with one virtual
+ * thread per request ({@link SocketConfig#virtualThreads}) such a cache would never be reused. At most
+ * {@link Constant#OBJECT_POOL_SIZE} objects are kept, the extra ones given back are discarded.</p>
+ *
+ * @param <T> Type of the pooled objects
+ */
+abstract class ObjectPool<T> {
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @return a pooled object or a new one, to be given back with {@link #release(Object)} once done
+     */
+    T acquire() {
+        final T object = queue.poll();
+        if (object == null) {
+            return create();
+        }
+
+        count.decrementAndGet();
+        return object;
+    }
+
+    /**
+     * Give back an object previously acquired, it must not be used anymore by the caller
+     *
+     * @param object the object
+     */
+    void release(T object) {
+        if (count.incrementAndGet() > Constant.OBJECT_POOL_SIZE) {
+            count.decrementAndGet();
+            discard(object);
+            return;
+        }
+        queue.offer(object);
+    }
+
+    /**
+     * @return a new object
+     */
+    protected abstract T create();
+
+    /**
+     * Free an object the pool has no room for, nothing by default
+     *
+     * @param object the object
+     */
+    protected void discard(T object) {
+    }
+}
@@ -0,0 +1,499 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pipelined connection, many requests can be written on the same socket without waiting for the previous response.
+ * <p>
+ * <p>Each request is written as <code>{"id": requestId, "cmd": command}</code> and the socket server is expected
+ * to answer with <code>{"id": requestId, "response": response}</code>, responses can come back in any order.
+ * A dedicated reader thread match every response back to its request through the id.</p>
+ * <p>
+ * <p>In framed mode (see {@link SocketConfig#framed}) there is no envelope, each frame payload start with the 4 bytes
+ * request id followed by the command or the response.</p>
+ * <p>
+ * <p>A message without id (request id {@link Constant#PUSH_ID} in framed mode) was pushed by the device and is
+ * given to {@link ResponseListener#onPush(String, Object)}.</p>
+ * <p>
+ * <p>A device failing to handle a command answers <code>{"id": requestId, "error": message}</code> instead (an
+ * {@link Constant#ERROR_ID} frame in framed mode), only that request fails with a {@link CommandFailedException}.</p>
+ * <p>
+ * <p>The {@link Watchdog} close this connection once it stay idle (nothing written nor read, no request in flight)
+ * for {@link SocketConfig#idleTimeOut}, unless it is listening for pushed messages.</p>
+ * <p>
+ * <p>The {@link Watchdog} fail each request past its deadline or cancelled on its own, a late response is dropped.
+ * The connection is only closed if nothing was read since such a request was written, or if a write is blocked
+ * past its deadline.</p>
+ */
+class PipelinedConnection implements Watchdog.Watched {
+
+    private final Logger logger = LoggerFactory.getLogger(PipelinedConnection.class);
+
+    /**
+     * The device ip
+     */
+    private final String ip;
+    /**
+     * The socket client of this connection
+     */
+    private final Socket client;
+    /**
+     * Socket config of this connection
+     */
+    private final SocketConfig socketConfig;
+    /**
+     * Codec used to encode commands and decode responses, a {@link JacksonCodec} in unframed mode
+     */
+    private final Codec codec;
+    /**
+     * Pool of frame buffers, used in framed mode
+     */
+    private final BufferPool bufferPool;
+    /**
+     * Listener to be notified for each response or error
+     */
+    private final ResponseListener listener;
+    /**
+     * Watchdog checking the deadlines of this connection
+     */
+    private final Watchdog watchdog;
+    /**
+     * Requests in flight per request id
+     */
+    private final ConcurrentHashMap<Integer, Call> pendingMap = new ConcurrentHashMap<>();
+    /**
+     * Lock held while writing on the socket, not a monitor so a virtual thread blocked on the write does not pin
+     * its carrier thread
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Buffer every request is encoded into before being written to the socket, so a command that can not be
+     * encoded never leaves a partial envelope on the wire. A batch is written as consecutive frames or envelopes
+     */
+    private final FrameOutputStream frame = new FrameOutputStream();
+    /**
+     * Generator writing the envelopes into {@link #frame}, replaced once a command failed to encode. Null in framed
+     * mode
+     */
+    private JsonGenerator jsonWriter;
+    /**
+     * Flag set once this connection is closed, no request can be written after that
+     */
+    private volatile boolean closed;
+    /**
+     * Error given to the first {@link #close(Throwable)}, reported to every request in flight even if the reader or
+     * writer thread fail with its own error once the socket is closed
+     */
+    private final AtomicReference<Throwable> closeCause = new AtomicReference<>();
+    /**
+     * Deadline of the write in progress, 0 if none
+     */
+    private volatile long writeDeadline;
+    /**
+     * {@link System#currentTimeMillis()} of the last response read
+     */
+    private volatile long lastReadAt;
+    /**
+     * {@link System#currentTimeMillis()} of the last request written or response read
+     */
+    private volatile long lastActiveAt;
+    /**
+     * Flag set while this connection must stay open for pushed messages, see {@link #setListening(boolean)}
+     */
+    private volatile boolean listening;
+
+    /**
+     * @param ip           the device ip
+     * @param client       the connected socket client
+     * @param socketConfig the socket config
+     * @param codec        the codec to encode commands and decode responses with
+     * @param bufferPool   the pool of frame buffers
+     * @param listener     the listener to be notified for each response or error
+     * @param watchdog     the watchdog checking the deadlines of the requests
+     * @throws IOException if the socket output stream can not be opened
+     */
+    PipelinedConnection(String ip, Socket client, SocketConfig socketConfig, Codec codec, BufferPool bufferPool,
+                        ResponseListener listener, Watchdog watchdog) throws IOException {
+        this.ip = ip;
+        this.client = client;
+        this.socketConfig = socketConfig;
+        this.codec = codec;
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+        this.watchdog = watchdog;
+        lastReadAt = System.currentTimeMillis();
+        lastActiveAt = lastReadAt;
+        client.setSoTimeout(0);//idle and unanswered requests are detected by the watchdog
+        jsonWriter = socketConfig.framed ? null : newJsonWriter();
+
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "TCPMessenger-reader-" + ip);
+        reader.setDaemon(true);
+        reader.start();
+        watchdog.watch(this);
+    }
+
+    /**
+     * @return true if this connection can still be used to send requests
+     */
+    boolean isOpen() {
+        return !closed && !client.isClosed();
+    }
+
+    /**
+     * Keep this connection open while idle, so messages pushed by the device can be read. A device that stopped
+     * answering is then only detected through the deadline of the next request
+     *
+     * @param listening true to never close this connection for being idle
+     */
+    void setListening(boolean listening) {
+        this.listening = listening;
+        lastActiveAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Write a request on this connection, response will be delivered to the {@link ResponseListener} by the reader thread
+     *
+     * @param call the request with its expected response class, future and deadline
+     * @return false if this connection was already closed and nothing was written, the request should then
+     * be sent again on a new connection
+     * @throws IOException if the command could not be encoded, or the request could not be written and this
+     *                     connection was closed
+     */
+    boolean send(Call call) throws IOException {
+        final Integer id = call.request.getId();
+        writeLock.lock();
+        try {
+            if (!isOpen()) {
+                return false;
+            }
+
+            frame.reset();
+            write(call.request);//only fail this request if the command can not be encoded, nothing was written
+
+            call.writtenAt = System.currentTimeMillis();
+            lastActiveAt = call.writtenAt;
+            pendingMap.put(id, call);
+            writeDeadline = call.deadline;
+            try {
+                flush();
+            } catch (IOException e) {
+                pendingMap.remove(id);
+                close(null);
+                throw e;
+            } finally {
+                writeDeadline = 0;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write a batch of requests on this connection with one flush, see {@link #send(Call)}
+     *
+     * @param calls the requests with their expected response class
+     * @return false if this connection was already closed and nothing was written
+     * @throws IOException if the requests could not be written, a command that can not be encoded only fail its
+     *                     own request through the {@link ResponseListener}
+     */
+    boolean sendAll(List<Call> calls) throws IOException {
+        writeLock.lock();
+        try {
+            if (!isOpen()) {
+                return false;
+            }
+
+            final long now = System.currentTimeMillis();
+            final List<Call> written = new ArrayList<>(calls.size());
+            long deadline = 0;
+            frame.reset();
+            for (Call call : calls) {
+                try {
+                    write(call.request);
+                } catch (IOException e) {
+                    listener.onError(call.request, e);//the others are still written
+                    continue;
+                }
+                call.writtenAt = now;
+                pendingMap.put(call.request.getId(), call);
+                deadline = Math.max(deadline, call.deadline);
+                written.add(call);
+            }
+            if (written.isEmpty()) {
+                return true;
+            }
+
+            lastActiveAt = now;
+            writeDeadline = deadline;
+            try {
+                flush();
+            } catch (IOException e) {
+                for (Call call : written) {
+                    pendingMap.remove(call.request.getId());
+                }
+                close(null);
+                throw e;
+            } finally {
+                writeDeadline = 0;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Append a request to the pending output, must be called with the write lock held
+     *
+     * @param request the request
+     * @throws IOException if the command can not be encoded, the pending output is left as it was
+     */
+    private void write(TCPMessenger.Request request) throws IOException {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("writing pipelined command {} to server", request);
+        }
+
+        final int size = frame.size();
+        try {
+            if (socketConfig.framed) {
+                frame.next();
+                frame.writeInt(request.getId());
+                EncodedCommand.write(codec, request.cmd, frame);
+                frame.finish();
+            } else {
+                jsonWriter.writeStartObject();
+                jsonWriter.writeNumberField(Constant.ENVELOPE_ID, request.getId());
+                jsonWriter.writeFieldName(Constant.ENVELOPE_CMD);
+                jsonWriter.writeObject(request.cmd);
+                jsonWriter.writeEndObject();
+                jsonWriter.flush();
+            }
+        } catch (IOException e) {
+            frame.truncate(size);
+            if (!socketConfig.framed) {
+                jsonWriter = newJsonWriter();//could be left in the middle of the envelope
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Flush the pending output to the socket, must be called with the write lock held
+     */
+    private void flush() throws IOException {
+        frame.writeFrameTo(client.getOutputStream());
+        client.getOutputStream().flush();
+    }
+
+    /**
+     * @return a generator writing into {@link #frame}
+     * @throws IOException if the generator can not be created
+     */
+    private JsonGenerator newJsonWriter() throws IOException {
+        return ((JacksonCodec) codec).getObjectMapper().getFactory().createGenerator(frame);
+    }
+
+    /**
+     * Read responses until this connection is closed and dispatch them to the {@link ResponseListener}
+     */
+    private void readLoop() {
+        try {
+            if (socketConfig.framed) {
+                readFrames();
+                return;
+            }
+
+            final JacksonCodec jacksonCodec = (JacksonCodec) codec;
+            final JsonParser jsonReader = jacksonCodec.getObjectMapper().getFactory().createParser(client.getInputStream());
+            while (jsonReader.nextToken() != null) {
+                final JsonNode envelope = jsonReader.readValueAsTree();
+                lastReadAt = System.currentTimeMillis();
+                lastActiveAt = lastReadAt;
+                final JsonNode idNode = envelope.get(Constant.ENVELOPE_ID);
+                if (idNode == null) {
+                    listener.onPush(ip, envelope);
+                    continue;
+                }
+
+                final JsonNode responseNode = envelope.get(Constant.ENVELOPE_RESPONSE);
+                final JsonNode errorNode = envelope.get(Constant.ENVELOPE_ERROR);
+                if (responseNode == null && errorNode == null) {
+                    throw new StreamCorruptedException("response without pipelined envelope");
+                }
+                final Call pending = pendingMap.remove(idNode.asInt());
+                if (pending == null) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("dropping response without matching request {}", envelope);
+                    }
+                    continue;
+                }
+                if (responseNode == null) {
+                    listener.onError(pending.request, new CommandFailedException(errorNode.asText()));
+                    continue;
+                }
+
+                final Object response;
+                try {
+                    response = jacksonCodec.decode(responseNode, pending.responseClass);
+                } catch (IOException e) {
+                    listener.onError(pending.request, e);
+                    continue;
+                }
+                listener.onResponse(pending.request, response);
+            }
+            close(null);
+        } catch (Exception e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("pipelined reader stopped", e);
+            }
+            close(e);
+        }
+    }
+
+    /**
+     * Read frames until the stream end, see {@link #readLoop()}
+     */
+    private void readFrames() throws IOException {
+        final InputStream in = client.getInputStream();
+        while (true) {
+            final ByteBuffer buffer = Framing.readFrame(in, bufferPool);
+            boolean kept = false;
+            try {
+                if (buffer.limit() < 4) {
+                    throw new StreamCorruptedException("frame too short for a request id");
+                }
+
+                lastReadAt = System.currentTimeMillis();
+                lastActiveAt = lastReadAt;
+                if (buffer.getInt(0) == Constant.PUSH_ID) {
+                    listener.onPush(ip, Arrays.copyOfRange(buffer.array(), 4, buffer.limit()));
+                    continue;
+                }
+
+                final boolean failed = buffer.getInt(0) == Constant.ERROR_ID;
+                final int id = failed ? Framing.errorIdOf(buffer) : buffer.getInt(0);
+                final Call pending = pendingMap.remove(id);
+                if (pending == null) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("dropping frame without matching request id {}", id);
+                    }
+                    continue;
+                }
+                if (failed) {
+                    listener.onError(pending.request, Framing.errorOf(buffer));
+                    continue;
+                }
+
+                final Object response;
+                kept = Framing.keepsFrame(pending.responseClass);
+                try {
+                    response = Framing.decode(codec, buffer, 4, pending.responseClass, bufferPool);
+                } catch (IOException e) {
+                    listener.onError(pending.request, e);//the stream is still in sync, only this request fail
+                    continue;
+                }
+                listener.onResponse(pending.request, response);
+            } finally {
+                if (!kept) {
+                    bufferPool.release(buffer);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void check(long now) {
+        final long writeDeadline = this.writeDeadline;
+        if (writeDeadline != 0 && now >= writeDeadline) {
+            close(new SocketTimeoutException("write timed out"));
+            return;
+        }
+
+        if (!listening && pendingMap.isEmpty() && socketConfig.idleTimeOut > 0
+                && now - lastActiveAt >= socketConfig.idleTimeOut) {
+            close(null);
+            return;
+        }
+
+        for (Call call : pendingMap.values()) {
+            final Throwable error;
+            if (call.future.isCancelled()) {
+                error = new CancellationException();
+            } else if (now >= call.deadline) {
+                if (lastReadAt < call.writtenAt) {//nothing came back since, the device is not answering anymore
+                    close(new SocketTimeoutException("Read timed out"));
+                    return;
+                }
+                error = new SocketTimeoutException("request deadline exceeded");
+            } else {
+                continue;
+            }
+
+            if (pendingMap.remove(call.request.getId(), call)) {
+                listener.onError(call.request, error);
+            }
+        }
+    }
+
+    /**
+     * Close this connection and fail every request still in flight
+     *
+     * @param cause the error to report to the requests in flight, if null a generic one will be reported
+     */
+    void close(Throwable cause) {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("closing pipelined connection {}", client);
+        }
+
+        closeCause.compareAndSet(null, cause != null ? cause : new SocketException("connection closed"));
+        watchdog.unwatch(this);
+        try {
+            client.close();//unblock any writer first
+        } catch (Exception e) {
+            //Ignore
+        }
+
+        writeLock.lock();
+        try {
+            closed = true;
+        } finally {
+            writeLock.unlock();
+        }
+
+        final Throwable error = closeCause.get();
+        for (Integer id : pendingMap.keySet()) {
+            final Call pending = pendingMap.remove(id);
+            if (pending != null) {//could have been answered meanwhile
+                listener.onError(pending.request, error);
+            }
+        }
+    }
+}
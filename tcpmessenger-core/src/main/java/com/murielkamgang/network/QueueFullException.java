@@ -0,0 +1,16 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+
+/**
+ * Error of a request that did not fit in the queue of its host, or was dropped from it, see
+ * {@link SocketConfig#maxQueuedPerHost}
+ */
+public class QueueFullException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
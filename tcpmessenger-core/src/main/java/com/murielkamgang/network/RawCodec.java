@@ -0,0 +1,76 @@
+package com.murielkamgang.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link Codec} sending commands as they are, without Jackson: for payloads already encoded by the caller, binary
+ * blobs or fixed format strings. Needs {@link SocketConfig#framed} since nothing in the bytes tell where a message
+ * end.
+ * <p>
+ * <p>Commands can be a {@code byte[]}, a {@link ByteBuffer} (the bytes from its position to its limit, the buffer is
+ * left untouched) or a {@link CharSequence} sent in utf-8. Responses can be decoded to a {@code byte[]}, a
+ * {@link ByteBuffer} or a {@link String}, each is a copy of the frame. Use {@link RawResponse} as response class to
+ * get the frame buffer itself without any copy, pushed messages and stream elements are copied in it.</p>
+ */
+public class RawCodec implements Codec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        if (value instanceof byte[]) {
+            final byte[] bytes = (byte[]) value;
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof ByteBuffer) {
+            final ByteBuffer buffer = (ByteBuffer) value;
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                final byte[] bytes = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+        } else if (value instanceof CharSequence) {
+            final byte[] bytes = value.toString().getBytes(UTF_8);
+            out.write(bytes, 0, bytes.length);
+        } else {
+            throw new IOException("raw codec can not encode " + (value == null ? null : value.getClass().getName()));
+        }
+    }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> type) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Constant.FRAME_INITIAL_CAPACITY);
+        final byte[] chunk = new byte[Constant.FRAME_INITIAL_CAPACITY];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        final byte[] bytes = out.toByteArray();
+        return decode(bytes, 0, bytes.length, type);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+        if (type == byte[].class || type == Object.class) {
+            return type.cast(Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+        if (type == ByteBuffer.class) {
+            return type.cast(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+        }
+        if (type == String.class) {
+            return type.cast(new String(bytes, offset, length, UTF_8));
+        }
+        if (type == RawResponse.class) {
+            return type.cast(new RawResponse(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)), 0,
+                    null));
+        }
+        throw new IOException("raw codec can not decode " + type.getName());
+    }
+}
@@ -0,0 +1,93 @@
+package com.murielkamgang.network;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response frame handed over as is, without being decoded by the codec nor copied. Needs {@link SocketConfig#framed},
+ * typically with a {@link RawCodec}.
+ * <p>
+ * <p>The buffer comes from the frame buffer pool of the {@link TCPMessenger}, give it back with {@link #release()}
+ * once read, so the next responses reuse it. A response not released is garbage collected like any other object,
+ * only the reuse is lost. Responses of this class are never cached nor shared between requests
+ * ({@link SocketConfig#singleFlight}).</p>
+ */
+public final class RawResponse implements Closeable {
+
+    /**
+     * The payload from its position to its limit, a heap buffer whose {@link ByteBuffer#array()} can be read
+     * directly
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Pool the buffer goes back to, null if it is not pooled
+     */
+    private final BufferPool bufferPool;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param buffer     the frame, the buffer is owned by this response from now on
+     * @param offset     the offset of the payload in the frame
+     * @param bufferPool the pool the buffer goes back to, null if it is not pooled
+     */
+    RawResponse(ByteBuffer buffer, int offset, BufferPool bufferPool) {
+        buffer.position(offset);
+        this.buffer = buffer;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return the payload from the position to the limit of the buffer, it must not be used after {@link #release()}
+     * @throws IllegalStateException if the response was released
+     */
+    public ByteBuffer getBuffer() {
+        if (released.get()) {
+            throw new IllegalStateException("response already released");
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the payload length in bytes
+     */
+    public int length() {
+        return buffer.remaining();
+    }
+
+    /**
+     * @return a copy of the payload
+     * @throws IllegalStateException if the response was released
+     */
+    public byte[] toByteArray() {
+        final ByteBuffer buffer = getBuffer();
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.arrayOffset() + buffer.limit());
+    }
+
+    /**
+     * Give the buffer back to the pool, only the first call has an effect
+     */
+    public void release() {
+        if (released.compareAndSet(false, true) && bufferPool != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Same as {@link #release()}
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public String toString() {
+        return "RawResponse{" +
+                "length=" + buffer.remaining() +
+                ", released=" + released.get() +
+                '}';
+    }
+}
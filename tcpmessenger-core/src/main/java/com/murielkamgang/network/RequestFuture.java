@@ -0,0 +1,403 @@
+package com.murielkamgang.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Future of a request that is not bound to an executor thread, it is completed by whoever read the response.
+ * <p>
+ * <p>Listeners can be added with {@link #addListener(Listener, Executor)} and requests chained with
+ * {@link #map(Function, Executor)} and {@link #flatMap(AsyncFunction, Executor)}. With
+ * {@link CallbackExecutors#direct()} they run on the thread completing the future, usually the I/O thread
+ * that read the response.</p>
+ *
+ * @param <T> Type of the object expected
+ */
+public class RequestFuture<T> implements Future<T> {
+
+    private static final int PENDING = 0;
+    private static final int COMPLETING = 1;
+    private static final int COMPLETED = 2;
+    private static final int CANCELLED = 3;
+
+    @SuppressWarnings("rawtypes")//field updaters can only be created for the raw class
+    private static final AtomicIntegerFieldUpdater<RequestFuture> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(RequestFuture.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<RequestFuture, ListenerNode> LISTENERS =
+            AtomicReferenceFieldUpdater.newUpdater(RequestFuture.class, ListenerNode.class, "listeners");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<RequestFuture, Waiter> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(RequestFuture.class, Waiter.class, "waiters");
+    /**
+     * Marker of the listener list once the listeners were notified
+     */
+    private static final ListenerNode NOTIFIED = new ListenerNode(null, null);
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestFuture.class);
+
+    /**
+     * State of this future, set with {@link #STATE} so no extra object is allocated per future
+     */
+    private volatile int state;
+    /**
+     * Listeners to be notified, most recently added first, or {@link #NOTIFIED}
+     */
+    private volatile ListenerNode listeners;
+    /**
+     * Threads blocked in {@link #get()}, parked rather than waiting on a monitor so a virtual thread does not pin
+     * its carrier thread
+     */
+    private volatile Waiter waiters;
+    private T response;
+    private Throwable error;
+
+    RequestFuture() {
+    }
+
+    /**
+     * Complete this future
+     *
+     * @param response the response, or null if something went wrong
+     * @param error    the error that occur if any
+     * @return true if this call completed the future, false if it was already done or cancelled
+     */
+    boolean complete(T response, Throwable error) {
+        if (!STATE.compareAndSet(this, PENDING, COMPLETING)) {
+            return false;
+        }
+
+        this.response = response;
+        this.error = error;
+        state = COMPLETED;//publish the fields
+        wakeUp();
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+            return false;
+        }
+
+        wakeUp();
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        await(false, 0);
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!await(true, System.nanoTime() + unit.toNanos(timeout))) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * Add a listener to be notified once this future is done, right away if it is already done
+     *
+     * @param listener the listener, a cancelled future is reported as a {@link CancellationException}
+     * @param executor the executor to notify the listener with
+     * @return this future
+     */
+    public RequestFuture<T> addListener(Listener<? super T> listener, Executor executor) {
+        final ListenerNode node = new ListenerNode(listener, executor);
+        while (true) {
+            final ListenerNode head = listeners;
+            if (head == NOTIFIED) {
+                notifyListener(node);
+                return this;
+            }
+
+            node.next = head;
+            if (LISTENERS.compareAndSet(this, head, node)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Add a listener notified on the thread completing this future, see {@link #addListener(Listener, Executor)}
+     *
+     * @param listener the listener
+     * @return this future
+     */
+    public RequestFuture<T> addListener(Listener<? super T> listener) {
+        return addListener(listener, CallbackExecutors.direct());
+    }
+
+    /**
+     * Transform the response of this future
+     *
+     * @param function the function applied to the response, any exception thrown fail the returned future
+     * @param executor the executor to apply the function with
+     * @param <R>      Type of the transformed object
+     * @return a future of the transformed response, failed with the error of this future if any
+     */
+    public <R> RequestFuture<R> map(final Function<? super T, ? extends R> function, Executor executor) {
+        final RequestFuture<R> result = new RequestFuture<>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                try {
+                    result.complete(function.apply(response), null);
+                } catch (Exception e) {
+                    result.complete(null, e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.complete(null, throwable);
+            }
+        }, executor);
+        return result;
+    }
+
+    /**
+     * {@link #map(Function, Executor)} on the thread completing this future
+     */
+    public <R> RequestFuture<R> map(Function<? super T, ? extends R> function) {
+        return map(function, CallbackExecutors.direct());
+    }
+
+    /**
+     * Chain another request once this one got its response
+     *
+     * @param function the function sending the next request, any exception thrown fail the returned future
+     * @param executor the executor to apply the function with
+     * @param <R>      Type of the object expected by the next request
+     * @return a future of the next request response, failed with the error of this future if any
+     */
+    public <R> RequestFuture<R> flatMap(final AsyncFunction<? super T, ? extends R> function, Executor executor) {
+        final RequestFuture<R> result = new RequestFuture<>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                final RequestFuture<? extends R> next;
+                try {
+                    next = function.apply(response);
+                } catch (Exception e) {
+                    result.complete(null, e);
+                    return;
+                }
+
+                next.addListener(new Listener<R>() {
+                    @Override
+                    public void onResponse(R response) {
+                        result.complete(response, null);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        result.complete(null, throwable);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.complete(null, throwable);
+            }
+        }, executor);
+        return result;
+    }
+
+    /**
+     * {@link #flatMap(AsyncFunction, Executor)} on the thread completing this future
+     */
+    public <R> RequestFuture<R> flatMap(AsyncFunction<? super T, ? extends R> function) {
+        return flatMap(function, CallbackExecutors.direct());
+    }
+
+    /**
+     * Park the current thread until this future is done
+     *
+     * @param timed    true to give up at the deadline
+     * @param deadline {@link System#nanoTime()} to give up at
+     * @return false if the deadline passed first
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    private boolean await(boolean timed, long deadline) throws InterruptedException {
+        Waiter waiter = null;
+        while (state < COMPLETED) {
+            if (Thread.interrupted()) {
+                if (waiter != null) {
+                    waiter.thread = null;
+                }
+                throw new InterruptedException();
+            }
+
+            if (waiter == null) {//queued first, the state is checked again before parking
+                waiter = new Waiter();
+                Waiter head;
+                do {
+                    head = waiters;
+                    waiter.next = head;
+                } while (!WAITERS.compareAndSet(this, head, waiter));
+                continue;
+            }
+
+            if (!timed) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                waiter.thread = null;
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    private void wakeUp() {
+        Waiter waiter = WAITERS.getAndSet(this, null);
+        while (waiter != null) {
+            final Thread thread = waiter.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            waiter = waiter.next;
+        }
+    }
+
+    private void notifyListeners() {
+        ListenerNode node = LISTENERS.getAndSet(this, NOTIFIED);
+        ListenerNode ordered = null;
+        while (node != null) {//reverse the list, first added first
+            final ListenerNode next = node.next;
+            node.next = ordered;
+            ordered = node;
+            node = next;
+        }
+
+        while (ordered != null) {
+            notifyListener(ordered);
+            ordered = ordered.next;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyListener(final ListenerNode node) {
+        final Listener<? super T> listener = (Listener<? super T>) node.listener;//added to this future
+        node.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (state == CANCELLED) {
+                        listener.onError(new CancellationException());
+                    } else if (error != null) {
+                        listener.onError(error);
+                    } else {
+                        listener.onResponse(response);
+                    }
+                } catch (RuntimeException e) {//must not break the thread completing the future
+                    logger.error("request future listener failed", e);
+                }
+            }
+        });
+    }
+
+    private T report() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException();
+        }
+
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return response;
+    }
+
+    /**
+     * Listener notified once a {@link RequestFuture} is done
+     *
+     * @param <T> Type of the object expected
+     */
+    public interface Listener<T> {
+
+        /**
+         * Invoke when the request was successful
+         *
+         * @param response the type safe object response
+         */
+        void onResponse(T response);
+
+        /**
+         * Invoke when an error occur or the future was cancelled
+         *
+         * @param throwable the throwable thrown when the error occur
+         */
+        void onError(Throwable throwable);
+    }
+
+    /**
+     * Transformation of a response, see {@link #map(Function, Executor)}
+     */
+    public interface Function<T, R> {
+
+        R apply(T t) throws Exception;
+    }
+
+    /**
+     * Next request sent from a response, see {@link #flatMap(AsyncFunction, Executor)}
+     */
+    public interface AsyncFunction<T, R> {
+
+        RequestFuture<R> apply(T t) throws Exception;
+    }
+
+    private static class ListenerNode {
+
+        private final Listener<?> listener;
+        private final Executor executor;
+        private ListenerNode next;
+
+        private ListenerNode(Listener<?> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Thread blocked in {@link #get()}
+     */
+    private static class Waiter {
+
+        /**
+         * The thread, null once it gave up waiting
+         */
+        private volatile Thread thread = Thread.currentThread();
+        private Waiter next;
+    }
+}
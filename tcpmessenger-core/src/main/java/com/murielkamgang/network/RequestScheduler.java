@@ -0,0 +1,520 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scheduler in front of the transport, see {@link SocketConfig#maxRequestsPerHost}.
+ * <p>
+ * <p>Requests are queued per host and per priority level (see {@link TCPMessenger.Request#priority}). Each time a
+ * slot is free the next request is taken from the highest level with work, hosts of a level being served round
+ * robin so a burst to one device does not delay the others. A host has at most {@code maxRequestsPerHost} requests
+ * sent and not yet answered, and at most {@code maxRunning} requests run on the I/O threads at once so the executor
+ * queue stay empty and cannot reorder them.</p>
+ * <p>
+ * <p>The queue of a host can be bounded ({@link SocketConfig#maxQueuedPerHost}), a request sent while it is full is
+ * handled by {@link SocketConfig#overflowPolicy}. With {@link SocketConfig#adaptiveLimit} the limit of each host is
+ * adapted to its latency, additive increase and multiplicative decrease: it grows by one per round trip while the
+ * latency stay close to the lowest one seen and is cut by {@link Constant#ADAPTIVE_LIMIT_BACKOFF} once per round
+ * trip when it grows past it or a request time out, so an overloaded device get fewer requests instead of an ever
+ * longer latency.</p>
+ */
+class RequestScheduler {
+
+    /**
+     * Number of priority levels, see {@link #levelOf(int)}
+     */
+    private static final int LEVELS = 3;
+
+    /**
+     * Lock guarding every host queue, the rings and {@link #running}. Not a monitor so a caller blocked by
+     * {@link SocketConfig#OVERFLOW_BLOCK} on a virtual thread does not pin its carrier thread
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signaled each time a request leave its queue, callers blocked by {@link SocketConfig#OVERFLOW_BLOCK} wait on it
+     */
+    private final Condition dequeued = lock.newCondition();
+    /**
+     * Queues per host ip
+     */
+    private final HashMap<String, HostQueue> hosts = new HashMap<>();
+    /**
+     * Hosts with queued requests per priority level, in round robin order. A host can be left in a ring once it
+     * has no more requests of the level or reached its limit, it is then skipped
+     */
+    private final ArrayDeque<HostQueue>[] rings;
+    private final int maxRequestsPerHost;
+    private final int maxRunning;
+    /**
+     * Max number of requests queued per host, 0 for no limit
+     */
+    private final int maxQueuedPerHost;
+    /**
+     * What to do with a request sent while the queue of its host is full, see {@link SocketConfig#overflowPolicy}
+     */
+    private final int overflowPolicy;
+    /**
+     * True if the limit of each host is adapted to its latency, hosts are then never forgotten so they keep it
+     */
+    private final boolean adaptive;
+    private final Sink sink;
+    /**
+     * Number of requests dispatched and still running on an I/O thread, only counted if {@link #maxRunning} is set
+     */
+    private int running;
+    /**
+     * Set once shutdown, callers waiting for room fail
+     */
+    private boolean shutdown;
+
+    /**
+     * @param socketConfig the socket config with the limit per host, the queue bound and its overflow policy
+     * @param maxRunning   max number of requests running on an I/O thread at once, 0 if the requests do not hold an
+     *                     I/O thread, {@link #onExecuted()} is then never called
+     * @param sink         the sink the requests are dispatched to
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    RequestScheduler(SocketConfig socketConfig, int maxRunning, Sink sink) {
+        this.maxRequestsPerHost = socketConfig.maxRequestsPerHost;
+        this.maxRunning = maxRunning;
+        this.maxQueuedPerHost = socketConfig.maxQueuedPerHost;
+        this.overflowPolicy = socketConfig.overflowPolicy;
+        this.adaptive = socketConfig.adaptiveLimit;
+        this.sink = sink;
+        rings = new ArrayDeque[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            rings[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Queue a request, it is dispatched right away if a slot is free. If the queue of its host is full it fails or
+     * the oldest queued request fails through {@link Sink#overflow(Completion, IOException)}, or the caller wait
+     * for room, depending on the overflow policy. The Android main thread never waits, its request fails instead
+     *
+     * @param completion the record of the request
+     * @throws IllegalStateException if shutdown while waiting for room
+     */
+    void submit(Completion completion) {
+        completion.scheduled = true;
+        final String ip = completion.request.ip;
+        final int level = levelOf(completion.request.priority);
+        Completion dropped = null;
+        IOException overflow = null;
+        lock.lock();
+        try {
+            HostQueue host = hostFor(ip);
+            if (maxQueuedPerHost > 0 && host.size >= maxQueuedPerHost) {
+                if (overflowPolicy == SocketConfig.OVERFLOW_DROP_OLDEST) {
+                    dropped = host.pollOldest();
+                } else if (overflowPolicy == SocketConfig.OVERFLOW_BLOCK && !CallbackExecutors.isMainThread()) {
+                    try {
+                        while (host.size >= maxQueuedPerHost) {
+                            final long remaining = completion.deadline - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                overflow = new QueueFullException("no room in the queue of ip " + ip
+                                        + " before the request deadline");
+                                break;
+                            }
+                            dequeued.await(remaining, TimeUnit.MILLISECONDS);
+                            if (shutdown) {
+                                throw new IllegalStateException("TCPMessenger is shutdown");
+                            }
+                            host = hostFor(ip);//could be forgotten and created again in the meantime
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        overflow = new QueueFullException("interrupted while waiting for room in the queue of ip "
+                                + ip);
+                    }
+                } else {//OVERFLOW_REJECT, or OVERFLOW_BLOCK on the main thread
+                    overflow = new QueueFullException("queue of ip " + ip + " is full");
+                }
+            }
+
+            if (overflow == null) {
+                host.queued[level].offer(completion);
+                host.size++;
+                if (host.hasSlot() && !host.inRing[level]) {
+                    host.inRing[level] = true;
+                    rings[level].offer(host);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (dropped != null) {
+            sink.overflow(dropped, new QueueFullException("dropped from the full queue of ip " + ip
+                    + " for a newer request"));
+        }
+        if (overflow != null) {
+            sink.overflow(completion, overflow);
+            return;
+        }
+
+        drain();
+    }
+
+    /**
+     * @param ip the host ip
+     * @return true if the queue of the host is full, a request sent now would overflow
+     */
+    boolean isFull(String ip) {
+        if (maxQueuedPerHost <= 0) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            final HostQueue host = hosts.get(ip);
+            return host != null && host.size >= maxQueuedPerHost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find a queued request with the same command as one sent while the queue of the host is full, see
+     * {@link SocketConfig#OVERFLOW_COALESCE}. Only called in that case so commands are not serialized otherwise
+     *
+     * @param ip  the host ip
+     * @param key the key of the command sent
+     * @return the queued request, now leading the flight of that key, or null if none
+     */
+    Completion lead(String ip, CommandKey key) {
+        lock.lock();
+        try {
+            final HostQueue host = hosts.get(ip);
+            if (host == null) {
+                return null;
+            }
+
+            for (ArrayDeque<Completion> completions : host.queued) {
+                for (Completion completion : completions) {
+                    if (completion.flightKey == null && key.equals(sink.keyOf(completion))) {
+                        completion.flightKey = key;//set while queued, seen by the thread dispatching it
+                        return completion;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A dispatched request got its response or error, its host slot is free
+     *
+     * @param ip           the host ip
+     * @param dispatchedAt {@link System#nanoTime()} when the request was dispatched, only set if the limit is
+     *                     adaptive
+     * @param error        the error of the request, null if it got its response
+     */
+    void onDone(String ip, long dispatchedAt, Throwable error) {
+        lock.lock();
+        try {
+            final HostQueue host = hosts.get(ip);
+            if (host == null) {//shutdown in the meantime
+                return;
+            }
+
+            if (adaptive) {
+                host.adapt(dispatchedAt, error);
+            }
+            host.running--;
+            if (host.running == 0 && host.isEmpty() && !adaptive) {
+                hosts.remove(ip);
+            } else if (host.hasSlot()) {
+                for (int level = 0; level < LEVELS; level++) {
+                    if (!host.queued[level].isEmpty() && !host.inRing[level]) {
+                        host.inRing[level] = true;
+                        rings[level].offer(host);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        drain();
+    }
+
+    /**
+     * A dispatched request is done with its I/O thread, in blocking mode that is right after
+     * {@link #onDone(String, long, Throwable)} and in pipelined mode once it is written
+     */
+    void onExecuted() {
+        if (maxRunning == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            running--;
+        } finally {
+            lock.unlock();
+        }
+
+        drain();
+    }
+
+    /**
+     * Forget every queued request, the {@link TCPMessenger} fails them through its in flight table. Callers waiting
+     * for room fail
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            hosts.clear();
+            for (ArrayDeque<HostQueue> ring : rings) {
+                ring.clear();
+            }
+            dequeued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private HostQueue hostFor(String ip) {
+        HostQueue host = hosts.get(ip);
+        if (host == null) {
+            host = new HostQueue(adaptive ? Math.min(maxRequestsPerHost, Constant.ADAPTIVE_LIMIT_INITIAL)
+                    : maxRequestsPerHost);
+            hosts.put(ip, host);
+        }
+        return host;
+    }
+
+    /**
+     * Dispatch requests while slots are free, one at a time so the sink is called outside of the lock
+     */
+    private void drain() {
+        Completion completion;
+        while ((completion = next()) != null) {
+            try {
+                sink.dispatch(completion);
+            } catch (RuntimeException e) {//shutdown in the meantime
+                if (maxRunning > 0) {
+                    lock.lock();
+                    try {
+                        running--;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                sink.reject(completion, e);
+            }
+        }
+    }
+
+    /**
+     * Take the next request to dispatch and reserve its slots
+     *
+     * @return the request, or null if none can be dispatched now
+     */
+    private Completion next() {
+        lock.lock();
+        try {
+            if (maxRunning > 0 && running >= maxRunning) {
+                return null;
+            }
+
+            for (int level = LEVELS - 1; level >= 0; level--) {
+                final ArrayDeque<HostQueue> ring = rings[level];
+                HostQueue host;
+                while ((host = ring.poll()) != null) {
+                    host.inRing[level] = false;
+                    if (!host.hasSlot() || host.queued[level].isEmpty()) {
+                        continue;//stale entry, added back once under the limit
+                    }
+
+                    final Completion completion = host.queued[level].poll();
+                    host.size--;
+                    host.running++;
+                    if (maxRunning > 0) {
+                        running++;
+                    }
+                    if (adaptive) {
+                        completion.dispatchedAt = System.nanoTime();
+                    }
+                    if (host.hasSlot() && !host.queued[level].isEmpty()) {
+                        host.inRing[level] = true;
+                        ring.offer(host);//back of the ring, the other hosts of this level go first
+                    }
+                    if (overflowPolicy == SocketConfig.OVERFLOW_BLOCK) {
+                        dequeued.signalAll();
+                    }
+                    return completion;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority the priority of a request
+     * @return its level, the higher the sooner
+     */
+    private static int levelOf(int priority) {
+        return priority > 0 ? 2 : priority < 0 ? 0 : 1;
+    }
+
+    /**
+     * Where {@link RequestScheduler} dispatch the requests
+     */
+    interface Sink {
+
+        /**
+         * Hand a request to the transport
+         *
+         * @param completion the record of the request
+         */
+        void dispatch(Completion completion);
+
+        /**
+         * Fail a request the transport refused, its host slot is released by
+         * {@link #onDone(String, long, Throwable)}
+         *
+         * @param completion the record of the request
+         * @param error      the error thrown by {@link #dispatch(Completion)}
+         */
+        void reject(Completion completion, RuntimeException error);
+
+        /**
+         * Fail a request that did not fit in the queue of its host or was dropped from it, it never got a host slot
+         *
+         * @param completion the record of the request
+         * @param error      the error to report
+         */
+        void overflow(Completion completion, IOException error);
+
+        /**
+         * @param completion the record of a queued request
+         * @return the key of its command, computed once, or null if it can not be shared
+         */
+        CommandKey keyOf(Completion completion);
+    }
+
+    /**
+     * Queued requests of one host per priority level
+     */
+    private class HostQueue {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayDeque<Completion>[] queued = new ArrayDeque[LEVELS];
+        /**
+         * Whether this host is in the ring of each level
+         */
+        private final boolean[] inRing = new boolean[LEVELS];
+        /**
+         * Number of requests of this host dispatched and not yet answered
+         */
+        private int running;
+        /**
+         * Number of requests of this host queued, every level together
+         */
+        private int size;
+        /**
+         * Max number of requests of this host dispatched and not yet answered, between 1 and
+         * {@link #maxRequestsPerHost} when adapted to the latency
+         */
+        private double limit;
+        /**
+         * Lowest latency in ns of the previous window of {@link Constant#ADAPTIVE_LIMIT_WINDOW} responses, the
+         * baseline follows the device if its latency changes for good
+         */
+        private long previousMinLatency = Long.MAX_VALUE;
+        /**
+         * Lowest latency in ns of the current window
+         */
+        private long minLatency = Long.MAX_VALUE;
+        /**
+         * Number of responses in the current window
+         */
+        private int samples;
+        /**
+         * {@link System#nanoTime()} of the last decrease of {@link #limit}, the requests dispatched before it do not
+         * decrease it again. Only meaningful once {@link #decreased}, nanoTime has an arbitrary origin
+         */
+        private long decreasedAt;
+        /**
+         * Whether {@link #limit} was ever decreased
+         */
+        private boolean decreased;
+
+        private HostQueue(int limit) {
+            this.limit = limit;
+            for (int i = 0; i < LEVELS; i++) {
+                queued[i] = new ArrayDeque<>();
+            }
+        }
+
+        private boolean hasSlot() {
+            return running < (int) limit;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * @return the oldest request of the lowest level with requests, removed from its queue
+         */
+        private Completion pollOldest() {
+            for (ArrayDeque<Completion> completions : queued) {
+                final Completion completion = completions.poll();
+                if (completion != null) {
+                    size--;
+                    return completion;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adapt the limit to the result of a request, before its slot is released
+         *
+         * @param dispatchedAt {@link System#nanoTime()} when the request was dispatched
+         * @param error        the error of the request, null if it got its response
+         */
+        private void adapt(long dispatchedAt, Throwable error) {
+            final long now = System.nanoTime();
+            final boolean congested;
+            if (error == null) {
+                final long latency = now - dispatchedAt;
+                minLatency = Math.min(minLatency, latency);
+                if (++samples >= Constant.ADAPTIVE_LIMIT_WINDOW) {
+                    previousMinLatency = minLatency;
+                    minLatency = Long.MAX_VALUE;
+                    samples = 0;
+                }
+                congested = latency > Math.min(previousMinLatency, minLatency) * Constant.ADAPTIVE_LIMIT_TOLERANCE;
+            } else if (error instanceof SocketTimeoutException) {
+                congested = true;
+            } else {
+                return;//connection errors are for the circuit breaker, they say nothing about the load
+            }
+
+            if (congested) {
+                if (!decreased || dispatchedAt - decreasedAt >= 0) {//once per round trip
+                    limit = Math.max(1, limit * Constant.ADAPTIVE_LIMIT_BACKOFF);
+                    decreasedAt = now;
+                    decreased = true;
+                }
+            } else if (running >= (int) limit) {//only grow a limit that is reached
+                limit = Math.min(maxRequestsPerHost, limit + 1 / limit);
+            }
+        }
+    }
+}
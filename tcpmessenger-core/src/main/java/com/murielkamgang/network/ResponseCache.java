@@ -0,0 +1,97 @@
+package com.murielkamgang.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of responses per {@link CommandKey}, each entry expiring after the time to live of the request that
+ * produced it. Thread safe.
+ */
+class ResponseCache {
+
+    /**
+     * Entries in access order, guarded by itself
+     */
+    private final LinkedHashMap<CommandKey, CachedResponse> entries;
+
+    /**
+     * @param maxSize the max number of responses kept, the least recently used one is evicted first
+     */
+    ResponseCache(final int maxSize) {
+        entries = new LinkedHashMap<CommandKey, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CommandKey, CachedResponse> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param key the key
+     * @return the cached response, or null if none or expired
+     */
+    Object get(CommandKey key) {
+        synchronized (entries) {
+            final CachedResponse entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.response;
+        }
+    }
+
+    /**
+     * @param key      the key
+     * @param response the response
+     * @param ttl      time to live of the response in ms
+     */
+    void put(CommandKey key, Object response, long ttl) {
+        synchronized (entries) {
+            entries.put(key, new CachedResponse(response, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Remove every response of an ip, or of one command of that ip
+     *
+     * @param ip  the ip
+     * @param cmd the serialized command, or null for every command
+     */
+    void invalidate(String ip, byte[] cmd) {
+        synchronized (entries) {
+            final Iterator<CommandKey> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                final CommandKey key = iterator.next();
+                if (key.matches(ip, cmd)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove every response
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static class CachedResponse {
+
+        private final Object response;
+        private final long expiresAt;
+
+        private CachedResponse(Object response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
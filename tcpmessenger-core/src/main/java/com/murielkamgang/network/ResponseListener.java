@@ -0,0 +1,33 @@
+package com.murielkamgang.network;
+
+/**
+ * Listener notified by a transport each time a request get its response or fail, or a message is pushed
+ */
+interface ResponseListener {
+
+    /**
+     * Invoke when the response of a request was read
+     *
+     * @param request  the request
+     * @param response the decoded response
+     */
+    void onResponse(TCPMessenger.Request request, Object response);
+
+    /**
+     * Invoke when a request failed
+     *
+     * @param request   the request
+     * @param throwable the error that occur
+     */
+    void onError(TCPMessenger.Request request, Throwable throwable);
+
+    /**
+     * Invoke when a device sent a message without request id, see
+     * {@link TCPMessenger#addPushListener(String, Class, TCPMessenger.PushListener)}
+     *
+     * @param ip      the device ip
+     * @param message the message not decoded yet, a {@link com.fasterxml.jackson.databind.JsonNode} in unframed
+     *                mode or a byte array in framed mode
+     */
+    void onPush(String ip, Object message);
+}
@@ -0,0 +1,392 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Response read element by element on a socket of its own, see
+ * {@link TCPMessenger#sendStream(TCPMessenger.Request, Class, TCPMessenger.StreamCallback)} and
+ * {@link TCPMessenger#subscribe(TCPMessenger.Request, Class, TCPMessenger.StreamCallback)}.
+ * <p>
+ * <p>A dedicated reader thread write the command then parse one element at a time: each element of the response
+ * array, or each frame in framed mode, or each message pushed by the device for a subscription. Elements are queued
+ * to the callback executor, at most {@link Constant#STREAM_WINDOW} of them. Once the queue is full the reader stop
+ * reading until the callback caught up, the socket buffers fill up and the device is slowed down by the tcp flow
+ * control, so a response of any size is read with a constant memory.</p>
+ *
+ * @param <T> Type of the elements expected
+ */
+class ResponseStream<T> implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(ResponseStream.class);
+
+    private final TCPMessenger.Request request;
+    private final Class<T> elementClass;
+    /**
+     * Callback of the stream, weakly held like {@link TCPMessenger.Callback}. The stream is cancelled once it is
+     * garbage collected
+     */
+    private final WeakReference<TCPMessenger.StreamCallback<T>> callback;
+    /**
+     * Future done once every element and the end of the stream were delivered
+     */
+    private final RequestFuture<Void> future = new RequestFuture<>();
+    /**
+     * True if the elements are messages pushed by the device until it close the connection, false if the response
+     * is one array
+     */
+    private final boolean subscription;
+    private final SocketConfig socketConfig;
+    private final Codec codec;
+    private final BufferPool bufferPool;
+    private final ConnectionPool connectionPool;
+    private final Executor callbackExecutor;
+    /**
+     * {@link System#currentTimeMillis()} after which the connect fail
+     */
+    private final long deadline;
+    /**
+     * Elements read and not delivered yet, guarded by itself
+     */
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    /**
+     * Deliver the queued elements, posted to {@link #callbackExecutor} once each time the queue stop being empty
+     */
+    private final Runnable deliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    /**
+     * Socket of the stream once connected
+     */
+    private volatile Socket socket;
+    /**
+     * Flag set once the stream was cancelled or failed, the reader stop and close the socket
+     */
+    private volatile boolean aborted;
+    /**
+     * True while {@link #deliveryTask} is posted, guarded by {@link #queue}
+     */
+    private boolean posted;
+    /**
+     * True once the reader is done, the end is then delivered after the queued elements. Guarded by {@link #queue}
+     */
+    private boolean ended;
+    /**
+     * The error that ended the stream if any, guarded by {@link #queue}
+     */
+    private Throwable error;
+
+    ResponseStream(TCPMessenger.Request request, Class<T> elementClass, TCPMessenger.StreamCallback<T> callback,
+                   boolean subscription, long deadline, SocketConfig socketConfig, Codec codec, BufferPool bufferPool,
+                   ConnectionPool connectionPool, Executor callbackExecutor) {
+        this.request = request;
+        this.elementClass = elementClass;
+        this.callback = new WeakReference<>(callback);
+        this.subscription = subscription;
+        this.deadline = deadline;
+        this.socketConfig = socketConfig;
+        this.codec = codec;
+        this.bufferPool = bufferPool;
+        this.connectionPool = connectionPool;
+        this.callbackExecutor = callbackExecutor;
+        future.addListener(new RequestFuture.Listener<Void>() {
+            @Override
+            public void onResponse(Void response) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (future.isCancelled()) {
+                    abort();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the future of this stream, cancelling it close the socket
+     */
+    RequestFuture<Void> getFuture() {
+        return future;
+    }
+
+    /**
+     * Start the reader thread
+     */
+    void start() {
+        final Thread reader = new Thread(this, "TCPMessenger-stream-" + request.ip);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Stop the stream, the socket is closed which unblock the reader
+     */
+    void abort() {
+        aborted = true;
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+
+        final Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Socket client = null;
+        boolean reusable = false;
+        Throwable error = null;
+        try {
+            //a subscription never give its socket back, it is not taken from the pool
+            client = subscription ? connectionPool.connect(request.ip, deadline)
+                    : connectionPool.acquire(request.ip, deadline);
+            socket = client;
+            if (aborted) {//cancelled while connecting
+                throw new CancellationException();
+            }
+
+            //the socket time out bound the wait for each element, a device may stay silent between pushed messages
+            client.setSoTimeout(subscription ? 0 : request.timeOut > 0 ? request.timeOut : socketConfig.timeOut);
+            write(client.getOutputStream());
+            if (socketConfig.framed) {
+                readFrames(client.getInputStream());
+            } else {
+                readValues(client.getInputStream());
+            }
+            reusable = !subscription;
+        } catch (IOException | RuntimeException e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("stream of {} ended", request, e);
+            }
+
+            error = aborted ? new CancellationException() : e;
+        } finally {
+            if (client != null) {
+                if (subscription) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        //Ignore
+                    }
+                } else if (reusable) {
+                    connectionPool.release(request.ip, client);
+                } else {
+                    connectionPool.invalidate(request.ip, client);
+                }
+            }
+        }
+
+        end(error);
+    }
+
+    private void write(OutputStream out) throws IOException {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("writing stream command {} to server", request.cmd);
+        }
+
+        if (socketConfig.framed) {
+            final FrameOutputStream frame = new FrameOutputStream();
+            frame.begin();
+            EncodedCommand.write(codec, request.cmd, frame);
+            frame.finish();
+            frame.writeFrameTo(out);
+            out.flush();
+        } else {
+            EncodedCommand.write(codec, request.cmd, out);
+        }
+    }
+
+    /**
+     * Read one element per frame, a response end with an empty frame and a subscription when the device close the
+     * connection
+     */
+    private void readFrames(InputStream in) throws IOException {
+        while (true) {
+            final ByteBuffer buffer = Framing.readFrameOrEnd(in, bufferPool);
+            if (buffer == null) {
+                if (subscription) {
+                    return;
+                }
+                throw new EOFException("connection closed before the end of the stream");
+            }
+
+            final T element;
+            try {
+                if (buffer.limit() == 0 && !subscription) {
+                    return;
+                }
+                element = codec.decode(buffer.array(), 0, buffer.limit(), elementClass);
+            } finally {
+                bufferPool.release(buffer);
+            }
+            offer(element);
+        }
+    }
+
+    /**
+     * Read each element of the response array, or each root value pushed for a subscription until the device
+     * close the connection
+     */
+    private void readValues(InputStream in) throws IOException {
+        final JacksonCodec jacksonCodec = (JacksonCodec) codec;
+        final JsonParser parser = jacksonCodec.getObjectMapper().getFactory().createParser(in);
+        if (subscription) {
+            while (parser.nextToken() != null) {
+                offer(jacksonCodec.decode(parser, elementClass));
+            }
+            return;
+        }
+
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("stream response must be an array");
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new EOFException("connection closed before the end of the stream");
+            }
+            offer(jacksonCodec.decode(parser, elementClass));
+        }
+    }
+
+    /**
+     * Queue an element to be delivered, block while the queue is full
+     *
+     * @param element the element
+     * @throws InterruptedIOException if the stream was aborted in the meantime
+     */
+    private void offer(T element) throws InterruptedIOException {
+        final boolean post;
+        synchronized (queue) {
+            try {
+                while (queue.size() >= Constant.STREAM_WINDOW && !aborted) {
+                    queue.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                aborted = true;
+            }
+            if (aborted) {
+                throw new InterruptedIOException("stream aborted");
+            }
+
+            queue.offer(element);
+            post = !posted;
+            posted = true;
+        }
+
+        if (post) {
+            callbackExecutor.execute(deliveryTask);
+        }
+    }
+
+    /**
+     * Mark the end of the stream, delivered once the queued elements are
+     *
+     * @param error the error that ended the stream, null if it ended normally
+     */
+    private void end(Throwable error) {
+        final boolean post;
+        synchronized (queue) {
+            ended = true;
+            this.error = error;
+            post = !posted;
+            posted = true;
+        }
+
+        if (post) {
+            callbackExecutor.execute(deliveryTask);
+        }
+    }
+
+    /**
+     * Deliver the queued elements then the end of the stream if reached, in the callback executor
+     */
+    private void drain() {
+        while (true) {
+            final T element;
+            final boolean end;
+            final Throwable error;
+            synchronized (queue) {
+                element = queue.poll();
+                end = element == null && ended;
+                error = this.error;
+                if (element == null && !end) {
+                    posted = false;
+                    return;
+                }
+                queue.notifyAll();
+            }
+
+            final TCPMessenger.StreamCallback<T> callback = this.callback.get();
+            if (callback == null) {
+                future.cancel(false);
+            }
+            if (future.isDone()) {//cancelled or failed, the rest is dropped
+                if (end) {
+                    return;
+                }
+                continue;
+            }
+
+            if (end) {
+                future.complete(null, error);
+                notifyEnd(callback, error);
+                return;
+            }
+
+            try {
+                callback.onElement(request, element);
+            } catch (RuntimeException e) {//the stream can not go on without this element
+                if (future.complete(null, e)) {
+                    abort();
+                    notifyEnd(callback, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tell the callback the stream ended, a callback throwing is logged since a direct executor run it on the
+     * reader thread
+     *
+     * @param callback the callback
+     * @param error    the error the stream failed with, null if it completed
+     */
+    private void notifyEnd(TCPMessenger.StreamCallback<T> callback, Throwable error) {
+        try {
+            if (error == null) {
+                callback.onComplete(request);
+            } else {
+                callback.onError(request, error);
+            }
+        } catch (RuntimeException e) {
+            logger.error("stream callback failed for request {}", request, e);
+        }
+    }
+}
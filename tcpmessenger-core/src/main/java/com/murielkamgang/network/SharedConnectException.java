@@ -0,0 +1,17 @@
+package com.murielkamgang.network;
+
+import java.net.ConnectException;
+
+/**
+ * Failure of a connect made by another request, reported to each request that waited for it. Its cause is the
+ * error of the connect, so the {@link CircuitBreaker} count that failure once
+ */
+class SharedConnectException extends ConnectException {
+
+    private static final long serialVersionUID = 1L;
+
+    SharedConnectException(String ip, Throwable cause) {
+        super("connect to ip " + ip + " failed");
+        initCause(cause);
+    }
+}
@@ -0,0 +1,102 @@
+package com.murielkamgang.network;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resources shared by every {@link TCPMessenger} instance, so one more {@link SocketConfig} does not cost threads
+ * nor a new mapper.
+ * <p>
+ * <p>Each resource is created on first use, by the class loading of its holder so there is no race. Threads are
+ * daemon, started on demand and stopped after {@link Constant#SHARED_THREAD_KEEP_ALIVE} ms idle, they are never shut
+ * down: releasing an instance only stops what it owns.</p>
+ */
+final class SharedResources {
+
+    private SharedResources() {
+    }
+
+    /**
+     * @return the executor of the blocking I/O of the instances without {@link SocketConfig#ioExecutor}, up to
+     * {@link Constant#IO_THREAD_COUNT} threads
+     */
+    static Executor ioExecutor() {
+        return IoExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * @return the timer of the retries, coalescing windows and pool evictions, one thread. Tasks must not block
+     */
+    static ScheduledExecutorService timer() {
+        return TimerHolder.TIMER;
+    }
+
+    /**
+     * @return the pool of frame buffers
+     */
+    static BufferPool bufferPool() {
+        return BufferPoolHolder.BUFFER_POOL;
+    }
+
+    /**
+     * @return the codec of the instances without {@link SocketConfig#codec}, its serializers are built once for all
+     */
+    static JsonCodec jsonCodec() {
+        return JsonCodecHolder.JSON_CODEC;
+    }
+
+    private static class IoExecutorHolder {
+
+        private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(Constant.IO_THREAD_COUNT,
+                Constant.IO_THREAD_COUNT, Constant.SHARED_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("TCPMessenger-io-"));
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static class TimerHolder {
+
+        private static final ScheduledThreadPoolExecutor TIMER =
+                new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("TCPMessenger-timer-"));
+
+        static {
+            TIMER.setKeepAliveTime(Constant.SHARED_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+            TIMER.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static class BufferPoolHolder {
+
+        private static final BufferPool BUFFER_POOL = new BufferPool();
+    }
+
+    private static class JsonCodecHolder {
+
+        private static final JsonCodec JSON_CODEC = new JsonCodec();
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
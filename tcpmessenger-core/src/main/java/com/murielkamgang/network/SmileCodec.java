@@ -0,0 +1,14 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Smile codec, binary json: smaller payloads and cheaper parsing than plain json. Socket server need to speak Smile.
+ */
+public class SmileCodec extends JacksonCodec {
+
+    public SmileCodec() {
+        super(new ObjectMapper(new SmileFactory()));
+    }
+}
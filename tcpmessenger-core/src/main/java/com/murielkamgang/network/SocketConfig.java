@@ -0,0 +1,328 @@
+package com.murielkamgang.network;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.Executor;
+
+/**
+ * Created by kamga on 3/11/2017.
+ */
+
+/**
+ * Socket configuration class holder
+ *
+ * <p>This class will hold basic socket config like port and time out of a socket client/server</p>
+ */
+public class SocketConfig {
+
+    /**
+     * Fail the request sent while the queue of its host is full with a {@link QueueFullException}
+     */
+    public static final int OVERFLOW_REJECT = 0;
+    /**
+     * Fail the oldest queued request of the lowest priority with a {@link QueueFullException} to make room for the
+     * request sent while the queue of its host is full
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    /**
+     * Block the caller while the queue of the host is full, the request fail with a {@link QueueFullException} if
+     * no room is made before its deadline. Requests sent from the Android main thread are never blocked, they are
+     * rejected like {@link #OVERFLOW_REJECT}
+     */
+    public static final int OVERFLOW_BLOCK = 2;
+    /**
+     * Share the response of a queued request with the same ip, command and response class, like
+     * {@link #singleFlight} but only while the queue of the host is full. The shared request keep its own
+     * deadline and can still be cancelled, the requests that joined it then fail with it. Requests with nothing to
+     * share with are rejected like {@link #OVERFLOW_REJECT}
+     */
+    public static final int OVERFLOW_COALESCE = 3;
+
+    /**
+     * Port of the socket, usually socket server
+     */
+    public int port;
+
+    /**
+     * Socket time out
+     */
+    public int timeOut;
+
+    /**
+     * Pipelined mode, when enabled each request is sent wrapped with its {@link TCPMessenger.Request} id
+     * and many requests can be in flight on the same socket at once.
+     * <p>
+     * <p>Socket server need to support it by echoing back the id, see {@link PipelinedConnection}</p>
+     */
+    public boolean pipelined;
+
+    /**
+     * Non blocking mode, when enabled requests are sent through {@link NioTransport} event loops instead of
+     * blocking a thread of the pool for each request
+     */
+    public boolean nio;
+
+    /**
+     * Framed mode, when enabled every request and response is sent as a 4 bytes big endian length followed by the
+     * payload. In pipelined mode the payload start with the 4 bytes request id instead of being wrapped in a json
+     * envelope.
+     * <p>
+     * <p>A malformed payload then only fail its own request, the stream stay in sync</p>
+     */
+    public boolean framed;
+
+    /**
+     * Codec used to encode commands and decode responses, plain json ({@link JsonCodec}) if null.
+     * <p>
+     * <p>See {@link SmileCodec} and {@link CborCodec} for binary formats, {@link RawCodec} for payloads already
+     * encoded</p>
+     */
+    public Codec codec;
+
+    /**
+     * Min number of socket clients kept open per host once a host was used, 0 by default
+     */
+    public int minConnectionsPerHost;
+
+    /**
+     * Max number of socket clients open at the same time per host
+     */
+    public int maxConnectionsPerHost = Constant.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    /**
+     * Max number of socket clients open at the same time for all hosts
+     */
+    public int maxConnections = Constant.DEFAULT_MAX_CONNECTIONS;
+
+    /**
+     * Time in ms after which an idle socket client is closed
+     */
+    public int idleTimeOut = Constant.DEFAULT_IDLE_TIME_OUT;
+
+    /**
+     * Disable Nagle's algorithm, see {@link Socket#setTcpNoDelay(boolean)}
+     */
+    public boolean tcpNoDelay = true;
+
+    /**
+     * TCP keep alive, see {@link Socket#setKeepAlive(boolean)}
+     */
+    public boolean keepAlive = true;
+
+    /**
+     * Socket send buffer size, 0 to keep the system default
+     */
+    public int sendBufferSize;
+
+    /**
+     * Socket receive buffer size, 0 to keep the system default
+     */
+    public int receiveBufferSize;
+
+    /**
+     * Time in ms during which commands sent to the same host are gathered to be written as one batch, see
+     * {@link TCPMessenger#sendBatch(java.util.List, Class, TCPMessenger.Callback)}. 0 to disable
+     */
+    public int coalescingWindow;
+
+    /**
+     * Max number of responses kept by the response cache, least recently used ones are evicted first. 0 to disable,
+     * see {@link TCPMessenger.Request#cacheTtl}
+     */
+    public int responseCacheSize;
+
+    /**
+     * Share one round trip between concurrent requests with the same ip, command and response class sent with
+     * {@link TCPMessenger#sendCommand(TCPMessenger.Request, Class, TCPMessenger.Callback)}, the response is
+     * delivered to each of their callbacks
+     */
+    public boolean singleFlight;
+
+    /**
+     * Executor running the blocking I/O of the blocking and pipelined modes, null for a pool of 5 threads shared by
+     * every {@link TCPMessenger} and never shutdown. A given executor is not shutdown with the {@link TCPMessenger}
+     */
+    public Executor ioExecutor;
+
+    /**
+     * Run each request of the blocking and pipelined modes on a virtual thread of its own instead of the shared pool
+     * of 5 threads, so thousands of blocking requests can be in flight. Needs Java 21 or later, the pool is used where
+     * virtual threads are not available such as Android. Ignored if {@link #ioExecutor} is set
+     * <p>
+     * <p>The limits of the connection pool still apply, see {@link #maxConnectionsPerHost}</p>
+     */
+    public boolean virtualThreads;
+
+    /**
+     * Executor invoking the callbacks, null for the Android main thread, or {@link CallbackExecutors#direct()}
+     * outside of Android. {@link CallbackExecutors#direct()} invoke them on the I/O thread that read the response
+     */
+    public Executor callbackExecutor;
+
+    /**
+     * Listener notified of the timings, pool usage and errors of every request, null to disable. See {@link Metrics}
+     */
+    public MetricsListener metricsListener;
+
+    /**
+     * Max number of requests per host sent and not yet answered, 0 to disable. When set requests are scheduled by
+     * priority (see {@link TCPMessenger.Request#priority}) and round robin across hosts instead of first in first
+     * out, so a burst of requests to one device does not delay the others. Batches are not scheduled
+     */
+    public int maxRequestsPerHost;
+
+    /**
+     * Max number of requests per host waiting for a slot, 0 for no limit. Needs {@link #maxRequestsPerHost}, a
+     * request sent while the queue of its host is full is handled by {@link #overflowPolicy} so a stalled device
+     * can not make the queue grow without bound
+     */
+    public int maxQueuedPerHost;
+
+    /**
+     * What to do with a request sent while the queue of its host is full, one of {@link #OVERFLOW_REJECT},
+     * {@link #OVERFLOW_DROP_OLDEST}, {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_COALESCE}
+     */
+    public int overflowPolicy = OVERFLOW_REJECT;
+
+    /**
+     * Adapt the number of requests per host sent and not yet answered to the latency of the host, between 1 and
+     * {@link #maxRequestsPerHost}: the limit grows while the latency stay close to the lowest one seen and shrinks
+     * when it grows or requests time out, so an overloaded device get fewer requests instead of an ever longer
+     * latency. Needs {@link #maxRequestsPerHost}
+     */
+    public boolean adaptiveLimit;
+
+    /**
+     * Max number of times an idempotent request (see {@link TCPMessenger.Request#idempotent}) is sent again after
+     * failing to reach its device (connection refused, reset or closed), 0 to disable. Retries stay within the
+     * deadline of the request
+     */
+    public int maxRetries;
+
+    /**
+     * Backoff in ms before the first retry, doubled for each next one up to {@link #maxRetryBackoff}. The actual
+     * wait is random between 0 and that backoff, so requests failing together are not sent again together
+     */
+    public int retryBackoff = Constant.DEFAULT_RETRY_BACKOFF;
+
+    /**
+     * Max backoff in ms between two retries, see {@link #retryBackoff}
+     */
+    public int maxRetryBackoff = Constant.DEFAULT_MAX_RETRY_BACKOFF;
+
+    /**
+     * Number of requests in a row failing to reach a device after which its requests fail right away with a
+     * {@link CircuitOpenException} for {@link #circuitBreakerCooldown}, 0 to disable
+     */
+    public int circuitBreakerThreshold;
+
+    /**
+     * Time in ms the requests to a device fail right away once its circuit breaker opened, one request is then let
+     * through to check if the device is back
+     */
+    public int circuitBreakerCooldown = Constant.DEFAULT_CIRCUIT_BREAKER_COOLDOWN;
+
+    public SocketConfig(int port, int timeOut) {
+        this(port, timeOut, false);
+    }
+
+    public SocketConfig(int port, int timeOut, boolean pipelined) {
+        this.port = port;
+        this.timeOut = timeOut;
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Apply the TCP options of this config to a socket, must be called before the socket is connected
+     *
+     * @param socket the socket
+     * @throws SocketException if an option can not be set
+     */
+    void applyTo(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SocketConfig that = (SocketConfig) o;
+
+        if (port != that.port) return false;
+        if (timeOut != that.timeOut) return false;
+        if (pipelined != that.pipelined) return false;
+        if (nio != that.nio) return false;
+        if (framed != that.framed) return false;
+        if (minConnectionsPerHost != that.minConnectionsPerHost) return false;
+        if (maxConnectionsPerHost != that.maxConnectionsPerHost) return false;
+        if (maxConnections != that.maxConnections) return false;
+        if (idleTimeOut != that.idleTimeOut) return false;
+        if (tcpNoDelay != that.tcpNoDelay) return false;
+        if (keepAlive != that.keepAlive) return false;
+        if (sendBufferSize != that.sendBufferSize) return false;
+        if (receiveBufferSize != that.receiveBufferSize) return false;
+        if (coalescingWindow != that.coalescingWindow) return false;
+        if (responseCacheSize != that.responseCacheSize) return false;
+        if (singleFlight != that.singleFlight) return false;
+        if (ioExecutor != null ? !ioExecutor.equals(that.ioExecutor) : that.ioExecutor != null) return false;
+        if (virtualThreads != that.virtualThreads) return false;
+        if (callbackExecutor != null ? !callbackExecutor.equals(that.callbackExecutor) : that.callbackExecutor != null)
+            return false;
+        if (metricsListener != null ? !metricsListener.equals(that.metricsListener) : that.metricsListener != null)
+            return false;
+        if (maxRequestsPerHost != that.maxRequestsPerHost) return false;
+        if (maxQueuedPerHost != that.maxQueuedPerHost) return false;
+        if (overflowPolicy != that.overflowPolicy) return false;
+        if (adaptiveLimit != that.adaptiveLimit) return false;
+        if (maxRetries != that.maxRetries) return false;
+        if (retryBackoff != that.retryBackoff) return false;
+        if (maxRetryBackoff != that.maxRetryBackoff) return false;
+        if (circuitBreakerThreshold != that.circuitBreakerThreshold) return false;
+        if (circuitBreakerCooldown != that.circuitBreakerCooldown) return false;
+        return codec != null ? codec.equals(that.codec) : that.codec == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = port;
+        result = 31 * result + timeOut;
+        result = 31 * result + (pipelined ? 1 : 0);
+        result = 31 * result + (nio ? 1 : 0);
+        result = 31 * result + (framed ? 1 : 0);
+        result = 31 * result + (codec != null ? codec.hashCode() : 0);
+        result = 31 * result + minConnectionsPerHost;
+        result = 31 * result + maxConnectionsPerHost;
+        result = 31 * result + maxConnections;
+        result = 31 * result + idleTimeOut;
+        result = 31 * result + (tcpNoDelay ? 1 : 0);
+        result = 31 * result + (keepAlive ? 1 : 0);
+        result = 31 * result + sendBufferSize;
+        result = 31 * result + receiveBufferSize;
+        result = 31 * result + coalescingWindow;
+        result = 31 * result + responseCacheSize;
+        result = 31 * result + (singleFlight ? 1 : 0);
+        result = 31 * result + (ioExecutor != null ? ioExecutor.hashCode() : 0);
+        result = 31 * result + (virtualThreads ? 1 : 0);
+        result = 31 * result + (callbackExecutor != null ? callbackExecutor.hashCode() : 0);
+        result = 31 * result + (metricsListener != null ? metricsListener.hashCode() : 0);
+        result = 31 * result + maxRequestsPerHost;
+        result = 31 * result + maxQueuedPerHost;
+        result = 31 * result + overflowPolicy;
+        result = 31 * result + (adaptiveLimit ? 1 : 0);
+        result = 31 * result + maxRetries;
+        result = 31 * result + retryBackoff;
+        result = 31 * result + maxRetryBackoff;
+        result = 31 * result + circuitBreakerThreshold;
+        result = 31 * result + circuitBreakerCooldown;
+        return result;
+    }
+}
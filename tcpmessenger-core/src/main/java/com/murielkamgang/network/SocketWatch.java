@@ -0,0 +1,123 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guard of the blocking I/O done by one thread on a socket, borrowed by one request at a time and reused.
+ * <p>
+ * <p>The thread {@link #arm(Socket, long, Future)} it before using the socket and {@link #disarm()} it after, or
+ * {@link #rethrow(IOException)} if the I/O failed. In
+ * between the {@link Watchdog} close the socket once the deadline is passed or the future cancelled, which unblock
+ * a pending connect, write or read. The state is a generation counter with the outcome in its 2 low bits, so the
+ * watchdog can never close a socket the thread already moved on from.</p>
+ */
+class SocketWatch implements Watchdog.Watched {
+
+    private static final long IDLE = 0;
+    private static final long ARMED = 1;
+    private static final long TIMED_OUT = 2;
+    private static final long CANCELLED = 3;
+    private static final long OUTCOME = 3;
+
+    /**
+     * Generation and outcome of the current I/O
+     */
+    private final AtomicLong state = new AtomicLong();
+    /**
+     * Guarded socket, written before {@link #state} is armed
+     */
+    private Socket socket;
+    private long deadline;
+    private Future<?> future;
+    /**
+     * State set by the last {@link #arm(Socket, long, Future)}, 0 once disarmed. Only used by the borrowing thread
+     */
+    private long armed;
+    /**
+     * Outcome of the last I/O, only used by the borrowing thread
+     */
+    private long outcome;
+
+    /**
+     * Start guarding an I/O
+     *
+     * @param socket   the socket used by the I/O
+     * @param deadline {@link System#currentTimeMillis()} after which the socket is closed
+     * @param future   the future of the request, the socket is closed if it is cancelled. Can be null
+     */
+    void arm(Socket socket, long deadline, Future<?> future) {
+        this.socket = socket;
+        this.deadline = deadline;
+        this.future = future;
+        armed = ((state.get() & ~OUTCOME) + 4) | ARMED;
+        state.set(armed);
+    }
+
+    /**
+     * Stop guarding the I/O, can be called more than once
+     *
+     * @return true if the socket was not closed by the watchdog, it can then still be used
+     */
+    boolean disarm() {
+        if (armed != 0) {
+            outcome = state.compareAndSet(armed, armed & ~OUTCOME) ? IDLE : state.get() & OUTCOME;
+            armed = 0;
+            socket = null;
+            future = null;
+        }
+        return outcome == IDLE;
+    }
+
+    /**
+     * Stop guarding an I/O that failed and throw the error to report
+     *
+     * @param cause the error thrown by the I/O
+     * @throws IOException           the cause, or a {@link SocketTimeoutException} if the deadline was passed
+     * @throws CancellationException if the future was cancelled
+     */
+    void rethrow(IOException cause) throws IOException {
+        if (disarm()) {
+            throw cause;
+        }
+
+        if (outcome == CANCELLED) {
+            throw new CancellationException();
+        }
+
+        final SocketTimeoutException error = new SocketTimeoutException("request deadline exceeded");
+        error.initCause(cause);
+        throw error;
+    }
+
+    @Override
+    public void check(long now) {
+        final long current = state.get();
+        if ((current & OUTCOME) != ARMED) {
+            return;
+        }
+
+        final Socket socket = this.socket;
+        final Future<?> future = this.future;
+        final long outcome;
+        if (future != null && future.isCancelled()) {
+            outcome = CANCELLED;
+        } else if (now >= deadline) {
+            outcome = TIMED_OUT;
+        } else {
+            return;
+        }
+
+        if (socket != null && state.compareAndSet(current, (current & ~OUTCOME) | outcome)) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+        }
+    }
+}
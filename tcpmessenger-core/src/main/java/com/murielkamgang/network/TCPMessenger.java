@@ -0,0 +1,2057 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Created by kamga on 3/11/2017.
+ */
+
+/**
+ * TCPMessenger will handle the tcp communication and caching between a socket server and the Android application,
+ * but also will provide type safe response defined by user in the MainThread to facilitate UI updates.
+ * <p>
+ * <p>using {@link #getDefaultInstance()} will provide a singleton with the default port 49152</p>
+ * <p>
+ * <p>Nothing here depend on Android, outside of it callbacks are invoked by {@link SocketConfig#callbackExecutor}
+ * or right away on the I/O thread.</p>
+ */
+public class TCPMessenger {
+
+    /**
+     * TCPMessenger instances cache per {@link SocketConfig}
+     */
+    private static final ConcurrentHashMap<SocketConfig, TCPMessenger> instanceCache = new ConcurrentHashMap<>();
+    /**
+     * {@link SocketConfig} default instance with the default port and default time out
+     * <p>
+     * <p>{@link SocketConfig} to changes those values</p>
+     */
+    private static final SocketConfig defaultSocketConfig = new SocketConfig(Constant.TCP_PORT, Constant.DEFAULT_TIME_OUT);
+
+    /**
+     * Of course our logger
+     */
+    private final Logger logger = LoggerFactory.getLogger(TCPMessenger.class);
+
+    /**
+     * Record of every request in flight per request id
+     */
+    private final InFlightTable inFlightTable = new InFlightTable();
+    /**
+     * Records waiting to be delivered in the handler thread, most recent first
+     */
+    private final AtomicReference<Completion> deliveries = new AtomicReference<>();
+    /**
+     * Deliver every record of {@link #deliveries}, posted to {@link #callbackExecutor} once each time the list stop
+     * being empty so a burst of responses is delivered with one message
+     */
+    private final Runnable deliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            drainDeliveries();
+        }
+    };
+    /**
+     * Socket config on this instance
+     */
+    private final SocketConfig socketConfig;
+    /**
+     * Socket client pool
+     */
+    private final ConnectionPool connectionPool;
+    /**
+     * Executor running the blocking I/O, {@link SocketConfig#ioExecutor}, {@link #executorService} or the one
+     * shared by every instance
+     */
+    private final Executor ioExecutor;
+    /**
+     * ExecutorService of the virtual threads owned by this instance, null if not used
+     */
+    private final ExecutorService executorService;
+    /**
+     * Executor where callback will be invoke, {@link SocketConfig#callbackExecutor} or the main thread on Android
+     */
+    private final Executor callbackExecutor;
+    /**
+     * Flag set once this instance is shutdown
+     */
+    private volatile boolean shutdown;
+    /**
+     * Pipelined connections per ip, only used when {@link SocketConfig#pipelined} is enabled
+     */
+    private final ConcurrentHashMap<String, PipelinedConnection> pipelinedConnections = new ConcurrentHashMap<>();
+    /**
+     * Connects of pipelined connections in progress per ip, a host has at most one and the other callers wait for it
+     */
+    private final ConcurrentHashMap<String, RequestFuture<PipelinedConnection>> pipelinedConnects =
+            new ConcurrentHashMap<>();
+    /**
+     * Listener receiving responses from {@link PipelinedConnection} reader threads and {@link NioTransport}
+     */
+    private final ResponseListener responseListener = new ResponseListener() {
+        @Override
+        public void onResponse(Request request, Object response) {
+            dispatchResult(request, response, null);
+        }
+
+        @Override
+        public void onError(Request request, Throwable throwable) {
+            dispatchResult(request, null, throwable);
+        }
+
+        @Override
+        public void onPush(String ip, Object message) {
+            dispatchPush(ip, message);
+        }
+    };
+
+    /**
+     * Codec used to encode commands and decode responses, {@link SocketConfig#codec} or a {@link JsonCodec}
+     */
+    private final Codec codec;
+    /**
+     * Pool of frame buffers shared by every instance, only used when {@link SocketConfig#framed} is enabled
+     */
+    private final BufferPool bufferPool = SharedResources.bufferPool();
+    /**
+     * Frame output streams borrowed per request, only used when {@link SocketConfig#framed} is enabled or commands
+     * are batched
+     */
+    private final ObjectPool<FrameOutputStream> frameOutputStreams = new ObjectPool<FrameOutputStream>() {
+        @Override
+        protected FrameOutputStream create() {
+            return new FrameOutputStream();
+        }
+    };
+    /**
+     * Streams measuring the time to first byte borrowed per request, only used when
+     * {@link SocketConfig#metricsListener} is set
+     */
+    private final ObjectPool<MeteredInputStream> meteredInputStreams = new ObjectPool<MeteredInputStream>() {
+        @Override
+        protected MeteredInputStream create() {
+            return new MeteredInputStream();
+        }
+    };
+    /**
+     * Watchdog aborting the blocking I/O of requests past their deadline or cancelled
+     */
+    private final Watchdog watchdog = new Watchdog();
+    /**
+     * Guards of the blocking I/O not in use, registered to the {@link #watchdog} once created. Borrowed per request
+     * rather than per thread, so one virtual thread per request does not register a guard each
+     */
+    private final ConcurrentLinkedQueue<SocketWatch> idleWatches = new ConcurrentLinkedQueue<>();
+    /**
+     * {@link SocketConfig#metricsListener}, null if disabled
+     */
+    private final MetricsListener metricsListener;
+    /**
+     * Scheduler of the requests, null if {@link SocketConfig#maxRequestsPerHost} is 0
+     */
+    private final RequestScheduler requestScheduler;
+    /**
+     * Circuit breaker of the devices, null if {@link SocketConfig#circuitBreakerThreshold} is 0
+     */
+    private final CircuitBreaker circuitBreaker;
+    /**
+     * Random source of the retry backoffs
+     */
+    private final Random random = new Random();
+    /**
+     * Coalescer gathering the commands sent within {@link SocketConfig#coalescingWindow}, null if disabled
+     */
+    private final CommandCoalescer commandCoalescer;
+    /**
+     * Cache of responses, null if {@link SocketConfig#responseCacheSize} is 0
+     */
+    private final ResponseCache responseCache;
+    /**
+     * Commands in flight per key, used when {@link SocketConfig#singleFlight} is enabled or by requests sharing a
+     * queued request with {@link SocketConfig#OVERFLOW_COALESCE}
+     */
+    private final HashMap<CommandKey, Flight> flights = new HashMap<>();
+    /**
+     * Streams and subscriptions not done yet, cancelled on shutdown
+     */
+    private final Set<ResponseStream<?>> streams =
+            Collections.newSetFromMap(new ConcurrentHashMap<ResponseStream<?>, Boolean>());
+    /**
+     * Push listeners per device ip
+     */
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<PushRegistration<?>>> pushListeners =
+            new ConcurrentHashMap<>();
+    /**
+     * Reopen the connection of every device with a push listener once it was closed, registered to the
+     * {@link #watchdog} with the first push listener
+     */
+    private final Watchdog.Watched pushKeeper = new Watchdog.Watched() {
+
+        private long lastCheck;
+
+        @Override
+        public void check(long now) {
+            if (now - lastCheck < Constant.PUSH_CHECK_INTERVAL) {
+                return;
+            }
+
+            lastCheck = now;
+            for (String ip : pushListeners.keySet()) {
+                listen(ip);
+            }
+        }
+    };
+    /**
+     * Non blocking transport, lazily created and only used when {@link SocketConfig#nio} is enabled
+     */
+    private NioTransport nioTransport;
+
+    /**
+     * Private constructor use {@link #getInstance} to get an instance of this
+     *
+     * @param socketConfig the socket config of this instance
+     */
+    private TCPMessenger(SocketConfig socketConfig) {
+        this.socketConfig = socketConfig;
+        executorService = socketConfig.ioExecutor == null && socketConfig.virtualThreads
+                ? newVirtualThreadExecutor() : null;
+        ioExecutor = socketConfig.ioExecutor != null ? socketConfig.ioExecutor : executorService != null
+                ? executorService : SharedResources.ioExecutor();
+        callbackExecutor = socketConfig.callbackExecutor != null ? socketConfig.callbackExecutor
+                : CallbackExecutors.platformDefault();
+        metricsListener = socketConfig.metricsListener;
+        connectionPool = new ConnectionPool(socketConfig);
+        codec = socketConfig.codec != null ? socketConfig.codec : SharedResources.jsonCodec();
+        checkCodec();
+        responseCache = socketConfig.responseCacheSize > 0 ? new ResponseCache(socketConfig.responseCacheSize) : null;
+        circuitBreaker = socketConfig.circuitBreakerThreshold > 0
+                ? new CircuitBreaker(socketConfig.circuitBreakerThreshold, socketConfig.circuitBreakerCooldown) : null;
+        commandCoalescer = socketConfig.coalescingWindow <= 0 ? null
+                : new CommandCoalescer(socketConfig.coalescingWindow, new CommandCoalescer.Sink() {
+            @Override
+            public void send(List<Call> calls) {
+                try {
+                    enqueueBatch(calls);
+                } catch (RuntimeException e) {//shutdown in the meantime
+                    failAll(calls, e);
+                }
+            }
+        });
+        //requests hold an I/O thread only when handed to the executor one by one, virtual threads are not bounded
+        requestScheduler = socketConfig.maxRequestsPerHost <= 0 ? null
+                : new RequestScheduler(socketConfig,
+                socketConfig.nio || commandCoalescer != null || executorService != null ? 0
+                        : Constant.IO_THREAD_COUNT, new RequestScheduler.Sink() {
+            @Override
+            public void dispatch(Completion completion) {
+                enqueueCommand(completion);
+            }
+
+            @Override
+            public void reject(Completion completion, RuntimeException error) {
+                dispatchResult(completion.request, null, error);
+            }
+
+            @Override
+            public void overflow(Completion completion, IOException error) {
+                completion.scheduled = false;//never got a slot
+                dispatchResult(completion.request, null, error);
+            }
+
+            @Override
+            public CommandKey keyOf(Completion completion) {
+                if (completion.commandKey == null) {
+                    completion.commandKey = completion.cacheKey != null ? completion.cacheKey
+                            : commandKeyFor(completion.request, completion.responseClass);
+                }
+                return completion.commandKey;
+            }
+        });
+    }
+
+    /**
+     * Get the default instance with default socket config {@link #defaultSocketConfig}
+     *
+     * @return the TCPMessenger instance with construct with {@link #defaultSocketConfig}
+     */
+    public static TCPMessenger getDefaultInstance() {
+        return getInstance(defaultSocketConfig);
+    }
+
+    /**
+     * @param socketConfig the socketConfig for the instance
+     * @return the TCPMessenger, if instance was already created a new one wont be created unless that instance
+     * is release with {@link #releaseInstance(TCPMessenger)}
+     * <p>
+     * <p>Creating an instance is cheap: threads, buffers and the default codec are shared by every instance and
+     * started on first use, see {@link #warmUp(List, Class[])} to prepare them ahead of the first request</p>
+     */
+    public static TCPMessenger getInstance(SocketConfig socketConfig) {
+        final TCPMessenger tcpMessenger = instanceCache.get(socketConfig);
+        if (tcpMessenger != null) {
+            return tcpMessenger;
+        }
+
+        //nothing is started by the constructor, the instance losing a race is just dropped
+        final TCPMessenger created = new TCPMessenger(socketConfig);
+        final TCPMessenger previous = instanceCache.putIfAbsent(socketConfig, created);
+        return previous != null ? previous : created;
+    }
+
+    /**
+     * Release any previously initialized TCPMessenger instance
+     *
+     * @param tcpMessenger the instance to be released
+     *                           <p>please note that if instance is released it cant be used anymore</p>
+     */
+    public static void releaseInstance(TCPMessenger tcpMessenger) {
+        instanceCache.remove(tcpMessenger.getSocketConfig(), tcpMessenger);
+        tcpMessenger.shutdown();
+    }
+
+    /**
+     * Get this instance socketConfig
+     *
+     * @return the socketConfig of this
+     */
+    private SocketConfig getSocketConfig() {
+        return socketConfig;
+    }
+
+    /**
+     * @return a guard of the blocking I/O of a request, to be given back to {@link #idleWatches} once disarmed
+     */
+    private SocketWatch acquireWatch() {
+        SocketWatch watch = idleWatches.poll();
+        if (watch == null) {
+            watch = new SocketWatch();
+            watchdog.watch(watch);
+        }
+        return watch;
+    }
+
+    /**
+     * @return true if the blocking I/O of this instance run on a virtual thread per request, per thread caches are
+     * then never reused
+     */
+    boolean usesVirtualThreads() {
+        return executorService != null;
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task, looked up by reflection as they need Java 21
+     *
+     * @return the executor, or null if virtual threads are not available
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("virtual threads not available, using a thread pool", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Send a request to a specific device
+     *
+     * @param request           the request
+     * @param responseClass the response class object expected
+     * @param callback      the callback to be invoked, can be null if only the future is used
+     * @param <T>           Type of the object expected
+     * @return return a future of this request, done once the response or error is known
+     */
+    public <T> RequestFuture<T> sendCommand(final Request request, Class<T> responseClass, final Callback<T> callback) {
+        checkCommand(request);
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("command received {}", request);
+        }
+
+        final boolean cacheable = responseCache != null && request.cacheTtl > 0;
+        final CommandKey key = cacheable || socketConfig.singleFlight ? commandKeyFor(request, responseClass) : null;
+        final RequestFuture<T> future = new RequestFuture<>();
+        final Completion completion = Completion.obtain(this, request, responseClass, callback, future);
+        if (key != null && cacheable) {
+            final Object cached = responseCache.get(key);
+            if (cached != null) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("serving cached response for {}", request);
+                }
+                complete(completion, cached, null);
+                return future;
+            }
+            completion.cacheKey = key;
+        }
+
+        if (key != null && socketConfig.singleFlight) {
+            synchronized (flights) {
+                final Flight flight = flights.get(key);
+                if (flight != null) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("joining command in flight for {}", request);
+                    }
+                    flight.followers.add(completion);
+                    return future;
+                }
+                flights.put(key, new Flight());
+                completion.flightKey = key;
+            }
+        } else if (requestScheduler != null && socketConfig.overflowPolicy == SocketConfig.OVERFLOW_COALESCE
+                && requestScheduler.isFull(request.ip)
+                && joinQueued(completion, key != null ? key : commandKeyFor(request, responseClass))) {
+            return future;
+        }
+
+        start(completion);
+        try {
+            if (requestScheduler != null) {
+                checkShutdown();
+                requestScheduler.submit(completion);
+            } else {
+                enqueueCommand(completion);
+            }
+        } catch (RuntimeException e) {
+            inFlightTable.remove(completion.id);
+            if (metricsListener != null) {
+                metricsListener.onRequestEnd(request.ip, System.nanoTime() - completion.startedAt, e);
+            }
+            if (completion.flightKey != null) {
+                completeFlight(completion.flightKey, null, e);
+            }
+            completion.recycle();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Send a request to a specific device without callback, the future is completed on the I/O thread that read
+     * the response so requests can be chained without going through the callback executor, see
+     * {@link RequestFuture#flatMap(RequestFuture.AsyncFunction)}
+     *
+     * @param request       the request
+     * @param responseClass the response class object expected
+     * @param <T>           Type of the object expected
+     * @return a future of this request
+     */
+    public <T> RequestFuture<T> sendAsync(Request request, Class<T> responseClass) {
+        return sendCommand(request, responseClass, null);
+    }
+
+    /**
+     * Send a request whose response is an array too big to be held in memory, each element is delivered to the
+     * callback as soon as it is parsed
+     * <p>
+     * <p>The device is expected to answer with an array, or in framed mode ({@link SocketConfig#framed}) with one
+     * frame per element followed by an empty frame. The request is sent as a plain command on a socket of its own
+     * whatever the pipelined or non blocking mode, the socket time out ({@link Request#timeOut} if set) bound the
+     * wait for each element.</p>
+     * <p>
+     * <p>At most {@link Constant#STREAM_WINDOW} elements are read ahead of the callback, past that the reading
+     * pause until the callback caught up, which slow the device down through the tcp flow control.</p>
+     *
+     * @param request      the request
+     * @param elementClass the class of the elements expected
+     * @param callback     the callback to be invoked for each element then once the stream ended, weakly held
+     * @param <T>          Type of the elements expected
+     * @return a future done once every element was delivered, cancelling it close the stream
+     */
+    public <T> RequestFuture<Void> sendStream(Request request, Class<T> elementClass, StreamCallback<T> callback) {
+        return openStream(request, elementClass, callback, false);
+    }
+
+    /**
+     * Send a request then deliver each message pushed by the device, until the device close the connection or the
+     * returned future is cancelled
+     * <p>
+     * <p>Every message is a root value, or a frame in framed mode ({@link SocketConfig#framed}). The subscription
+     * has a connection of its own, outside of the connection pool, and never time out while waiting for a message.
+     * Messages are read ahead of the callback like {@link #sendStream(Request, Class, StreamCallback)} does.</p>
+     *
+     * @param request      the request subscribing to the messages
+     * @param messageClass the class of the messages expected
+     * @param callback     the callback to be invoked for each message then once the subscription ended, weakly
+     *                     held and the subscription is cancelled once it is garbage collected
+     * @param <T>          Type of the messages expected
+     * @return a future done once the device closed the connection, cancelling it close the subscription
+     */
+    public <T> RequestFuture<Void> subscribe(Request request, Class<T> messageClass, StreamCallback<T> callback) {
+        return openStream(request, messageClass, callback, true);
+    }
+
+    /**
+     * Start the reader thread of a stream or subscription
+     *
+     * @param request      the request
+     * @param elementClass the class of the elements expected
+     * @param callback     the callback
+     * @param subscription true for {@link #subscribe(Request, Class, StreamCallback)}
+     * @param <T>          Type of the elements expected
+     * @return the future of the stream
+     */
+    private <T> RequestFuture<Void> openStream(Request request, Class<T> elementClass, StreamCallback<T> callback,
+                                               boolean subscription) {
+        checkCommand(request);
+        if (callback == null) {
+            throw new NullPointerException("callback cannot be null");
+        }
+        checkShutdown();
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("{} received {}", subscription ? "subscription" : "stream", request);
+        }
+
+        final ResponseStream<T> stream = new ResponseStream<>(request, elementClass, callback, subscription,
+                deadlineOf(request), socketConfig, codec, bufferPool, connectionPool, callbackExecutor);
+        streams.add(stream);
+        stream.getFuture().addListener(new RequestFuture.Listener<Void>() {
+            @Override
+            public void onResponse(Void response) {
+                streams.remove(stream);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                streams.remove(stream);
+            }
+        });
+        stream.start();
+        return stream.getFuture();
+    }
+
+    /**
+     * Add a listener of the messages pushed by a device, the connection to the device is opened and kept open as
+     * long as it has a listener so messages are read as soon as they arrive, instead of polling
+     * <p>
+     * <p>Needs {@link SocketConfig#pipelined}: responses are matched to their request through the envelope id and a
+     * message without id is a pushed message, see {@link PipelinedConnection}. In framed mode a pushed message has
+     * the request id {@link Constant#PUSH_ID}. A closed connection is opened again within
+     * {@link Constant#PUSH_CHECK_INTERVAL}.</p>
+     *
+     * @param ip           the device ip
+     * @param messageClass the class the messages are decoded to, a message that can not be decoded is dropped
+     * @param listener     the listener, invoked by the callback executor
+     * @param <T>          Type of the messages expected
+     * @throws IllegalStateException if this instance is not in pipelined mode or was shutdown
+     */
+    public <T> void addPushListener(String ip, Class<T> messageClass, PushListener<T> listener) {
+        if (ip == null || messageClass == null || listener == null) {
+            throw new NullPointerException("ip, messageClass or listener cannot be null");
+        }
+        if (!socketConfig.pipelined) {
+            throw new IllegalStateException("pushed messages need SocketConfig.pipelined");
+        }
+        checkShutdown();
+
+        CopyOnWriteArrayList<PushRegistration<?>> registrations = pushListeners.get(ip);
+        if (registrations == null) {
+            final CopyOnWriteArrayList<PushRegistration<?>> created = new CopyOnWriteArrayList<>();
+            registrations = pushListeners.putIfAbsent(ip, created);
+            if (registrations == null) {
+                registrations = created;
+            }
+        }
+        registrations.add(new PushRegistration<>(messageClass, listener));
+        watchdog.watch(pushKeeper);//no op if already watched
+        listen(ip);
+    }
+
+    /**
+     * Remove a listener added with {@link #addPushListener(String, Class, PushListener)}, the connection can then
+     * be closed once idle if the device has no other listener
+     *
+     * @param ip       the device ip
+     * @param listener the listener
+     */
+    public void removePushListener(String ip, PushListener<?> listener) {
+        final CopyOnWriteArrayList<PushRegistration<?>> registrations = pushListeners.get(ip);
+        if (registrations == null) {
+            return;
+        }
+
+        for (PushRegistration<?> registration : registrations) {
+            if (registration.listener == listener) {
+                registrations.remove(registration);
+            }
+        }
+        if (registrations.isEmpty() && pushListeners.remove(ip, registrations)) {
+            final PipelinedConnection connection = pipelinedConnections.get(ip);
+            if (connection != null) {
+                connection.setListening(false);
+            }
+        }
+    }
+
+    /**
+     * Open the connection to a device with push listeners if it is not open
+     *
+     * @param ip the device ip
+     */
+    private void listen(final String ip) {
+        if (shutdown) {
+            return;
+        }
+
+        if (socketConfig.nio) {
+            getNioTransport().listen(ip);
+            return;
+        }
+
+        final PipelinedConnection connection = pipelinedConnections.get(ip);
+        if (connection != null && connection.isOpen()) {
+            connection.setListening(true);
+            return;
+        }
+
+        ioExecutor.execute(new Runnable() {//the connect is blocking
+            @Override
+            public void run() {
+                try {
+                    getPipelinedConnectionFor(ip);
+                } catch (IOException | RuntimeException e) {//shutdown in the meantime
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("could not open connection to listen to ip {}", ip, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Decode a pushed message for each listener of the device and queue them to the callback executor
+     *
+     * @param ip      the device ip
+     * @param message the message, see {@link ResponseListener#onPush(String, Object)}
+     */
+    private void dispatchPush(final String ip, Object message) {
+        final CopyOnWriteArrayList<PushRegistration<?>> registrations = pushListeners.get(ip);
+        if (registrations == null) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("dropping pushed message without listener from ip {}", ip);
+            }
+            return;
+        }
+
+        for (final PushRegistration<?> registration : registrations) {
+            final Object decoded;
+            try {
+                if (message instanceof byte[]) {
+                    final byte[] bytes = (byte[]) message;
+                    decoded = codec.decode(bytes, 0, bytes.length, registration.messageClass);
+                } else {
+                    decoded = ((JacksonCodec) codec).decode((JsonNode) message, registration.messageClass);
+                }
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("dropping pushed message from ip {}", ip, e);
+                }
+                continue;
+            }
+
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        registration.deliver(ip, decoded);
+                    } catch (RuntimeException e) {//must not break the reader thread with a direct executor
+                        logger.error("push listener failed for ip {}", ip, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Put a request in the in flight table, from then its result is expected through
+     * {@link #dispatchResult(Request, Object, Throwable)}
+     *
+     * @param completion the record of the request
+     */
+    private void start(Completion completion) {
+        completion.deadline = deadlineOf(completion.request);
+        if (metricsListener != null) {
+            completion.startedAt = System.nanoTime();
+            metricsListener.onRequestStart(completion.request.ip);
+        }
+        inFlightTable.put(completion);
+    }
+
+    /**
+     * @param request the request
+     * @return {@link System#currentTimeMillis()} after which the request fail with a time out, {@link Long#MAX_VALUE}
+     * if it has no time out
+     */
+    private long deadlineOf(Request request) {
+        final int timeOut = request.timeOut > 0 ? request.timeOut : socketConfig.timeOut;
+        return timeOut > 0 ? System.currentTimeMillis() + timeOut : Long.MAX_VALUE;
+    }
+
+    /**
+     * Share the response of a request with the same command, in flight or still queued, rather than overflow the
+     * full queue of the host, see {@link SocketConfig#OVERFLOW_COALESCE}
+     *
+     * @param completion the record of the request sent while the queue of its host is full
+     * @param key        the key of its command, null if it can not be shared
+     * @return true if the request joined another one, false if it is to be submitted and overflow
+     */
+    private boolean joinQueued(Completion completion, CommandKey key) {
+        if (key == null) {
+            return false;
+        }
+
+        synchronized (flights) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                if (requestScheduler.lead(completion.request.ip, key) == null) {
+                    return false;
+                }
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("joining queued command for {}", completion.request);
+            }
+            flight.followers.add(completion);
+            return true;
+        }
+    }
+
+    /**
+     * @param completion the record of the request
+     * @return true if the request lead a flight in single flight mode, it is then not cancelled with its own future
+     * since every request joined it from the start
+     */
+    private boolean isShared(Completion completion) {
+        return socketConfig.singleFlight && completion.flightKey != null;
+    }
+
+    /**
+     * @param completion the record of the request
+     * @return true if the request was cancelled by its caller, see {@link #isShared(Completion)}
+     */
+    private boolean isCancelled(Completion completion) {
+        return !isShared(completion) && completion.future.isCancelled();
+    }
+
+    /**
+     * @param completion the record of the request
+     * @return the future the transport check for cancellation, see {@link #isShared(Completion)}
+     */
+    private RequestFuture<?> transportFuture(Completion completion) {
+        return isShared(completion) ? new RequestFuture<>() : completion.future;
+    }
+
+    /**
+     * Enqueue the request to the I/O executor or transport
+     *
+     * @param completion the record of the request
+     * @throws IllegalStateException is thrown if this executorService was shutdown {@link #shutdown()}
+     */
+    private void enqueueCommand(Completion completion) {
+        checkShutdown();
+
+        if (circuitBreaker != null && !circuitBreaker.allow(completion.request.ip)) {
+            //never reach execute(), the I/O slot the scheduler reserved for it is released here
+            final boolean scheduled = completion.scheduled && completion.attempt == 0;
+            dispatchResult(completion.request, null,
+                    new CircuitOpenException("circuit open for ip " + completion.request.ip));
+            if (scheduled) {
+                requestScheduler.onExecuted();
+            }
+            return;
+        }
+
+        if (commandCoalescer != null || socketConfig.nio) {
+            final RequestFuture<?> future = transportFuture(completion);
+            if (commandCoalescer != null) {
+                commandCoalescer.add(new Call(completion.request, completion.responseClass, future,
+                        completion.deadline));
+            } else {
+                getNioTransport().send(completion.request, completion.responseClass, future, completion.deadline);
+            }
+            return;
+        }
+
+        ioExecutor.execute(completion);
+    }
+
+    /**
+     * @throws IllegalStateException if this instance was shutdown
+     */
+    private void checkShutdown() {
+        if (shutdown) {
+            throw new IllegalStateException("TCPMessenger is shutdown");
+        }
+    }
+
+    /**
+     * Execute a request in the executor thread, see {@link Completion#run()}
+     *
+     * @param completion the record of the request, it could be recycled as soon as the result is dispatched
+     */
+    void execute(Completion completion) {
+        final boolean scheduled = completion.scheduled && completion.attempt == 0;//a retry is not counted again
+        try {
+            doExecute(completion);
+        } finally {
+            if (scheduled) {
+                requestScheduler.onExecuted();
+            }
+        }
+    }
+
+    private void doExecute(Completion completion) {
+        final Request request = completion.request;
+        final Class<?> responseClass = completion.responseClass;
+        if (metricsListener != null) {
+            metricsListener.onQueueWait(request.ip, System.nanoTime() - completion.startedAt);
+        }
+        if (isCancelled(completion)) {
+            dispatchResult(request, null, new CancellationException());
+            return;
+        }
+        if (System.currentTimeMillis() >= completion.deadline) {//do not even take a socket
+            dispatchResult(request, null, new WaitTimeoutException("request deadline exceeded"));
+            return;
+        }
+
+        if (socketConfig.pipelined) {
+            try {
+                doSendPipelinedCommand(new Call(request, responseClass, transportFuture(completion),
+                        completion.deadline));
+            } catch (Exception e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("", e);
+                }
+
+                dispatchResult(request, null, e);
+            }
+            return;
+        }
+
+        Object response = null;
+        Throwable error = null;
+        try {
+            response = doSendCommand(request, responseClass, completion.deadline,
+                    isShared(completion) ? null : completion.future);
+        } catch (Exception e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("", e);
+            }
+
+            error = e;
+        }
+
+        dispatchResult(request, response, error);
+    }
+
+    /**
+     * Send a batch of requests to a specific device, they are written with one flush and each response is
+     * delivered to the callback as it comes back
+     * <p>
+     * <p>Without {@link SocketConfig#pipelined} nor {@link SocketConfig#nio} the batch is sent on one socket and the
+     * server is expected to answer the commands in order.</p>
+     *
+     * @param requests      the requests, all to the same ip
+     * @param responseClass the response class object expected
+     * @param callback      the callback to be invoked for each request
+     * @param <T>           Type of the object expected
+     * @return a future done once every request of the batch got its response or error, cancelling it skip the
+     * callbacks not yet invoked
+     * @throws IllegalArgumentException if requests is empty or not all to the same ip
+     */
+    public <T> RequestFuture<Void> sendBatch(List<Request> requests, Class<T> responseClass, Callback<T> callback) {
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("requests cannot be empty");
+        }
+
+        final String ip = requests.get(0).ip;
+        for (Request request : requests) {
+            checkCommand(request);
+            if (!request.ip.equals(ip)) {
+                throw new IllegalArgumentException("every request of a batch must have the same ip");
+            }
+        }
+
+        if (shutdown) {
+            throw new IllegalStateException("TCPMessenger is shutdown");
+        }
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("batch of {} commands received for ip {}", requests.size(), ip);
+        }
+
+        final BatchFuture future = new BatchFuture(requests.size());
+        final List<Call> calls = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            final Completion completion = Completion.obtain(this, request, responseClass, callback, future);
+            start(completion);
+            calls.add(new Call(request, responseClass, future, completion.deadline));
+        }
+        enqueueBatch(calls);
+        return future;
+    }
+
+    /**
+     * Send the same command to many devices, each result is delivered to the callback as it comes back
+     * <p>
+     * <p>The command is encoded once and its bytes written as is to every device. At most
+     * {@link SocketConfig#maxConnections} requests are in flight at the same time, each result send the request to
+     * the next device. With {@link SocketConfig#nio} every device is written to at once and a sweep take about one
+     * round trip, the blocking transports are bound by their thread pool.</p>
+     *
+     * @param ips           the device ips
+     * @param cmd           the command
+     * @param responseClass the response class object expected
+     * @param callback      the callback to be invoked for each device, can be null if only the future is used
+     * @param <T>           Type of the object expected
+     * @return a future done with the response or error of every device, once the last one was delivered to the
+     * callback. Cancelling it cancel the requests in flight and skip the devices not sent to yet
+     * @throws IllegalStateException is thrown if this instance was shutdown
+     */
+    public <T> RequestFuture<BroadcastResult<T>> broadcast(List<String> ips, Object cmd, Class<T> responseClass,
+                                                          Callback<T> callback) {
+        if (ips == null || cmd == null) {
+            throw new NullPointerException("ips or cmd cannot be null");
+        }
+        for (String ip : ips) {
+            if (ip == null) {
+                throw new NullPointerException("ip cannot be null");
+            }
+        }
+        checkShutdown();
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("broadcasting command {} to {} ips", cmd, ips.size());
+        }
+
+        final Broadcast<T> broadcast;
+        try {
+            broadcast = new Broadcast<>(this, new ArrayList<>(ips), EncodedCommand.of(cmd, codec), responseClass,
+                    callback, callbackExecutor);
+        } catch (IOException e) {
+            final RequestFuture<BroadcastResult<T>> future = new RequestFuture<>();
+            future.complete(null, e);
+            return future;
+        }
+        broadcast.start(Math.max(1, socketConfig.maxConnections));
+        return broadcast.getFuture();
+    }
+
+    /**
+     * Prepare this instance for its first requests, typically while the application start: build the serializers
+     * and deserializers of the given classes and open a connection to each device
+     * <p>
+     * <p>Everything runs in the background in the I/O executor. A device that can not be reached is skipped, its
+     * first request connect as usual. In non blocking mode the channels may still be connecting once the future is
+     * done.</p>
+     *
+     * @param ips   the device ips to connect to, can be empty
+     * @param types the classes of the commands and responses, only used with a {@link JacksonCodec}
+     * @return a future done once the serializers are built and every connection was tried
+     * @throws IllegalStateException is thrown if this instance was shutdown
+     */
+    public RequestFuture<Void> warmUp(List<String> ips, final Class<?>... types) {
+        if (ips == null) {
+            throw new NullPointerException("ips cannot be null");
+        }
+        checkShutdown();
+
+        final RequestFuture<Void> future = new RequestFuture<>();
+        final AtomicInteger remaining = new AtomicInteger(ips.size() + 1);
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (codec instanceof JacksonCodec) {
+                    for (Class<?> type : types) {
+                        ((JacksonCodec) codec).warmUp(type);
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    future.complete(null, null);
+                }
+            }
+        });
+        for (final String ip : new ArrayList<>(ips)) {
+            ioExecutor.execute(new Runnable() {//the connect is blocking
+                @Override
+                public void run() {
+                    preconnect(ip);
+                    if (remaining.decrementAndGet() == 0) {
+                        future.complete(null, null);
+                    }
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Open the connection of the transport in use to a device, if not open yet
+     *
+     * @param ip the device ip
+     */
+    private void preconnect(String ip) {
+        if (shutdown) {
+            return;
+        }
+
+        try {
+            if (socketConfig.nio) {
+                getNioTransport().listen(ip);
+            } else if (socketConfig.pipelined) {
+                getPipelinedConnectionFor(ip);
+            } else {
+                connectionPool.preconnect(ip, System.currentTimeMillis() + socketConfig.timeOut);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("could not connect to ip {} ahead of its requests", ip, e);
+            }
+        }
+    }
+
+    /**
+     * Enqueue a batch of requests to the same ip
+     *
+     * @param calls the requests with their expected response class and future
+     * @throws IllegalStateException is thrown if this instance was shutdown
+     */
+    private void enqueueBatch(final List<Call> calls) {
+        final String ip = calls.get(0).request.ip;
+        if (circuitBreaker != null && !circuitBreaker.allow(ip)) {
+            failAll(calls, new CircuitOpenException("circuit open for ip " + ip));
+            return;
+        }
+
+        if (socketConfig.nio) {
+            getNioTransport().sendAll(calls);
+            return;
+        }
+
+        final long queuedAt = metricsListener != null ? System.nanoTime() : 0;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (metricsListener != null) {
+                    metricsListener.onQueueWait(calls.get(0).request.ip, System.nanoTime() - queuedAt);
+                }
+                try {
+                    if (socketConfig.pipelined) {
+                        doSendPipelinedBatch(calls);
+                    } else {
+                        doSendBatch(calls);
+                    }
+                } catch (Exception e) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("", e);
+                    }
+
+                    failAll(calls, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Dispatch an error to every request of a batch not dispatched yet
+     *
+     * @param calls the requests
+     * @param error the error
+     */
+    private void failAll(List<Call> calls, Throwable error) {
+        for (Call call : calls) {
+            dispatchResult(call.request, null, error);
+        }
+    }
+
+    /**
+     * Dispatch the result of a request to its future and callback
+     *
+     * @param request  the request
+     * @param response the response, or null if something went wrong
+     * @param error    the error that occur if any
+     */
+    private void dispatchResult(Request request, Object response, Throwable error) {
+        final Completion completion = inFlightTable.remove(request.getId());
+        if (completion == null) {//already dispatched
+            return;
+        }
+
+        if (circuitBreaker != null) {
+            if (error == null) {
+                circuitBreaker.onSuccess(request.ip);
+            } else if (reachedNetwork(error)) {
+                circuitBreaker.onFailure(request.ip, error);
+            }
+        }
+        if (error != null && retry(completion, error)) {
+            return;
+        }
+
+        if (metricsListener != null) {
+            metricsListener.onRequestEnd(request.ip, System.nanoTime() - completion.startedAt, error);
+        }
+
+        if (completion.cacheKey != null && response != null) {
+            responseCache.put(completion.cacheKey, response, request.cacheTtl);
+        }
+        if (completion.flightKey != null) {
+            completeFlight(completion.flightKey, response, error);
+        }
+        final boolean scheduled = completion.scheduled;
+        final long dispatchedAt = completion.dispatchedAt;
+        complete(completion, response, error);
+        if (scheduled) {
+            requestScheduler.onDone(request.ip, dispatchedAt, error);
+        }
+    }
+
+    /**
+     * Send a request again after a backoff if it is idempotent and failed to reach its device, see
+     * {@link SocketConfig#maxRetries}
+     *
+     * @param completion the record of the request, already removed from the in flight table
+     * @param error      the error of the last attempt
+     * @return true if the request will be sent again, its result must not be dispatched
+     */
+    private boolean retry(final Completion completion, Throwable error) {
+        if (completion.attempt >= socketConfig.maxRetries || !completion.request.idempotent
+                || !isConnectionError(error) || shutdown
+                || isCancelled(completion)) {
+            return false;
+        }
+
+        //full jitter: requests failing together, after a network blip, are spread over the whole backoff
+        final long backoff = Math.min((long) socketConfig.retryBackoff << completion.attempt,
+                socketConfig.maxRetryBackoff);
+        final long delay = (long) (random.nextDouble() * backoff);
+        if (System.currentTimeMillis() + delay >= completion.deadline) {
+            return false;
+        }
+
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("retrying {} in {}ms after {}", completion.request, delay, error);
+        }
+
+        completion.attempt++;
+        inFlightTable.put(completion);
+        final Runnable resend = new Runnable() {
+            @Override
+            public void run() {
+                if (completion.dispatchedAt != 0) {//the backoff is not latency of the device
+                    completion.dispatchedAt = System.nanoTime();
+                }
+                try {
+                    enqueueCommand(completion);
+                } catch (RuntimeException e) {//shutdown in the meantime
+                    dispatchResult(completion.request, null, e);
+                }
+            }
+        };
+        try {
+            SharedResources.timer().schedule(resend, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {//shutdown in the meantime
+            inFlightTable.remove(completion.id);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param error the error of a request
+     * @return true if the request failed to reach its device and can be sent again, false if the device answered
+     * or the request is over (time out, cancelled, circuit open...)
+     */
+    private static boolean isConnectionError(Throwable error) {
+        return error instanceof SocketException || error instanceof EOFException;
+    }
+
+    /**
+     * @param error the error of a request
+     * @return true if the request failed on a socket (connect, write or read), false if it failed before reaching
+     * the network, those errors say nothing about the device
+     */
+    private static boolean reachedNetwork(Throwable error) {
+        return (isConnectionError(error) || error instanceof SocketTimeoutException)
+                && !(error instanceof WaitTimeoutException);
+    }
+
+    /**
+     * Deliver the result of a request to every request that joined it in single flight mode
+     *
+     * @param key      the key of the flight
+     * @param response the response, or null if something went wrong
+     * @param error    the error that occur if any
+     */
+    private void completeFlight(CommandKey key, Object response, Throwable error) {
+        final Flight flight;
+        synchronized (flights) {
+            flight = flights.remove(key);
+        }
+
+        if (flight == null) {//shutdown in the meantime
+            return;
+        }
+
+        for (Completion follower : flight.followers) {
+            complete(follower, response, error);
+        }
+    }
+
+    /**
+     * Complete the future of a request and queue its callback to be invoked by the callback executor
+     *
+     * @param completion the record of the request, recycled once done
+     * @param response   the response, or null if something went wrong
+     * @param error      the error that occur if any
+     */
+    private void complete(Completion completion, Object response, Throwable error) {
+        final RequestFuture<?> future = completion.future;
+        if (future instanceof BatchFuture) {
+            ((BatchFuture) future).countDown();
+        } else {
+            @SuppressWarnings("unchecked")//the response is of the class the future was created for
+            final RequestFuture<Object> typed = (RequestFuture<Object>) future;
+            typed.complete(response, error);
+        }
+
+        if (future.isCancelled() || completion.callback == null || completion.callback.get() == null) {
+            completion.recycle();
+            return;
+        }
+
+        completion.response = response;
+        completion.error = error;
+        Completion head;
+        do {
+            head = deliveries.get();
+            completion.next = head;
+        } while (!deliveries.compareAndSet(head, completion));
+
+        if (head == null) {//a delivery task is already posted otherwise
+            callbackExecutor.execute(deliveryTask);
+        }
+    }
+
+    /**
+     * Fail a request dropped by {@link #shutdown()}. An I/O thread may still hold its record, so a copy is completed
+     * and recycled instead
+     *
+     * @param completion the record of the request, already removed from the in flight table
+     * @param error      the error to fail the request with
+     */
+    private void failDropped(Completion completion, Throwable error) {
+        final Callback<?> callback = completion.callback != null ? completion.callback.get() : null;
+        complete(Completion.obtain(this, completion.request, completion.responseClass, callback, completion.future),
+                null, error);
+    }
+
+    /**
+     * Invoke the callback of every record queued for delivery, in the order they were queued. A callback throwing is
+     * logged, with {@link CallbackExecutors#direct()} it would otherwise break the I/O thread that read the response
+     */
+    private void drainDeliveries() {
+        Completion completion = deliveries.getAndSet(null);
+        Completion ordered = null;
+        while (completion != null) {//reverse the list, oldest first
+            final Completion next = completion.next;
+            completion.next = ordered;
+            ordered = completion;
+            completion = next;
+        }
+
+        while (ordered != null) {
+            final Completion next = ordered.next;
+            @SuppressWarnings("unchecked")//the response is of the class the callback was sent with
+            final Callback<Object> callback = (Callback<Object>) ordered.callback.get();
+            try {
+                if (callback == null) {
+                    continue;
+                }
+
+                if (ordered.response != null) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("dispatching response {}", ordered.response);
+                    }
+                    callback.onResponse(ordered.request, ordered.response);
+                } else {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("dispatching error {}", ordered.error);
+                    }
+                    callback.onError(ordered.request, ordered.error);
+                }
+            } catch (RuntimeException e) {//must not break the I/O thread running a direct executor, nor the others
+                logger.error("callback failed for {}", ordered.request, e);
+            } finally {
+                ordered.recycle();
+                ordered = next;
+            }
+        }
+    }
+
+    /**
+     * Execute the request in pipelined mode, the response will be dispatched by the {@link PipelinedConnection}
+     * reader thread through {@link #responseListener}
+     *
+     * @param call the request with its expected response class, future and deadline
+     * @throws IOException if the request could not be written
+     */
+    private void doSendPipelinedCommand(Call call) throws IOException {
+        final Request request = call.request;
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("doSendPipelinedCommand for {}", request);
+        }
+
+        if (!getPipelinedConnectionFor(request.ip).send(call)) {
+            //connection was closed in the meantime (idle time out), nothing was written so try once more
+            if (!getPipelinedConnectionFor(request.ip).send(call)) {
+                throw new SocketException("connection closed");
+            }
+        }
+    }
+
+    /**
+     * Execute a batch of requests in pipelined mode, see {@link #doSendPipelinedCommand(Call)}
+     *
+     * @param calls the requests with their expected response class
+     * @throws IOException if the requests could not be written
+     */
+    private void doSendPipelinedBatch(List<Call> calls) throws IOException {
+        final Request first = calls.get(0).request;
+        if (!getPipelinedConnectionFor(first.ip).sendAll(calls)) {
+            if (!getPipelinedConnectionFor(first.ip).sendAll(calls)) {
+                throw new SocketException("connection closed");
+            }
+        }
+    }
+
+    /**
+     * Execute a batch of requests on one socket: every command is written with one flush then the responses are
+     * read in the same order. The socket is held until the latest deadline of the batch at most
+     *
+     * @param calls the requests with their expected response class
+     */
+    private void doSendBatch(List<Call> calls) throws IOException {
+        final String ip = calls.get(0).request.ip;
+        final long now = System.currentTimeMillis();
+        final List<Call> live = new ArrayList<>(calls.size());
+        long deadline = 0;
+        for (Call call : calls) {
+            if (call.future.isCancelled()) {
+                dispatchResult(call.request, null, new CancellationException());
+            } else if (now >= call.deadline) {
+                dispatchResult(call.request, null, new WaitTimeoutException("request deadline exceeded"));
+            } else {
+                live.add(call);
+                deadline = Math.max(deadline, call.deadline);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+
+        final Socket client = connectionPool.acquire(ip, deadline);
+        final SocketWatch watch = acquireWatch();
+        watch.arm(client, deadline, null);
+        boolean reusable = false;
+        final FrameOutputStream out = frameOutputStreams.acquire();
+        try {
+            out.reset();
+            final List<Call> written = new ArrayList<>(live.size());
+            JsonGenerator generator = null;
+            for (Call call : live) {
+                final int size = out.size();
+                try {
+                    if (socketConfig.framed) {
+                        out.next();
+                        EncodedCommand.write(codec, call.request.cmd, out);
+                        out.finish();
+                    } else {
+                        if (generator == null) {
+                            generator = ((JacksonCodec) codec).getObjectMapper().getFactory().createGenerator(out);
+                        }
+                        ((JacksonCodec) codec).encode(call.request.cmd, generator);
+                        generator.flush();
+                    }
+                } catch (IOException e) {
+                    out.truncate(size);
+                    generator = null;//could be left in the middle of a value
+                    dispatchResult(call.request, null, e);
+                    continue;
+                }
+                written.add(call);
+            }
+
+            if (!written.isEmpty()) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("writing batch of {} commands to server", written.size());
+                }
+                out.writeFrameTo(client.getOutputStream());
+                client.getOutputStream().flush();
+                client.setSoTimeout(ConnectionPool.timeOutUntil(deadline));
+                readBatch(client, written);
+            }
+            reusable = watch.disarm();
+        } catch (IOException e) {
+            watch.rethrow(e);
+        } finally {
+            frameOutputStreams.release(out);
+            watch.disarm();
+            idleWatches.offer(watch);
+            if (reusable) {
+                connectionPool.release(ip, client);
+            } else {
+                connectionPool.invalidate(ip, client);
+            }
+        }
+    }
+
+    /**
+     * Read the responses of a batch in order and dispatch them
+     *
+     * @param client the socket client
+     * @param calls  the requests written, in order
+     * @throws IOException if the stream broke, the remaining requests can not be answered anymore
+     */
+    private void readBatch(Socket client, List<Call> calls) throws IOException {
+        if (!socketConfig.framed) {
+            final JacksonCodec jacksonCodec = (JacksonCodec) codec;
+            final JsonParser parser = jacksonCodec.getObjectMapper().getFactory().createParser(client.getInputStream());
+            for (Call call : calls) {
+                dispatchResult(call.request, jacksonCodec.decode(parser, call.responseClass), null);
+            }
+            return;
+        }
+
+        for (Call call : calls) {
+            final ByteBuffer buffer = Framing.readFrame(client.getInputStream(), bufferPool);
+            Object response = null;
+            Throwable error = null;
+            try {
+                response = Framing.decode(codec, buffer, 0, call.responseClass, bufferPool);
+            } catch (IOException e) {
+                error = e;//the stream is still in sync, only this request fail
+            } finally {
+                if (!Framing.keepsFrame(call.responseClass)) {
+                    bufferPool.release(buffer);
+                }
+            }
+            dispatchResult(call.request, response, error);
+        }
+    }
+
+    /**
+     * Write the request as a length prefixed frame
+     *
+     * @param out     the output stream of the socket client
+     * @param request the request
+     */
+    private void writeFramedCommand(OutputStream out, Request request) throws IOException {
+        final FrameOutputStream frame = frameOutputStreams.acquire();
+        try {
+            frame.begin();
+            EncodedCommand.write(codec, request.cmd, frame);
+            frame.finish();
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("writing framed command {} to server", request.cmd);
+            }
+            frame.writeFrameTo(out);
+        } finally {
+            frameOutputStreams.release(frame);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a response as a length prefixed frame
+     *
+     * @param in            the input stream of the socket client
+     * @param responseClass the response class object expected
+     * @param <T>           Type of the object expected
+     * @return Type safe response T
+     */
+    private <T> T readFramedResponse(InputStream in, Class<T> responseClass) throws IOException {
+        final ByteBuffer buffer = Framing.readFrame(in, bufferPool);
+        try {
+            return Framing.decode(codec, buffer, 0, responseClass, bufferPool);
+        } finally {
+            if (!Framing.keepsFrame(responseClass)) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Create or get the non blocking transport of this instance
+     *
+     * @return the non blocking transport
+     * @throws IllegalStateException if the transport could not be created
+     */
+    private synchronized NioTransport getNioTransport() {
+        if (nioTransport == null) {
+            try {
+                nioTransport = new NioTransport(socketConfig, codec, bufferPool, responseListener);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not create nio transport", e);
+            }
+        }
+
+        return nioTransport;
+    }
+
+    /**
+     * Create or get the pipelined connection to a device. Connects are coalesced like in {@link ConnectionPool}: a
+     * device has at most one connect in progress, the other callers wait for it and fail with it
+     *
+     * @param ip the device ip
+     * @return the pipelined connection
+     * @throws IOException if the connection could not be opened
+     */
+    private PipelinedConnection getPipelinedConnectionFor(String ip) throws IOException {
+        PipelinedConnection connection = pipelinedConnections.get(ip);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+
+        final RequestFuture<PipelinedConnection> connect = new RequestFuture<>();
+        final RequestFuture<PipelinedConnection> inProgress = pipelinedConnects.putIfAbsent(ip, connect);
+        if (inProgress != null) {
+            return awaitConnect(ip, inProgress);
+        }
+
+        //connect outside of any lock, a slow device only delays its own requests
+        try {
+            connection = pipelinedConnections.get(ip);
+            if (connection == null || !connection.isOpen()) {//not opened by the previous connect
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("creating new pipelined connection for ip {}", ip);
+                }
+
+                connection = new PipelinedConnection(ip, connectionPool.connect(ip), socketConfig, codec,
+                        bufferPool, responseListener, watchdog);
+                if (pushListeners.containsKey(ip)) {
+                    connection.setListening(true);
+                }
+                pipelinedConnections.put(ip, connection);
+                if (shutdown) {//missed by shutdown()
+                    pipelinedConnections.remove(ip, connection);
+                    connection.close(null);
+                    checkShutdown();
+                }
+            }
+            connect.complete(connection, null);
+        } catch (IOException | RuntimeException e) {
+            connect.complete(null, e);
+            throw e;
+        } finally {
+            pipelinedConnects.remove(ip, connect);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Wait for the connect of another caller to a device
+     *
+     * @param ip      the device ip
+     * @param connect the connect in progress
+     * @return the pipelined connection
+     * @throws IOException if the connect failed
+     */
+    private static PipelinedConnection awaitConnect(String ip, RequestFuture<PipelinedConnection> connect)
+            throws IOException {
+        try {
+            return connect.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WaitTimeoutException("interrupted while waiting for the connect to ip " + ip);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SharedConnectException(ip, e.getCause());
+        }
+    }
+
+    /**
+     * Execute the request, the connect, write and read are aborted by the {@link #watchdog} once the deadline is
+     * passed or the future cancelled
+     *
+     * @param request       the request
+     * @param responseClass the response class object expected
+     * @param deadline      {@link System#currentTimeMillis()} after which the request fail with a time out
+     * @param future        the future of the request, null if cancelling it must not abort the request
+     * @param <T>           Type of the object expected
+     * @return Type safe response T or null if something went wrong.
+     */
+    private <T> T doSendCommand(final Request request, Class<T> responseClass, long deadline,
+                                RequestFuture<?> future) throws IOException {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("doSendCommand for {}", request);
+        }
+
+        final Socket client = connectionPool.acquire(request.ip, deadline);
+        final SocketWatch watch = acquireWatch();
+        watch.arm(client, deadline, future);
+        boolean reusable = false;
+        T response = null;
+        try {
+            client.setSoTimeout(ConnectionPool.timeOutUntil(deadline));
+            final long writeStart = metricsListener != null ? System.nanoTime() : 0;
+            if (socketConfig.framed) {
+                writeFramedCommand(client.getOutputStream(), request);
+            } else {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("writing command {} to server", request.cmd);
+                }
+                EncodedCommand.write(codec, request.cmd, client.getOutputStream());
+            }
+
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("reading response for command", request.cmd);
+            }
+            if (metricsListener == null) {
+                response = socketConfig.framed ? readFramedResponse(client.getInputStream(), responseClass)
+                        : codec.decode(client.getInputStream(), responseClass);
+            } else {
+                final long writtenAt = System.nanoTime();
+                metricsListener.onWrite(request.ip, writtenAt - writeStart);
+
+                final MeteredInputStream in = meteredInputStreams.acquire().wrap(client.getInputStream());
+                try {
+                    response = socketConfig.framed ? readFramedResponse(in, responseClass)
+                            : codec.decode(in, responseClass);
+                    final long firstByteAt = in.getFirstByteAt();
+                    metricsListener.onFirstByte(request.ip, firstByteAt - writtenAt);
+                    metricsListener.onParse(request.ip, System.nanoTime() - firstByteAt);
+                } finally {
+                    in.clear();
+                    meteredInputStreams.release(in);
+                }
+            }
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("response for command {} {}", request.cmd, responseClass);
+            }
+            reusable = watch.disarm();//closed right after the response was read otherwise, it is still valid
+        } catch (IOException e) {
+            watch.rethrow(e);
+        } finally {
+            watch.disarm();
+            idleWatches.offer(watch);
+            if (reusable) {
+                connectionPool.release(request.ip, client);
+            } else {//time out, broken stream, bad payload... the state of the socket is unknown
+                connectionPool.invalidate(request.ip, client);
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Build the key of a request, used by the response cache and single flight mode
+     *
+     * @param request       the request
+     * @param responseClass the response class object expected
+     * @return the key, or null if the command can not be serialized or the response is a {@link RawResponse} owned by
+     * one caller, the request is then sent on its own
+     */
+    private CommandKey commandKeyFor(Request request, Class<?> responseClass) {
+        if (Framing.keepsFrame(responseClass)) {
+            return null;
+        }
+
+        final byte[] cmd = serialize(request.cmd);
+        return cmd == null ? null : new CommandKey(request.ip, cmd, responseClass);
+    }
+
+    /**
+     * @param cmd the command
+     * @return the command serialized with the codec of this instance, or null if it can not be serialized
+     */
+    private byte[] serialize(Object cmd) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            EncodedCommand.write(codec, cmd, out);
+        } catch (IOException e) {
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("could not serialize command {}", cmd, e);
+            }
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Remove every cached response
+     */
+    public void invalidateCache() {
+        if (responseCache != null) {
+            responseCache.clear();
+        }
+    }
+
+    /**
+     * Remove every cached response of a device
+     *
+     * @param ip the device ip
+     */
+    public void invalidateCache(String ip) {
+        if (responseCache != null) {
+            responseCache.invalidate(ip, null);
+        }
+    }
+
+    /**
+     * Remove the cached responses of a command, whatever the response class
+     *
+     * @param request a request with the ip and command to be invalidated
+     */
+    public void invalidateCache(Request request) {
+        checkCommand(request);
+        if (responseCache == null) {
+            return;
+        }
+
+        final byte[] cmd = serialize(request.cmd);
+        if (cmd != null) {
+            responseCache.invalidate(request.ip, cmd);
+        }
+    }
+
+    /**
+     * Check if a request is valid
+     *
+     * @param request the request to be examined
+     * @throws NullPointerException if the request command or ip is null
+     */
+    private void checkCommand(Request request) {
+        if (request == null) {
+            throw new NullPointerException("request cannot be null");
+        }
+
+        if (request.cmd == null || request.ip == null) {
+            throw new NullPointerException("request or ip cannot be null");
+        }
+    }
+
+    /**
+     * Check that the codec can be used with the socket config of this instance
+     *
+     * @throws IllegalArgumentException if an unframed mode is used with a codec that can not find where a
+     *                                  response end by itself
+     */
+    private void checkCodec() {
+        if (socketConfig.framed) {
+            return;
+        }
+
+        if (!(codec instanceof JacksonCodec)) {
+            throw new IllegalArgumentException("unframed mode need a JacksonCodec, enable SocketConfig.framed");
+        }
+
+        if (socketConfig.nio && !((JacksonCodec) codec).getObjectMapper().getFactory().canParseAsync()) {
+            throw new IllegalArgumentException("codec can not parse non blocking input, enable SocketConfig.framed");
+        }
+    }
+
+    /**
+     * Shutdown this instance, clear all cache and close all cached client socket
+     * <p>
+     * <p>Every request not done yet fails with a {@link RejectedExecutionException}, note that this will be useless
+     * after this method is called</p>
+     */
+    public void shutdown() {
+        if (Constant.ENABLE_LOGS) {
+            logger.debug("shutting down...");
+        }
+
+        shutdown = true;
+        if (executorService != null) {//the shared executor is left running for the other instances
+            executorService.shutdownNow();
+        }
+        if (commandCoalescer != null) {
+            commandCoalescer.shutdown();
+        }
+        if (requestScheduler != null) {
+            requestScheduler.shutdown();
+        }
+        watchdog.shutdown();
+        //queued, batched, waiting for a retry or in flight, every request not done yet is in the table
+        final RejectedExecutionException error = new RejectedExecutionException("TCPMessenger is shutdown");
+        for (Completion completion : inFlightTable.removeAll()) {
+            if (metricsListener != null) {
+                metricsListener.onRequestEnd(completion.request.ip, System.nanoTime() - completion.startedAt, error);
+            }
+            if (completion.flightKey != null) {
+                completeFlight(completion.flightKey, null, error);
+            }
+            failDropped(completion, error);
+        }
+        for (ResponseStream<?> stream : streams) {
+            stream.getFuture().cancel(false);
+        }
+        pushListeners.clear();
+        final List<Flight> orphans;
+        synchronized (flights) {
+            orphans = new ArrayList<>(flights.values());
+            flights.clear();
+        }
+        for (Flight flight : orphans) {
+            for (Completion follower : flight.followers) {
+                complete(follower, null, error);
+            }
+        }
+        invalidateCache();
+        for (PipelinedConnection connection : pipelinedConnections.values()) {
+            connection.close(null);
+        }
+        pipelinedConnections.clear();
+        synchronized (this) {
+            if (nioTransport != null) {
+                nioTransport.shutdown();
+            }
+        }
+        connectionPool.shutdown();
+    }
+
+    /**
+     * Callback to be register to {@link TCPMessenger} in order to invoke request callback
+     *
+     * @param <T> Type T of the expect request response
+     */
+    public interface Callback<T> {
+
+        /**
+         * Invoke when request was successful
+         *
+         * @param request the request request for this response
+         * @param t   the type safe object response
+         */
+        void onResponse(Request request,T t);
+
+        /**
+         * Invoke when an error occur
+         *
+         * @param request       the request for this response
+         * @param throwable the throwable thrown when the error occur
+         */
+        void onError(Request request, Throwable throwable);
+
+
+    }
+
+    /**
+     * Callback of a stream or subscription, see {@link #sendStream(Request, Class, StreamCallback)}
+     *
+     * @param <T> Type T of the elements expected
+     */
+    public interface StreamCallback<T> {
+
+        /**
+         * Invoke for each element, in order. Throwing fail the stream
+         *
+         * @param request the request of the stream
+         * @param t       the type safe element
+         */
+        void onElement(Request request, T t);
+
+        /**
+         * Invoke once every element was delivered
+         *
+         * @param request the request of the stream
+         */
+        void onComplete(Request request);
+
+        /**
+         * Invoke when an error end the stream, no element is delivered after that
+         *
+         * @param request   the request of the stream
+         * @param throwable the throwable thrown when the error occur
+         */
+        void onError(Request request, Throwable throwable);
+    }
+
+    /**
+     * Listener of the messages pushed by a device, see {@link #addPushListener(String, Class, PushListener)}
+     *
+     * @param <T> Type T of the messages expected
+     */
+    public interface PushListener<T> {
+
+        /**
+         * Invoke for each message pushed by the device
+         *
+         * @param ip      the device ip
+         * @param message the type safe message
+         */
+        void onPush(String ip, T message);
+    }
+
+    /**
+     * Push listener with the class its messages are decoded to
+     */
+    private static class PushRegistration<T> {
+
+        private final Class<T> messageClass;
+        private final PushListener<T> listener;
+
+        private PushRegistration(Class<T> messageClass, PushListener<T> listener) {
+            this.messageClass = messageClass;
+            this.listener = listener;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliver(String ip, Object message) {
+            listener.onPush(ip, (T) message);
+        }
+    }
+
+    /**
+     * Command in flight in single flight mode, or queued with {@link SocketConfig#OVERFLOW_COALESCE}, with the
+     * requests that joined it
+     */
+    private static class Flight {
+
+        private final List<Completion> followers = new ArrayList<>();
+    }
+
+    /**
+     * Request object
+     */
+    public static class Request {
+
+        /**
+         * Priority of background requests, such as bulk transfers
+         */
+        public static final int PRIORITY_LOW = -1;
+        /**
+         * Default priority
+         */
+        public static final int PRIORITY_NORMAL = 0;
+        /**
+         * Priority of latency critical requests, such as user actions
+         */
+        public static final int PRIORITY_HIGH = 1;
+
+        private static AtomicInteger atomicInteger = new AtomicInteger(0);
+        /**
+         * The id of the request, auto incremented each time a new instance of this is created
+         */
+        private final int id;
+        /**
+         * The ip of the request
+         */
+        public String ip;
+        /**
+         * The command of the request
+         */
+        public Object cmd;
+        /**
+         * Time in ms the response of this request can be served from the response cache when sent with
+         * {@link #sendCommand(Request, Class, Callback)}, see {@link SocketConfig#responseCacheSize}.
+         * 0 to never cache it, only idempotent commands should be cached
+         */
+        public long cacheTtl;
+        /**
+         * Time in ms this request has to get its response, from the time it is sent and covering the wait for a
+         * socket, the connect, the write and the read. 0 to use {@link SocketConfig#timeOut}
+         * <p>
+         * <p>A request past its deadline fail with a {@link java.net.SocketTimeoutException}, a socket blocked on
+         * it is closed. In pipelined and non blocking modes the connection is kept as long as the device answer
+         * other requests, a late response is dropped.</p>
+         */
+        public int timeOut;
+        /**
+         * Priority of this request, {@link #PRIORITY_NORMAL} by default. Queued requests of a higher priority are
+         * sent first, only used when {@link SocketConfig#maxRequestsPerHost} is set
+         */
+        public int priority = PRIORITY_NORMAL;
+        /**
+         * True if sending this request twice has the same effect as sending it once, it can then be sent again when
+         * it failed to reach its device, see {@link SocketConfig#maxRetries}
+         */
+        public boolean idempotent;
+
+        public Request(String ip, Object cmd) {
+            this.ip = ip;
+            this.cmd = cmd;
+            id = atomicInteger.incrementAndGet();
+        }
+
+        /**
+         * @return the id of this request, also used to correlate responses in pipelined mode
+         */
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Request{" +
+                    "id=" + id +
+                    ", ip='" + ip + '\'' +
+                    ", cmd=" + cmd +
+                    '}';
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Request request = (Request) o;
+
+            if (id != request.id) return false;
+            if (ip != null ? !ip.equals(request.ip) : request.ip != null) return false;
+            return cmd != null ? cmd.equals(request.cmd) : request.cmd == null;
+
+        }
+
+        @Override
+        public int hashCode() {
+            int result = id;
+            result = 31 * result + (ip != null ? ip.hashCode() : 0);
+            result = 31 * result + (cmd != null ? cmd.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,1015 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Socket server speaking the wire format of {@link TCPMessenger}, to write a gateway or a fake device for tests.
+ * <p>
+ * <p>The server use the port, modes and codec of a {@link SocketConfig}, so the same config on both ends always
+ * match: pipelined envelopes or request ids, framing and payload format. An acceptor thread hand each connection to
+ * one of the worker event loops, a couple of threads serve thousands of clients. At most
+ * {@link SocketConfig#maxConnections} connections are open at the same time and
+ * {@link SocketConfig#maxConnectionsPerHost} per client ip, any other is closed as soon as accepted.</p>
+ * <p>
+ * <p>Each command is routed by its type to the handler registered for it, see
+ * {@link #addHandler(String, Class, Handler)}. The type of a command is the command itself if it is a string, or
+ * its {@code "type"} field if it is an object. Handlers run on the worker threads, or on an executor given to
+ * {@link #TCPMessengerServer(SocketConfig, Executor)} if they block. In pipelined mode the commands of a connection
+ * are handled at the same time and each response is written as soon as it is ready, otherwise they are handled one
+ * after the other and answered in order.</p>
+ * <p>
+ * <p>A client that stops reading its responses, or sends commands faster than they are handled, is not read anymore
+ * until it catches up, see {@link Constant#SERVER_WRITE_HIGH_WATER} and
+ * {@link Constant#SERVER_MAX_PENDING_COMMANDS}, so the tcp flow control slows it down instead of the server
+ * buffering without bound.</p>
+ */
+public class TCPMessengerServer {
+
+    private final Logger logger = LoggerFactory.getLogger(TCPMessengerServer.class);
+
+    /**
+     * Socket config of this server
+     */
+    private final SocketConfig socketConfig;
+    /**
+     * Codec used to decode commands and encode responses
+     */
+    private final Codec codec;
+    /**
+     * Same as {@link #codec}, only set in unframed mode where the Jackson non blocking parser is used
+     */
+    private final JacksonCodec jacksonCodec;
+    /**
+     * Codec converting decoded commands into the class of their handler, {@link #codec} if it is a
+     * {@link JacksonCodec}
+     */
+    private final JacksonCodec treeCodec;
+    /**
+     * Executor the handlers run on, null to run them on the worker threads
+     */
+    private final Executor handlerExecutor;
+    /**
+     * Pool of frame buffers, used in framed mode
+     */
+    private final BufferPool bufferPool = new BufferPool();
+    /**
+     * Handlers per command type
+     */
+    private final ConcurrentHashMap<String, Registration<?>> handlers = new ConcurrentHashMap<>();
+    /**
+     * Number of open connections per client ip, guarded by itself
+     */
+    private final HashMap<String, Integer> hostConnections = new HashMap<>();
+    /**
+     * Handler of the commands without registered handler, null if none
+     */
+    private volatile Registration<?> defaultHandler;
+    /**
+     * Number of open connections, guarded by {@link #hostConnections}
+     */
+    private int connectionCount;
+    private ServerSocketChannel serverChannel;
+    private Worker[] workers;
+    /**
+     * Flag set once this server is shutdown
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * @param socketConfig the socket config, the same as the clients
+     * @throws IllegalArgumentException if the codec can not be used in the modes of the socket config
+     */
+    public TCPMessengerServer(SocketConfig socketConfig) {
+        this(socketConfig, null);
+    }
+
+    /**
+     * @param socketConfig    the socket config, the same as the clients
+     * @param handlerExecutor the executor the handlers run on, null to run them on the worker threads
+     * @throws IllegalArgumentException if the codec can not be used in the modes of the socket config
+     */
+    public TCPMessengerServer(SocketConfig socketConfig, Executor handlerExecutor) {
+        this.socketConfig = socketConfig;
+        this.handlerExecutor = handlerExecutor;
+        codec = socketConfig.codec != null ? socketConfig.codec : new JsonCodec();
+        if (!socketConfig.framed) {
+            if (!(codec instanceof JacksonCodec)
+                    || !((JacksonCodec) codec).getObjectMapper().getFactory().canParseAsync()) {
+                throw new IllegalArgumentException("codec can not parse non blocking input, enable SocketConfig.framed");
+            }
+        }
+        jacksonCodec = socketConfig.framed ? null : (JacksonCodec) codec;
+        treeCodec = codec instanceof JacksonCodec ? (JacksonCodec) codec : new JsonCodec();
+    }
+
+    /**
+     * Register the handler of a command type, replacing the previous one if any
+     *
+     * @param type         the command type, the command itself if it is a string, otherwise its {@code "type"}
+     *                     field
+     * @param commandClass the class the command is decoded into, {@link JsonNode} to get the raw tree
+     * @param handler      the handler
+     * @param <C>          Type of the command
+     */
+    public <C> void addHandler(String type, Class<C> commandClass, Handler<C> handler) {
+        handlers.put(type, new Registration<>(commandClass, handler));
+    }
+
+    /**
+     * @param type the command type of the handler to remove
+     */
+    public void removeHandler(String type) {
+        handlers.remove(type);
+    }
+
+    /**
+     * Set the handler of the commands without registered handler, a command without handler fails like a handler
+     * throwing if none is set, see {@link Handler#handle(String, Object)}
+     *
+     * @param commandClass the class the command is decoded into, {@link JsonNode} to get the raw tree
+     * @param handler      the handler, null to remove it
+     * @param <C>          Type of the command
+     */
+    public <C> void setDefaultHandler(Class<C> commandClass, Handler<C> handler) {
+        defaultHandler = handler != null ? new Registration<>(commandClass, handler) : null;
+    }
+
+    /**
+     * Bind the server to {@link SocketConfig#port} on every local address and start accepting connections
+     *
+     * @throws IOException           if the server could not be bound
+     * @throws IllegalStateException if the server was already started or shutdown
+     */
+    public synchronized void start() throws IOException {
+        if (serverChannel != null || shutdown) {
+            throw new IllegalStateException("server already started");
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(socketConfig.port), Constant.SERVER_BACKLOG);
+            workers = new Worker[Math.max(2, Runtime.getRuntime().availableProcessors())];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(i);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "TCPMessengerServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the port the server is bound to, the one picked by the system if {@link SocketConfig#port} is 0
+     * @throws IllegalStateException if the server is not started
+     */
+    public int getPort() {
+        if (serverChannel == null) {
+            throw new IllegalStateException("server not started");
+        }
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Push a message to the connections of a client, in pipelined mode only. It is given to the push listeners of
+     * the client, see {@link TCPMessenger#addPushListener(String, Class, TCPMessenger.PushListener)}
+     *
+     * @param clientIp the client ip, null to push to every client
+     * @param message  the message, in unframed mode it must not have an {@code "id"} field
+     * @throws IllegalStateException if not in pipelined mode or the server is not started
+     */
+    public void push(String clientIp, Object message) {
+        if (!socketConfig.pipelined) {
+            throw new IllegalStateException("pushed messages need the pipelined mode");
+        }
+        if (workers == null || shutdown) {
+            throw new IllegalStateException("server not started");
+        }
+
+        for (Worker worker : workers) {
+            worker.pushes.offer(new Push(clientIp, message));
+            worker.selector.wakeup();
+        }
+    }
+
+    /**
+     * Stop accepting connections and close every open one, responses not written yet are dropped
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+        }
+
+        if (workers != null) {
+            for (Worker worker : workers) {
+                if (worker != null) {
+                    worker.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (!shutdown) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("acceptor stopped", e);
+                }
+                return;
+            }
+
+            final String ip = channel.socket().getInetAddress().getHostAddress();
+            try {
+                if (!reserve(ip)) {
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("connection limit reached, closing connection from {}", ip);
+                    }
+                    channel.close();
+                    continue;
+                }
+
+                channel.configureBlocking(false);
+                socketConfig.applyTo(channel.socket());
+            } catch (IOException e) {
+                release(ip);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    //Ignore
+                }
+                continue;
+            }
+
+            final Worker worker = workers[next++ % workers.length];
+            worker.accepted.offer(channel);
+            worker.selector.wakeup();
+        }
+    }
+
+    /**
+     * Count a new connection from an ip
+     *
+     * @return false if a limit is reached, the connection is then not counted
+     */
+    private boolean reserve(String ip) {
+        synchronized (hostConnections) {
+            final Integer count = hostConnections.get(ip);
+            if (connectionCount >= socketConfig.maxConnections
+                    || (count != null && count >= socketConfig.maxConnectionsPerHost)) {
+                return false;
+            }
+
+            connectionCount++;
+            hostConnections.put(ip, count == null ? 1 : count + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Uncount a connection closed
+     */
+    private void release(String ip) {
+        synchronized (hostConnections) {
+            connectionCount--;
+            final Integer count = hostConnections.get(ip);
+            if (count == null || count <= 1) {
+                hostConnections.remove(ip);
+            } else {
+                hostConnections.put(ip, count - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the type of a command, the command itself if it is a string or its type field if it is an object
+     */
+    private static String typeOf(JsonNode command) {
+        if (command.isTextual()) {
+            return command.asText();
+        }
+
+        final JsonNode type = command.get(Constant.COMMAND_TYPE_FIELD);
+        return type != null && type.isValueNode() ? type.asText() : null;
+    }
+
+    /**
+     * Run the handler of a command
+     *
+     * @return the response, never null
+     * @throws Exception if no handler is registered for the command or the handler failed
+     */
+    private Object handle(String ip, JsonNode command) throws Exception {
+        final String type = typeOf(command);
+        Registration<?> registration = type != null ? handlers.get(type) : null;
+        if (registration == null) {
+            registration = defaultHandler;
+        }
+        if (registration == null) {
+            throw new IllegalArgumentException("no handler for command type " + type);
+        }
+
+        final Object response = registration.handle(ip, command);
+        return response != null ? response : NullNode.getInstance();
+    }
+
+    /**
+     * Handler of a command type, see {@link #addHandler(String, Class, Handler)}
+     *
+     * @param <C> Type of the command
+     */
+    public interface Handler<C> {
+
+        /**
+         * Handle a command. In pipelined mode a handler throwing fails only that request on the client with a
+         * {@link CommandFailedException}, otherwise the connection is closed since the client can not be told
+         *
+         * @param ip      the client ip
+         * @param command the command
+         * @return the response to send back, null for a null value
+         * @throws Exception if the command could not be handled
+         */
+        Object handle(String ip, C command) throws Exception;
+    }
+
+    private class Registration<C> {
+
+        private final Class<C> commandClass;
+        private final Handler<C> handler;
+
+        private Registration(Class<C> commandClass, Handler<C> handler) {
+            this.commandClass = commandClass;
+            this.handler = handler;
+        }
+
+        private Object handle(String ip, JsonNode command) throws Exception {
+            final C value = commandClass.isInstance(command) ? commandClass.cast(command)
+                    : treeCodec.decode(command, commandClass);
+            return handler.handle(ip, value);
+        }
+    }
+
+    /**
+     * Single thread event loop owning a selector and the connections handed by the acceptor
+     */
+    private class Worker implements Runnable {
+
+        private final Selector selector;
+        /**
+         * Channels accepted and not registered yet
+         */
+        private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        /**
+         * Responses computed by the handler executor, written by the loop thread
+         */
+        private final ConcurrentLinkedQueue<Outbound> completed = new ConcurrentLinkedQueue<>();
+        /**
+         * Messages to push to the clients of this loop
+         */
+        private final ConcurrentLinkedQueue<Push> pushes = new ConcurrentLinkedQueue<>();
+        /**
+         * Open connections, only accessed from the loop thread
+         */
+        private final HashSet<Connection> connections = new HashSet<>();
+        /**
+         * Read buffer shared by every connection of this loop in unframed mode, bytes are fully consumed by the
+         * parser after each read
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(Constant.NIO_READ_BUFFER_SIZE);
+
+        private Worker(int index) throws IOException {
+            selector = Selector.open();
+            final Thread thread = new Thread(this, "TCPMessengerServer-worker-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    selector.select(Constant.NIO_TICK);
+                    drainQueues();
+
+                    final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        final SelectionKey key = iterator.next();
+                        iterator.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("worker stopped", e);
+                }
+            } finally {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    connection.close();
+                }
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    release(channel.socket().getInetAddress().getHostAddress());
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        //Ignore
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    //Ignore
+                }
+            }
+        }
+
+        private void drainQueues() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    connections.add(new Connection(this, channel));
+                } catch (IOException e) {
+                    release(channel.socket().getInetAddress().getHostAddress());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        //Ignore
+                    }
+                }
+            }
+
+            Outbound outbound;
+            while ((outbound = completed.poll()) != null) {
+                if (connections.contains(outbound.connection)) {//dropped if closed in the meantime
+                    outbound.connection.onHandled(outbound.id, outbound.response, outbound.error);
+                }
+            }
+
+            Push push;
+            while ((push = pushes.poll()) != null) {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    if (push.ip == null || push.ip.equals(connection.ip)) {
+                        connection.push(push.message);
+                    }
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            final Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                return;
+            }
+
+            try {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("error on connection from {}", connection.ip, e);
+                }
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Connection of a client with its commands waiting for their turn and its responses not written yet
+     */
+    private class Connection {
+
+        private final Worker worker;
+        private final String ip;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        /**
+         * Commands received while another one is handled in non pipelined mode, handled in order
+         */
+        private final ArrayDeque<Inbound> received = new ArrayDeque<>();
+        /**
+         * Non blocking parser fed with every byte read, null in framed mode
+         */
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        /**
+         * Buffer of the command being parsed
+         */
+        private TokenBuffer tokens;
+        private int depth;
+        /**
+         * Bytes read since the command being parsed started, capped like a frame
+         */
+        private int valueBytes;
+        /**
+         * Length prefix of the frame being read in framed mode
+         */
+        private ByteBuffer frameHeader;
+        /**
+         * Pooled buffer of the frame payload being read in framed mode
+         */
+        private ByteBuffer frameBuffer;
+        /**
+         * Responses encoded and not written yet
+         */
+        private FrameOutputStream out = new FrameOutputStream();
+        /**
+         * Responses being written, swapped with {@link #out} once fully written so neither is reallocated
+         */
+        private FrameOutputStream writing = new FrameOutputStream();
+        /**
+         * Bytes of {@link #writing} left to write, null if none
+         */
+        private ByteBuffer writeBuffer;
+        /**
+         * True while a command is handled in non pipelined mode
+         */
+        private boolean busy;
+        /**
+         * Number of commands received and not answered yet, the ones waiting in {@link #received} included
+         */
+        private int pending;
+        private boolean closed;
+
+        private Connection(Worker worker, SocketChannel channel) throws IOException {
+            this.worker = worker;
+            this.channel = channel;
+            ip = channel.socket().getInetAddress().getHostAddress();
+            if (socketConfig.framed) {
+                parser = null;
+                feeder = null;
+                frameHeader = ByteBuffer.allocate(4);
+            } else {
+                parser = jacksonCodec.getObjectMapper().getFactory().createNonBlockingByteArrayParser();
+                feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+                tokens = new TokenBuffer(jacksonCodec.getObjectMapper(), false);
+            }
+            key = channel.register(worker.selector, SelectionKey.OP_READ, this);
+
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("accepted connection from {}", ip);
+            }
+        }
+
+        /**
+         * Read what is available and dispatch every complete command
+         */
+        private void read() throws IOException {
+            if (socketConfig.framed) {
+                readFrames();
+                return;
+            }
+
+            final ByteBuffer buffer = worker.readBuffer;
+            buffer.clear();
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+
+            if (depth > 0) {
+                valueBytes += read;
+                if (valueBytes > Constant.MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("command bigger than " + Constant.MAX_FRAME_SIZE + " bytes");
+                }
+            }
+
+            feeder.feedInput(buffer.array(), 0, read);
+            JsonToken token;
+            while (!closed && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                tokens.copyCurrentEvent(parser);
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+
+                if (depth == 0) {
+                    final TokenBuffer value = tokens;
+                    tokens = new TokenBuffer(jacksonCodec.getObjectMapper(), false);
+                    valueBytes = 0;
+                    onValue(value);
+                }
+            }
+            updateInterest();
+        }
+
+        /**
+         * Read frames until the channel has nothing more to give, each payload is read directly into a pooled buffer
+         */
+        private void readFrames() throws IOException {
+            while (!closed && !isBacklogged()) {
+                if (frameBuffer == null) {
+                    if (channel.read(frameHeader) < 0) {
+                        throw new EOFException("connection closed by peer");
+                    }
+                    if (frameHeader.hasRemaining()) {
+                        return;
+                    }
+
+                    final int length = Framing.checkLength(frameHeader.getInt(0));
+                    frameHeader.clear();
+                    frameBuffer = bufferPool.acquire(length);
+                    frameBuffer.limit(length);
+                }
+
+                if (channel.read(frameBuffer) < 0) {
+                    throw new EOFException("connection closed by peer");
+                }
+                if (frameBuffer.hasRemaining()) {
+                    return;
+                }
+
+                final ByteBuffer frame = frameBuffer;
+                frameBuffer = null;
+                try {
+                    onFrame(frame);
+                } finally {
+                    bufferPool.release(frame);
+                }
+            }
+            updateInterest();
+        }
+
+        private void onFrame(ByteBuffer frame) throws IOException {
+            int id = 0;
+            int offset = 0;
+            if (socketConfig.pipelined) {
+                if (frame.limit() < 4) {
+                    throw new StreamCorruptedException("frame too short for a request id");
+                }
+                id = frame.getInt(0);
+                offset = 4;
+            }
+
+            dispatch(id, codec.decode(frame.array(), offset, frame.limit() - offset, JsonNode.class));
+        }
+
+        private void onValue(TokenBuffer value) throws IOException {
+            final JsonNode node = jacksonCodec.getObjectMapper().readTree(value.asParser());
+            if (!socketConfig.pipelined) {
+                dispatch(0, node);
+                return;
+            }
+
+            final JsonNode id = node.get(Constant.ENVELOPE_ID);
+            final JsonNode command = node.get(Constant.ENVELOPE_CMD);
+            if (id == null || command == null) {
+                throw new StreamCorruptedException("command without pipelined envelope");
+            }
+            dispatch(id.asInt(), command);
+        }
+
+        /**
+         * Handle a command now, or once the previous ones are answered in non pipelined mode
+         *
+         * @param id      the request id, 0 in non pipelined mode
+         * @param command the command
+         */
+        private void dispatch(final int id, final JsonNode command) {
+            pending++;
+            dispatchNow(id, command);
+        }
+
+        private void dispatchNow(final int id, final JsonNode command) {
+            if (!socketConfig.pipelined && busy) {
+                received.offer(new Inbound(id, command));
+                return;
+            }
+            busy = true;
+
+            if (handlerExecutor == null) {
+                Object response = null;
+                Throwable error = null;
+                try {
+                    response = TCPMessengerServer.this.handle(ip, command);
+                } catch (Throwable t) {
+                    error = t;
+                }
+                onHandled(id, response, error);
+                return;
+            }
+
+            handlerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object response = null;
+                    Throwable error = null;
+                    try {
+                        response = TCPMessengerServer.this.handle(ip, command);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    worker.completed.offer(new Outbound(Connection.this, id, response, error));
+                    worker.selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * Write the response of a command then handle the next command waiting if any, in the loop thread
+         *
+         * @param id       the request id
+         * @param response the response, ignored if the handler failed
+         * @param error    the error of the handler, null if it succeeded
+         */
+        private void onHandled(int id, Object response, Throwable error) {
+            if (closed) {
+                return;
+            }
+            pending--;
+
+            try {
+                if (error == null) {
+                    final int size = out.size();
+                    try {
+                        encode(id, response);
+                    } catch (IOException e) {
+                        out.truncate(size);
+                        error = e;
+                    }
+                }
+                if (error != null) {
+                    if (!socketConfig.pipelined) {//the client can only match responses by their order
+                        throw error instanceof IOException ? (IOException) error : new IOException(error);
+                    }
+                    if (Constant.ENABLE_LOGS) {
+                        logger.debug("command {} from {} failed", id, ip, error);
+                    }
+                    encodeError(id, error);
+                }
+                flush();
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("closing connection from {}, command failed", ip, e);
+                }
+                close();
+                return;
+            }
+
+            busy = false;
+            final Inbound next = received.poll();
+            if (next != null) {
+                dispatchNow(next.id, next.command);
+            }
+        }
+
+        /**
+         * Write a message pushed to the client, with the push id in framed mode and without envelope otherwise
+         */
+        private void push(Object message) {
+            if (closed) {
+                return;
+            }
+            final int buffered = out.size() + (writeBuffer != null ? writeBuffer.remaining() : 0);
+            if (buffered >= Constant.SERVER_MAX_BUFFERED_OUTPUT) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("closing connection from {}, pushed messages not read", ip);
+                }
+                close();
+                return;
+            }
+
+            try {
+                if (socketConfig.framed) {
+                    out.next();
+                    out.writeInt(Constant.PUSH_ID);
+                    codec.encode(message, out);
+                    out.finish();
+                } else {
+                    final JsonGenerator generator = jacksonCodec.getObjectMapper().getFactory().createGenerator(out);
+                    jacksonCodec.encode(message, generator);
+                    generator.flush();
+                }
+                flush();
+            } catch (IOException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("could not push message to {}", ip, e);
+                }
+                close();
+            }
+        }
+
+        /**
+         * Append a response to {@link #out}
+         */
+        private void encode(int id, Object response) throws IOException {
+            if (socketConfig.framed) {
+                out.next();
+                if (socketConfig.pipelined) {
+                    out.writeInt(id);
+                }
+                codec.encode(response, out);
+                out.finish();
+                return;
+            }
+
+            final JsonGenerator generator = jacksonCodec.getObjectMapper().getFactory().createGenerator(out);
+            if (!socketConfig.pipelined) {
+                jacksonCodec.encode(response, generator);
+            } else {
+                final HashMap<String, Object> envelope = new HashMap<>(2);
+                envelope.put(Constant.ENVELOPE_ID, id);
+                envelope.put(Constant.ENVELOPE_RESPONSE, response);
+                jacksonCodec.encode(envelope, generator);
+            }
+            generator.flush();
+        }
+
+        /**
+         * Append the error of a command to {@link #out}, the client fails only that request
+         */
+        private void encodeError(int id, Throwable error) throws IOException {
+            final String message = error.toString();
+            if (socketConfig.framed) {
+                out.next();
+                out.writeInt(Constant.ERROR_ID);
+                out.writeInt(id);
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+                out.finish();
+                return;
+            }
+
+            final JsonGenerator generator = jacksonCodec.getObjectMapper().getFactory().createGenerator(out);
+            generator.writeStartObject();
+            generator.writeNumberField(Constant.ENVELOPE_ID, id);
+            generator.writeStringField(Constant.ENVELOPE_ERROR, message);
+            generator.writeEndObject();
+            generator.flush();
+        }
+
+        /**
+         * Write as much of the encoded responses as the channel can take
+         */
+        private void flush() throws IOException {
+            while (true) {
+                if (writeBuffer == null) {
+                    if (out.size() == 0) {
+                        break;
+                    }
+
+                    final FrameOutputStream encoded = out;
+                    out = writing;
+                    out.reset();
+                    writing = encoded;
+                    writeBuffer = writing.asByteBuffer();
+                }
+
+                channel.write(writeBuffer);
+                if (writeBuffer.hasRemaining()) {
+                    break;
+                }
+                writeBuffer = null;
+            }
+
+            updateInterest();
+        }
+
+        /**
+         * @return true if responses are waiting for the client to read them or too many commands are not answered
+         * yet, the commands of the client are then not read
+         */
+        private boolean isBacklogged() {
+            return writeBuffer != null || out.size() >= Constant.SERVER_WRITE_HIGH_WATER
+                    || pending >= Constant.SERVER_MAX_PENDING_COMMANDS;
+        }
+
+        /**
+         * Read the client only if not backlogged, write to it only while a write is pending
+         */
+        private void updateInterest() {
+            if (closed) {
+                return;
+            }
+
+            final int ops = (isBacklogged() ? 0 : SelectionKey.OP_READ)
+                    | (writeBuffer != null ? SelectionKey.OP_WRITE : 0);
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (Constant.ENABLE_LOGS) {
+                logger.debug("closing connection from {}", ip);
+            }
+
+            worker.connections.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+            if (frameBuffer != null) {
+                bufferPool.release(frameBuffer);
+                frameBuffer = null;
+            }
+            received.clear();
+            release(ip);
+        }
+    }
+
+    /**
+     * Command waiting for the previous ones to be answered
+     */
+    private static class Inbound {
+
+        private final int id;
+        private final JsonNode command;
+
+        private Inbound(int id, JsonNode command) {
+            this.id = id;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Outcome of a handler run by the handler executor
+     */
+    private static class Outbound {
+
+        private final Connection connection;
+        private final int id;
+        private final Object response;
+        private final Throwable error;
+
+        private Outbound(Connection connection, int id, Object response, Throwable error) {
+            this.connection = connection;
+            this.id = id;
+            this.response = response;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Message to push, see {@link #push(String, Object)}
+     */
+    private static class Push {
+
+        /**
+         * Client ip, null for every client
+         */
+        private final String ip;
+        private final Object message;
+
+        private Push(String ip, Object message) {
+            this.ip = ip;
+            this.message = message;
+        }
+    }
+}
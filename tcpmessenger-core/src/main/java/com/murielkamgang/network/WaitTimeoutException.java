@@ -0,0 +1,16 @@
+package com.murielkamgang.network;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Time out of a request that never reached its device: its deadline passed, or it was interrupted, while it waited
+ * for its turn, a pooled client or the connect of another request. Not counted by the {@link CircuitBreaker}
+ */
+class WaitTimeoutException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    WaitTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,142 @@
+package com.murielkamgang.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Check every {@link Constant#WATCHDOG_INTERVAL} the requests blocked on a socket, so a request past its deadline or
+ * cancelled does not pin a thread and a socket until the socket time out.
+ * <p>
+ * <p>One background thread checks the watchdogs of every {@link TCPMessenger}, it is started with the first watched
+ * object and stops once every watchdog was shutdown ({@link #shutdown()}).</p>
+ */
+class Watchdog {
+
+    private final Logger logger = LoggerFactory.getLogger(Watchdog.class);
+
+    /**
+     * Watchdogs checked by the thread, in use and not shutdown
+     */
+    private static final CopyOnWriteArrayList<Watchdog> watchdogs = new CopyOnWriteArrayList<>();
+    /**
+     * Thread checking {@link #watchdogs}, null while none is in use. Guarded by Watchdog.class
+     */
+    private static Thread thread;
+
+    /**
+     * Objects checked on each run
+     */
+    private final CopyOnWriteArrayList<Watched> watched = new CopyOnWriteArrayList<>();
+    private volatile boolean shutdown;
+
+    /**
+     * Start checking an object, no op if it is already checked
+     *
+     * @param object the object
+     */
+    void watch(Watched object) {
+        if (shutdown) {
+            return;
+        }
+
+        watched.addIfAbsent(object);
+        if (watchdogs.addIfAbsent(this)) {
+            if (shutdown) {//shutdown in the meantime
+                watchdogs.remove(this);
+                return;
+            }
+            start();
+        }
+    }
+
+    /**
+     * Stop checking an object
+     *
+     * @param object the object
+     */
+    void unwatch(Watched object) {
+        watched.remove(object);
+    }
+
+    /**
+     * Forget every watched object, the thread stops if no other watchdog is in use
+     */
+    void shutdown() {
+        shutdown = true;
+        watchdogs.remove(this);
+        watched.clear();
+    }
+
+    /**
+     * Start the thread if it is not running
+     */
+    private static synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(Constant.WATCHDOG_INTERVAL);
+                        for (Watchdog watchdog : watchdogs) {
+                            watchdog.check();
+                        }
+                        if (stopIfIdle()) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    stop();
+                }
+            }
+        }, "TCPMessenger-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true if no watchdog is in use anymore, the thread is then forgotten so the next one start a new one
+     */
+    private static synchronized boolean stopIfIdle() {
+        if (watchdogs.isEmpty()) {
+            thread = null;
+            return true;
+        }
+        return false;
+    }
+
+    private static synchronized void stop() {
+        thread = null;
+    }
+
+    private void check() {
+        final long now = System.currentTimeMillis();
+        for (Watched object : watched) {
+            try {
+                object.check(now);
+            } catch (RuntimeException e) {
+                if (Constant.ENABLE_LOGS) {
+                    logger.debug("watchdog check failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Object checked by the {@link Watchdog}
+     */
+    interface Watched {
+
+        /**
+         * Abort what is past its deadline or cancelled, called from the watchdog thread
+         *
+         * @param now {@link System#currentTimeMillis()}
+         */
+        void check(long now);
+    }
+}
@@ -0,0 +1,189 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        if (messenger != null) {
+            TCPMessenger.releaseInstance(messenger);
+        }
+        if (device != null) {
+            device.shutdown();
+        }
+    }
+
+    @Test
+    public void batchIsAnsweredOnOneSocket() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        final Metrics metrics = new Metrics();
+        socketConfig.metricsListener = metrics;
+        start(socketConfig);
+
+        assertEquals(Arrays.asList("a", "b", "c"), sendBatch("a", "b", "c"));
+        assertEquals(1, metrics.getHost(LoopbackDevice.IP).getPoolMisses());
+        assertEquals(0, metrics.getHost(LoopbackDevice.IP).getPoolHits());
+    }
+
+    @Test
+    public void pipelinedBatchIsAnswered() throws Exception {
+        start(new SocketConfig(0, 5000, true));
+
+        final List<String> responses = sendBatch("a", "b", "c");
+        Collections.sort(responses);
+        assertEquals(Arrays.asList("a", "b", "c"), responses);
+    }
+
+    @Test
+    public void nioBatchIsAnswered() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.nio = true;
+        start(socketConfig);
+
+        final List<String> responses = sendBatch("a", "b", "c");
+        Collections.sort(responses);
+        assertEquals(Arrays.asList("a", "b", "c"), responses);
+    }
+
+    @Test
+    public void emptyOrMixedBatchIsRefused() throws Exception {
+        start(new SocketConfig(0, 5000));
+
+        try {
+            messenger.sendBatch(new ArrayList<TCPMessenger.Request>(), String.class, new RecordingCallback(0));
+            fail("empty batch accepted");
+        } catch (IllegalArgumentException e) {
+            //nothing to send
+        }
+        try {
+            messenger.sendBatch(Arrays.asList(LoopbackDevice.echo(LoopbackDevice.IP, "a"),
+                    LoopbackDevice.echo("localhost", "b")), String.class, new RecordingCallback(0));
+            fail("batch to many hosts accepted");
+        } catch (IllegalArgumentException e) {
+            //one batch per host
+        }
+    }
+
+    @Test
+    public void fullWindowIsSentWithoutWaiting() {
+        final List<List<Call>> sent = new ArrayList<>();
+        final CommandCoalescer coalescer = new CommandCoalescer(60000, new CommandCoalescer.Sink() {
+            @Override
+            public void send(List<Call> calls) {
+                sent.add(calls);
+            }
+        });
+        try {
+            for (int i = 0; i < Constant.MAX_COALESCED_BATCH - 1; i++) {
+                coalescer.add(call(LoopbackDevice.IP, i));
+            }
+            coalescer.add(call("localhost", 0));
+            assertTrue("batch sent before the end of the window", sent.isEmpty());
+
+            coalescer.add(call(LoopbackDevice.IP, Constant.MAX_COALESCED_BATCH - 1));
+            assertEquals(1, sent.size());
+            assertEquals(Constant.MAX_COALESCED_BATCH, sent.get(0).size());
+            for (int i = 0; i < Constant.MAX_COALESCED_BATCH; i++) {
+                assertEquals(i, sent.get(0).get(i).request.cmd);
+            }
+        } finally {
+            coalescer.shutdown();
+        }
+    }
+
+    @Test
+    public void windowIsSentOnceOver() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final List<Call> batch = new ArrayList<>();
+        final CommandCoalescer coalescer = new CommandCoalescer(10, new CommandCoalescer.Sink() {
+            @Override
+            public void send(List<Call> calls) {
+                batch.addAll(calls);
+                sent.countDown();
+            }
+        });
+        coalescer.add(call(LoopbackDevice.IP, 0));
+        coalescer.add(call(LoopbackDevice.IP, 1));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void coalescedRequestsAreAnswered() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.coalescingWindow = 10;
+        start(socketConfig);
+
+        final RequestFuture<String> first =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "first"), String.class);
+        final RequestFuture<String> second =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "second"), String.class);
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    }
+
+    private void start(SocketConfig socketConfig) throws Exception {
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    /**
+     * Send one echo per text as a batch
+     *
+     * @return the responses in the order they were delivered
+     */
+    private List<String> sendBatch(String... texts) throws Exception {
+        final List<TCPMessenger.Request> requests = new ArrayList<>();
+        for (String text : texts) {
+            requests.add(LoopbackDevice.echo(LoopbackDevice.IP, text));
+        }
+        final RecordingCallback callback = new RecordingCallback(texts.length);
+        messenger.sendBatch(requests, String.class, callback).get(5, TimeUnit.SECONDS);
+        assertTrue(callback.invoked.await(5, TimeUnit.SECONDS));
+        return callback.responses;
+    }
+
+    private static Call call(String ip, int cmd) {
+        return new Call(new TCPMessenger.Request(ip, cmd), String.class, new RequestFuture<String>(),
+                Long.MAX_VALUE);
+    }
+
+    private static class RecordingCallback implements TCPMessenger.Callback<String> {
+
+        private final List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch invoked;
+
+        private RecordingCallback(int count) {
+            invoked = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onResponse(TCPMessenger.Request request, String s) {
+            responses.add(s);
+            invoked.countDown();
+        }
+
+        @Override
+        public void onError(TCPMessenger.Request request, Throwable throwable) {
+            invoked.countDown();
+        }
+    }
+}
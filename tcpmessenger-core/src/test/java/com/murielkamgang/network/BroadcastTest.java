@@ -0,0 +1,65 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BroadcastTest {
+
+    /**
+     * Two names of the loopback device, each seen as a device of its own
+     */
+    private static final List<String> IPS = Arrays.asList(LoopbackDevice.IP, "localhost");
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void everyDeviceAnswers() throws Exception {
+        final BroadcastResult<String> result = messenger.broadcast(IPS, new LoopbackDevice.Command("echo", "all", 0),
+                String.class, null).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccessful());
+        assertEquals("all", result.getResponses().get(LoopbackDevice.IP));
+        assertEquals("all", result.getResponses().get("localhost"));
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStopTheBroadcast() throws Exception {
+        final BroadcastResult<String> result = messenger.broadcast(IPS, new LoopbackDevice.Command("echo", "all", 0),
+                String.class, new TCPMessenger.Callback<String>() {
+                    @Override
+                    public void onResponse(TCPMessenger.Request request, String s) {
+                        throw new IllegalStateException("callback failure");
+                    }
+
+                    @Override
+                    public void onError(TCPMessenger.Request request, Throwable throwable) {
+                        throw new IllegalStateException("callback failure");
+                    }
+                }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, result.getResponses().size());
+    }
+}
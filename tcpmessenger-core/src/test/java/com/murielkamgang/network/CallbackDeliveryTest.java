@@ -0,0 +1,165 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallbackDeliveryTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStopTheEventLoop() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.nio = true;
+        start(socketConfig);
+
+        final ThrowingCallback callback = new ThrowingCallback();
+        assertEquals("thrown", messenger.sendCommand(LoopbackDevice.echo(LoopbackDevice.IP, "thrown"), String.class,
+                callback).get(5, TimeUnit.SECONDS));
+        assertTrue(callback.invoked.await(5, TimeUnit.SECONDS));
+
+        assertEquals("next", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "next"), String.class)
+                .get(5, TimeUnit.SECONDS));
+        final TCPMessenger.Request late = LoopbackDevice.sleep(LoopbackDevice.IP, "late", 2000);
+        late.timeOut = 200;
+        try {
+            messenger.sendAsync(late, String.class).get(5, TimeUnit.SECONDS);
+            fail("deadline not enforced");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void throwingCallbackDoesNotCloseThePipelinedConnection() throws Exception {
+        start(new SocketConfig(0, 5000, true));
+
+        final RequestFuture<String> slow =
+                messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "slow", 500), String.class);
+        final ThrowingCallback callback = new ThrowingCallback();
+        messenger.sendCommand(LoopbackDevice.echo(LoopbackDevice.IP, "thrown"), String.class, callback);
+        assertTrue(callback.invoked.await(5, TimeUnit.SECONDS));
+
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throwingStreamCallbackDoesNotEscapeTheExecutor() throws Exception {
+        final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+        final AtomicReference<RuntimeException> escaped = new AtomicReference<>();
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        start(socketConfig, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                callbackThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } catch (RuntimeException e) {
+                            escaped.set(e);
+                        }
+                    }
+                });
+            }
+        });
+        try {
+            final ThrowingStreamCallback completed = new ThrowingStreamCallback(false);
+            messenger.sendStream(LoopbackDevice.split(LoopbackDevice.IP, "a,b"), String.class, completed);
+            assertTrue(completed.ended.await(5, TimeUnit.SECONDS));
+
+            final ThrowingStreamCallback failed = new ThrowingStreamCallback(true);
+            messenger.sendStream(LoopbackDevice.split(LoopbackDevice.IP, "a,b"), String.class, failed);
+            assertTrue(failed.ended.await(5, TimeUnit.SECONDS));
+
+            callbackThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(5, TimeUnit.SECONDS);//every callback before it returned
+            assertNull(escaped.get());
+        } finally {
+            callbackThread.shutdown();
+        }
+    }
+
+    private void start(SocketConfig socketConfig) throws Exception {
+        start(socketConfig, CallbackExecutors.direct());
+    }
+
+    private void start(SocketConfig socketConfig, Executor callbackExecutor) throws Exception {
+        socketConfig.callbackExecutor = callbackExecutor;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    private static class ThrowingCallback implements TCPMessenger.Callback<String> {
+
+        private final CountDownLatch invoked = new CountDownLatch(1);
+
+        @Override
+        public void onResponse(TCPMessenger.Request request, String s) {
+            invoked.countDown();
+            throw new IllegalStateException("callback failure");
+        }
+
+        @Override
+        public void onError(TCPMessenger.Request request, Throwable throwable) {
+            invoked.countDown();
+            throw new IllegalStateException("callback failure");
+        }
+    }
+
+    /**
+     * Stream callback throwing once the stream ended, and on each element if asked to
+     */
+    private static class ThrowingStreamCallback implements TCPMessenger.StreamCallback<String> {
+
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private final boolean failElements;
+
+        private ThrowingStreamCallback(boolean failElements) {
+            this.failElements = failElements;
+        }
+
+        @Override
+        public void onElement(TCPMessenger.Request request, String s) {
+            if (failElements) {
+                throw new IllegalStateException("element failure");
+            }
+        }
+
+        @Override
+        public void onComplete(TCPMessenger.Request request) {
+            ended.countDown();
+            throw new IllegalStateException("callback failure");
+        }
+
+        @Override
+        public void onError(TCPMessenger.Request request, Throwable throwable) {
+            ended.countDown();
+            throw new IllegalStateException("callback failure");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    /**
+     * Other name of the loopback device, its circuit is opened by failing commands
+     */
+    private static final String BROKEN_IP = "localhost";
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.framed = true;//a closed connection is reported as an EOFException
+        socketConfig.maxRequestsPerHost = 2;
+        socketConfig.circuitBreakerThreshold = 2;
+        socketConfig.circuitBreakerCooldown = 60000;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void openCircuitFailsRightAway() throws Exception {
+        tripBreaker();
+
+        final int handled = device.handled.get();
+        assertFails(messenger.sendAsync(LoopbackDevice.echo(BROKEN_IP, "rejected"), String.class),
+                CircuitOpenException.class);
+        assertEquals(handled, device.handled.get());
+    }
+
+    @Test
+    public void otherHostsAreServedOnceTheCircuitIsOpen() throws Exception {
+        tripBreaker();
+
+        //more rejections than the scheduler has I/O slots
+        for (int i = 0; i < Constant.IO_THREAD_COUNT * 2; i++) {
+            assertFails(messenger.sendAsync(LoopbackDevice.echo(BROKEN_IP, "rejected"), String.class),
+                    CircuitOpenException.class);
+        }
+        assertEquals("served", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "served"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestsTimingOutInTheQueueDoNotOpenTheCircuit() throws Exception {
+        final RequestFuture<String> first =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "first"), String.class);
+        final RequestFuture<String> second =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "second"), String.class);
+        assertTrue(device.awaitHeld(2));
+
+        final List<RequestFuture<String>> queued = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final TCPMessenger.Request request = LoopbackDevice.echo(LoopbackDevice.IP, "queued");
+            request.timeOut = 1;
+            queued.add(messenger.sendAsync(request, String.class));
+        }
+        Thread.sleep(10);//past the deadline of the queued requests
+        device.release();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        for (RequestFuture<String> future : queued) {
+            assertFails(future, SocketTimeoutException.class);
+        }
+
+        assertEquals("served", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "served"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureSharedByManyRequestsIsCountedOnce() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+        final IOException connectError = new ConnectException("Connection refused");
+        circuitBreaker.onFailure(BROKEN_IP, connectError);
+        circuitBreaker.onFailure(BROKEN_IP, new SharedConnectException(BROKEN_IP, connectError));
+        circuitBreaker.onFailure(BROKEN_IP, connectError);
+        assertTrue(circuitBreaker.allow(BROKEN_IP));
+
+        circuitBreaker.onFailure(BROKEN_IP, new EOFException());
+        assertFalse(circuitBreaker.allow(BROKEN_IP));
+    }
+
+    private void tripBreaker() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            assertFails(messenger.sendAsync(LoopbackDevice.fail(BROKEN_IP), String.class), EOFException.class);
+        }
+    }
+
+    private static void assertFails(RequestFuture<String> future, Class<? extends Throwable> error)
+            throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("request did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), error.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+    /**
+     * Other name of the local server, counted as another host by the pool
+     */
+    private static final String OTHER_IP = "localhost";
+
+    /**
+     * Server leaving the connections in its backlog, the pool only needs them connected
+     */
+    private ServerSocket server;
+    private SocketConfig socketConfig;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        socketConfig = new SocketConfig(server.getLocalPort(), 5000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void releasedSocketIsReused() throws Exception {
+        pool = new ConnectionPool(socketConfig);
+        final Socket socket = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+        pool.release(LoopbackDevice.IP, socket);
+
+        assertSame(socket, pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void invalidatedSocketIsClosedAndReplaced() throws Exception {
+        pool = new ConnectionPool(socketConfig);
+        final Socket socket = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+        pool.invalidate(LoopbackDevice.IP, socket);
+
+        assertTrue(socket.isClosed());
+        assertNotSame(socket, pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void callerPastTheHostLimitWaitsForASocket() throws Exception {
+        socketConfig.maxConnectionsPerHost = 1;
+        pool = new ConnectionPool(socketConfig);
+        final Socket socket = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+
+        final ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Socket> waiting = waiter.submit(new Callable<Socket>() {
+                @Override
+                public Socket call() throws Exception {
+                    return pool.acquire(LoopbackDevice.IP, System.currentTimeMillis() + 5000);
+                }
+            });
+            pool.release(LoopbackDevice.IP, socket);
+            assertSame(socket, waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            waiter.shutdown();
+        }
+    }
+
+    @Test
+    public void callerPastTheHostLimitTimesOut() throws Exception {
+        socketConfig.maxConnectionsPerHost = 1;
+        pool = new ConnectionPool(socketConfig);
+        pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+
+        try {
+            pool.acquire(LoopbackDevice.IP, System.currentTimeMillis());
+            fail("host limit not enforced");
+        } catch (WaitTimeoutException e) {
+            //no socket given back
+        }
+        pool.acquire(OTHER_IP, System.currentTimeMillis() + 5000);//other hosts are not limited
+    }
+
+    @Test
+    public void fullPoolClosesTheOldestIdleSocketOfAnotherHost() throws Exception {
+        socketConfig.maxConnections = 1;
+        pool = new ConnectionPool(socketConfig);
+        final Socket idle = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+        pool.release(LoopbackDevice.IP, idle);
+
+        final Socket other = pool.acquire(OTHER_IP, System.currentTimeMillis() + 5000);
+        assertTrue(idle.isClosed());
+        assertFalse(other.isClosed());
+    }
+
+    @Test
+    public void idleSocketIsClosedAfterTheIdleTimeOut() throws Exception {
+        pool = new ConnectionPool(socketConfig);
+        final Socket socket = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+        pool.release(LoopbackDevice.IP, socket);
+        final long releasedAt = System.currentTimeMillis();
+
+        pool.evict(releasedAt + socketConfig.idleTimeOut - 1000);
+        assertFalse(socket.isClosed());
+        pool.evict(releasedAt + socketConfig.idleTimeOut);
+        assertTrue(socket.isClosed());
+    }
+
+    @Test
+    public void minimumOfIdleSocketsIsKept() throws Exception {
+        socketConfig.minConnectionsPerHost = 1;
+        pool = new ConnectionPool(socketConfig);
+        final Socket socket = pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE);
+        pool.release(LoopbackDevice.IP, socket);
+
+        pool.evict(System.currentTimeMillis() + socketConfig.idleTimeOut);
+        assertSame(socket, pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void idleSocketIsProbedOnlyOnceInAWhile() throws Exception {
+        pool = new ConnectionPool(socketConfig);
+        final ProbedSocket socket = new ProbedSocket();
+        pool.release(LoopbackDevice.IP, socket);
+        final long releasedAt = System.currentTimeMillis();
+
+        pool.evict(releasedAt + Constant.POOL_EVICTION_INTERVAL);
+        assertEquals("recently used socket probed", 0, socket.probes);
+
+        pool.evict(releasedAt + Constant.POOL_PROBE_INTERVAL);
+        assertEquals(1, socket.probes);
+        pool.evict(releasedAt + Constant.POOL_PROBE_INTERVAL + Constant.POOL_EVICTION_INTERVAL);
+        assertEquals("recently probed socket probed again", 1, socket.probes);
+
+        assertSame(socket, pool.acquire(LoopbackDevice.IP, Long.MAX_VALUE));
+    }
+
+    /**
+     * Unconnected socket acting as an idle connection, counting the reads of the pool probe
+     */
+    private static class ProbedSocket extends Socket {
+
+        private int probes;
+
+        @Override
+        public InputStream getInputStream() {
+            probes++;
+            return new InputStream() {
+                @Override
+                public int read() throws SocketTimeoutException {
+                    throw new SocketTimeoutException();//nothing to read, still connected
+                }
+            };
+        }
+    }
+}
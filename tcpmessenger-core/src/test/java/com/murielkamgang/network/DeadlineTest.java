@@ -0,0 +1,91 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void blockingRequestFailsOnceItsDeadlineIsPassed() throws Exception {
+        start(new SocketConfig(0, 5000));
+
+        assertTimesOut(late());
+        assertEquals("next", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "next"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pipelinedRequestFailsOnItsOwn() throws Exception {
+        start(new SocketConfig(0, 5000, true));
+
+        final RequestFuture<String> late = late();
+        final RequestFuture<String> slow =
+                messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "slow", 500), String.class);
+        //the device is still answering, the connection is kept
+        assertEquals("fast", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "fast"), String.class)
+                .get(5, TimeUnit.SECONDS));
+        assertTimesOut(late);
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nioRequestFailsOnceItsDeadlineIsPassed() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.nio = true;
+        start(socketConfig);
+
+        assertTimesOut(late());
+    }
+
+    @Test
+    public void cancelAbortsTheBlockedRequest() throws Exception {
+        start(new SocketConfig(0, 5000));
+
+        final RequestFuture<String> future =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "cancelled"), String.class);
+        assertTrue(device.awaitHeld(1));
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertEquals("next", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "next"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private void start(SocketConfig socketConfig) throws Exception {
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    private RequestFuture<String> late() {
+        final TCPMessenger.Request request = LoopbackDevice.sleep(LoopbackDevice.IP, "late", 3000);
+        request.timeOut = 200;
+        return messenger.sendAsync(request, String.class);
+    }
+
+    private static void assertTimesOut(RequestFuture<String> future) throws Exception {
+        final long start = System.currentTimeMillis();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("deadline not enforced");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+}
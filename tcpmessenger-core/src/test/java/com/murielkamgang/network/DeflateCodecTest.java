@@ -0,0 +1,136 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeflateCodecTest {
+
+    private static final byte[] DICTIONARY = "{\"type\":\"echo\",\"text\":\"".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void messageBelowTheThresholdIsSentRaw() throws Exception {
+        final DeflateCodec codec = new DeflateCodec(new JsonCodec(), 1024);
+        final byte[] bytes = encode(codec, command("small"));
+
+        assertEquals(DeflateCodec.RAW, bytes[0]);
+        assertRoundTrip(codec, bytes, "small");
+    }
+
+    @Test
+    public void messageAboveTheThresholdIsDeflated() throws Exception {
+        final DeflateCodec codec = new DeflateCodec(new JsonCodec(), 1024);
+        final String text = repeated(4096);
+        final byte[] bytes = encode(codec, command(text));
+
+        assertEquals(DeflateCodec.DEFLATED, bytes[0]);
+        assertTrue("deflated to " + bytes.length + " bytes", bytes.length < text.length() / 4);
+        assertRoundTrip(codec, bytes, text);
+    }
+
+    @Test
+    public void incompressibleMessageIsSentRaw() throws Exception {
+        final DeflateCodec codec = new DeflateCodec(new RawCodec(), 0);
+        final byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        final byte[] bytes = encode(codec, random);
+
+        assertEquals(DeflateCodec.RAW, bytes[0]);
+        assertArrayEquals(random, codec.decode(bytes, 0, bytes.length, byte[].class));
+    }
+
+    @Test
+    public void smallMessageIsDeflatedWithTheDictionary() throws Exception {
+        final DeflateCodec codec = new DeflateCodec(new JsonCodec(), 0, Deflater.BEST_COMPRESSION, DICTIONARY);
+        final byte[] bytes = encode(codec, command("hello"));
+
+        assertEquals(DeflateCodec.DEFLATED, bytes[0]);
+        assertRoundTrip(codec, bytes, "hello");
+        for (int i = 0; i < 2; i++) {//pooled inflaters are reset with the dictionary
+            assertRoundTrip(codec, encode(codec, command("hello " + i)), "hello " + i);
+        }
+    }
+
+    @Test
+    public void messageDeflatedWithADictionaryNeedsTheSameOne() throws Exception {
+        final byte[] bytes = encode(new DeflateCodec(new JsonCodec(), 0, Deflater.BEST_COMPRESSION, DICTIONARY),
+                command("hello"));
+        final byte[] other = Arrays.copyOf(DICTIONARY, DICTIONARY.length);
+        other[0] = '[';
+
+        assertCorrupted(new DeflateCodec(new JsonCodec(), 0), bytes);
+        assertCorrupted(new DeflateCodec(new JsonCodec(), 0, Deflater.BEST_COMPRESSION, other), bytes);
+    }
+
+    @Test
+    public void unknownFlagIsRefused() throws Exception {
+        assertCorrupted(new DeflateCodec(new JsonCodec(), 0), new byte[]{2, '{', '}'});
+        assertCorrupted(new DeflateCodec(new JsonCodec(), 0), new byte[0]);
+    }
+
+    @Test
+    public void deflatedMessagesAreExchangedWithTheServer() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.framed = true;
+        socketConfig.codec = new DeflateCodec(new JsonCodec(), 64, Deflater.BEST_SPEED, DICTIONARY);
+        final LoopbackDevice device = new LoopbackDevice(socketConfig);
+        final TCPMessenger messenger = TCPMessenger.getInstance(socketConfig);
+        try {
+            final String text = repeated(4096);
+            assertEquals("small", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "small"), String.class)
+                    .get(5, TimeUnit.SECONDS));
+            assertEquals(text, messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, text), String.class)
+                    .get(5, TimeUnit.SECONDS));
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+            device.shutdown();
+        }
+    }
+
+    private static LoopbackDevice.Command command(String text) {
+        return new LoopbackDevice.Command("echo", text, 0);
+    }
+
+    private static String repeated(int length) {
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("value-").append(text.length() % 10).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static byte[] encode(Codec codec, Object value) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(value, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a message from an array then from a stream
+     */
+    private static void assertRoundTrip(Codec codec, byte[] bytes, String text) throws Exception {
+        assertEquals(text, codec.decode(bytes, 0, bytes.length, LoopbackDevice.Command.class).text);
+        assertEquals(text, codec.decode(new ByteArrayInputStream(bytes), LoopbackDevice.Command.class).text);
+    }
+
+    private static void assertCorrupted(Codec codec, byte[] bytes) throws Exception {
+        try {
+            codec.decode(bytes, 0, bytes.length, LoopbackDevice.Command.class);
+            fail("corrupted message decoded");
+        } catch (StreamCorruptedException e) {
+            //refused
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class FramingTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void framedRoundTrip() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.framed = true;
+        start(socketConfig);
+
+        for (int i = 0; i < 5; i++) {//the pooled socket and read buffers are reused
+            assertEquals("framed-" + i, messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "framed-" + i),
+                    String.class).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void framedPipelinedRoundTrip() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.framed = true;
+        start(socketConfig);
+
+        final List<RequestFuture<String>> futures = new ArrayList<>();
+        futures.add(messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "slow", 300), String.class));
+        for (int i = 0; i < 20; i++) {
+            futures.add(messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "framed-" + i), String.class));
+        }
+
+        assertEquals("slow", futures.get(0).get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("framed-" + i, futures.get(i + 1).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void framedBinaryCodecRoundTrip() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.framed = true;
+        socketConfig.codec = new SmileCodec();
+        start(socketConfig);
+
+        assertEquals("smile", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "smile"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private void start(SocketConfig socketConfig) throws Exception {
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+}
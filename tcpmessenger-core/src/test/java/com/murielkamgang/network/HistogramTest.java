@@ -0,0 +1,65 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    private final Histogram histogram = new Histogram();
+
+    @Test
+    public void emptyHistogramIsZero() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (int value = 0; value < 4; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(0, histogram.getPercentile(25));
+        assertEquals(1, histogram.getPercentile(50));
+        assertEquals(2, histogram.getPercentile(75));
+        assertEquals(3, histogram.getPercentile(100));
+        assertEquals(1.5, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentileIsAnUpperBoundWithinAQuarter() {
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        for (int percentile = 1; percentile <= 100; percentile++) {
+            final long exact = percentile * 10;
+            final long bound = histogram.getPercentile(percentile);
+            assertTrue(percentile + "th percentile " + bound, bound >= exact && bound <= exact * 5 / 4);
+        }
+    }
+
+    @Test
+    public void percentileIsCappedByTheMax() {
+        histogram.record(100);
+
+        assertEquals(100, histogram.getPercentile(50));
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    public void outOfRangeValuesAreRecorded() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+}
@@ -0,0 +1,78 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class InFlightTableTest {
+
+    private final InFlightTable table = new InFlightTable();
+
+    @Test
+    public void recordIsRemovedOnce() {
+        final Completion completion = completion(1);
+        table.put(completion);
+
+        assertSame(completion, table.remove(1));
+        assertNull(table.remove(1));
+    }
+
+    @Test
+    public void unknownIdIsNotRemoved() {
+        table.put(completion(1));
+
+        assertNull(table.remove(2));
+        assertNull(table.remove(1 + Constant.IN_FLIGHT_TABLE_SIZE));//same slot, other request
+    }
+
+    @Test
+    public void requestSharingTheSlotOfAnOlderOneGoesToTheOverflow() {
+        final Completion older = completion(1);
+        final Completion newer = completion(1 + Constant.IN_FLIGHT_TABLE_SIZE);
+        table.put(older);
+        table.put(newer);
+
+        assertSame(newer, table.remove(newer.id));
+        assertSame(older, table.remove(older.id));
+    }
+
+    @Test
+    public void recordWithTheSameIdIsReplaced() {
+        final Completion replaced = completion(1);
+        final Completion completion = completion(1);
+        table.put(replaced);
+        table.put(completion);
+
+        assertSame(completion, table.remove(1));
+        assertNull(table.remove(1));
+    }
+
+    @Test
+    public void removeAllEmptiesTheTable() {
+        final Completion first = completion(1);
+        final Completion second = completion(2);
+        final Completion overflowed = completion(1 + Constant.IN_FLIGHT_TABLE_SIZE);
+        table.put(first);
+        table.put(second);
+        table.put(overflowed);
+
+        final List<Completion> removed = table.removeAll();
+        assertEquals(new HashSet<>(Arrays.asList(first, second, overflowed)), new HashSet<>(removed));
+        assertEquals(3, removed.size());
+        assertNull(table.remove(1));
+        assertNull(table.remove(overflowed.id));
+        assertEquals(0, table.removeAll().size());
+    }
+
+    private static Completion completion(int id) {
+        final Completion completion = RecordingSink.completion(LoopbackDevice.IP, "cmd", 0);
+        completion.id = id;
+        return completion;
+    }
+}
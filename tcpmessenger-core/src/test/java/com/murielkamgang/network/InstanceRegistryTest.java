@@ -0,0 +1,98 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class InstanceRegistryTest {
+
+    @Test
+    public void equalConfigsShareTheirInstance() {
+        final TCPMessenger messenger = TCPMessenger.getInstance(new SocketConfig(4242, 5000));
+        final TCPMessenger other = TCPMessenger.getInstance(new SocketConfig(4243, 5000));
+        try {
+            assertSame(messenger, TCPMessenger.getInstance(new SocketConfig(4242, 5000)));
+            assertNotSame(messenger, other);
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+            TCPMessenger.releaseInstance(other);
+        }
+    }
+
+    @Test
+    public void releasedInstanceIsReplaced() {
+        final TCPMessenger released = TCPMessenger.getInstance(new SocketConfig(4242, 5000));
+        TCPMessenger.releaseInstance(released);
+
+        final TCPMessenger messenger = TCPMessenger.getInstance(new SocketConfig(4242, 5000));
+        try {
+            assertNotSame(released, messenger);
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+        }
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameInstance() throws Exception {
+        final int count = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService callers = Executors.newFixedThreadPool(count);
+        try {
+            final List<Future<TCPMessenger>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(callers.submit(new Callable<TCPMessenger>() {
+                    @Override
+                    public TCPMessenger call() throws Exception {
+                        start.await();
+                        return TCPMessenger.getInstance(new SocketConfig(4242, 5000));
+                    }
+                }));
+            }
+            start.countDown();
+
+            final TCPMessenger messenger = futures.get(0).get(5, TimeUnit.SECONDS);
+            try {
+                for (Future<TCPMessenger> future : futures) {
+                    assertSame(messenger, future.get(5, TimeUnit.SECONDS));
+                }
+            } finally {
+                TCPMessenger.releaseInstance(messenger);
+            }
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void warmUpOpensTheConnectionOfTheFirstRequest() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        final Metrics metrics = new Metrics();
+        socketConfig.metricsListener = metrics;
+        final LoopbackDevice device = new LoopbackDevice(socketConfig);
+        final TCPMessenger messenger = TCPMessenger.getInstance(socketConfig);
+        try {
+            messenger.warmUp(Collections.singletonList(LoopbackDevice.IP), String.class).get(5, TimeUnit.SECONDS);
+            assertEquals(1, metrics.getHost(LoopbackDevice.IP).getConnect().getCount());
+
+            assertEquals("warm", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "warm"), String.class)
+                    .get(5, TimeUnit.SECONDS));
+            assertEquals(1, metrics.getHost(LoopbackDevice.IP).getConnect().getCount());
+            assertEquals(1, metrics.getHost(LoopbackDevice.IP).getPoolHits());
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+            device.shutdown();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class JacksonCodecTest {
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        assertRoundTrip(new JsonCodec());
+    }
+
+    @Test
+    public void smileRoundTrip() throws Exception {
+        assertRoundTrip(new SmileCodec());
+    }
+
+    @Test
+    public void cborRoundTrip() throws Exception {
+        assertRoundTrip(new CborCodec());
+    }
+
+    @Test
+    public void consecutiveValuesAreDecodedFromOneStream() throws Exception {
+        final JsonCodec codec = new JsonCodec();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(new LoopbackDevice.Command("echo", "first", 0), out);
+        codec.encode(new LoopbackDevice.Command("echo", "second", 0), out);
+
+        final JsonParser parser = codec.getObjectMapper().getFactory()
+                .createParser(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("first", codec.decode(parser, LoopbackDevice.Command.class).text);
+        assertEquals("second", codec.decode(parser, LoopbackDevice.Command.class).text);
+    }
+
+    /**
+     * Encode a command then decode it from an offset in a larger array, twice to go through the cached reader and
+     * writer
+     */
+    private static void assertRoundTrip(JacksonCodec codec) throws Exception {
+        for (int i = 0; i < 2; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(new byte[3]);
+            codec.encode(new LoopbackDevice.Command("sleep", "text-" + i, 42), out);
+            final byte[] bytes = out.toByteArray();
+
+            final LoopbackDevice.Command decoded =
+                    codec.decode(bytes, 3, bytes.length - 3, LoopbackDevice.Command.class);
+            assertEquals("sleep", decoded.type);
+            assertEquals("text-" + i, decoded.text);
+            assertEquals(42, decoded.delay);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fake device for the tests, a {@link TCPMessengerServer} on a free local port.
+ * <p>
+ * <p>It answers {@code "echo"} commands with their text, {@code "sleep"} commands with their text after their
+ * delay, {@code "hold"} commands with their text once {@link #release()} is called, {@code "split"} commands with
+ * the array of the comma separated parts of their text, and fail {@code "fail"}
+ * commands, which close the connection unless pipelined.</p>
+ */
+class LoopbackDevice {
+
+    static final String IP = "127.0.0.1";
+
+    /**
+     * Number of commands handled, failed ones included
+     */
+    final AtomicInteger handled = new AtomicInteger();
+
+    /**
+     * Released once per {@code "hold"} command received
+     */
+    private final Semaphore held = new Semaphore(0);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final TCPMessengerServer server;
+    private final ExecutorService handlerExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Start a device with the modes and codec of a socket config, its port is then set to the one of the device
+     *
+     * @param socketConfig the socket config shared with the {@link TCPMessenger} under test
+     * @throws IOException if the server could not be started
+     */
+    LoopbackDevice(SocketConfig socketConfig) throws IOException {
+        socketConfig.port = 0;
+        server = new TCPMessengerServer(socketConfig, handlerExecutor);
+        server.setDefaultHandler(Command.class, new TCPMessengerServer.Handler<Command>() {
+            @Override
+            public Object handle(String ip, Command command) throws Exception {
+                handled.incrementAndGet();
+                switch (command.type) {
+                    case "echo":
+                        return command.text;
+                    case "split":
+                        return command.text.split(",");
+                    case "sleep":
+                        Thread.sleep(command.delay);
+                        return command.text;
+                    case "hold":
+                        held.release();
+                        released.await();
+                        return command.text;
+                    default:
+                        throw new IOException("failing command " + command.type);
+                }
+            }
+        });
+        server.start();
+        socketConfig.port = server.getPort();
+    }
+
+    /**
+     * @param message the message to push to every connected client, in pipelined mode only
+     */
+    void push(Object message) {
+        server.push(null, message);
+    }
+
+    /**
+     * @param count the number of {@code "hold"} commands expected
+     * @return true once that many were received, false if not within 5s
+     */
+    boolean awaitHeld(int count) throws InterruptedException {
+        return held.tryAcquire(count, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Answer every {@code "hold"} command, received or to come
+     */
+    void release() {
+        released.countDown();
+    }
+
+    void shutdown() {
+        release();
+        server.shutdown();
+        handlerExecutor.shutdownNow();
+    }
+
+    static TCPMessenger.Request echo(String ip, String text) {
+        return new TCPMessenger.Request(ip, new Command("echo", text, 0));
+    }
+
+    static TCPMessenger.Request sleep(String ip, String text, int delay) {
+        return new TCPMessenger.Request(ip, new Command("sleep", text, delay));
+    }
+
+    static TCPMessenger.Request hold(String ip, String text) {
+        return new TCPMessenger.Request(ip, new Command("hold", text, 0));
+    }
+
+    static TCPMessenger.Request split(String ip, String text) {
+        return new TCPMessenger.Request(ip, new Command("split", text, 0));
+    }
+
+    static TCPMessenger.Request fail(String ip) {
+        return new TCPMessenger.Request(ip, new Command("fail", null, 0));
+    }
+
+    public static class Command {
+
+        public String type;
+        public String text;
+        public int delay;
+
+        public Command() {
+        }
+
+        Command(String type, String text, int delay) {
+            this.type = type;
+            this.text = text;
+            this.delay = delay;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MetricsTest {
+
+    private final Metrics metrics = new Metrics();
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void requestsAreRecordedPerHost() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.metricsListener = metrics;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+
+        assertNull(metrics.getHost(LoopbackDevice.IP));
+        messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "first"), String.class).get(5, TimeUnit.SECONDS);
+        messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "second"), String.class).get(5, TimeUnit.SECONDS);
+        try {
+            messenger.sendAsync(LoopbackDevice.fail(LoopbackDevice.IP), String.class).get(5, TimeUnit.SECONDS);
+            fail("command did not fail");
+        } catch (ExecutionException e) {
+            //connection closed by the device
+        }
+
+        final Metrics.HostMetrics host = metrics.getHost(LoopbackDevice.IP);
+        assertEquals(3, host.getRequests());
+        assertEquals(0, host.getInFlight());
+        assertEquals(1, host.getErrors());
+        assertEquals(0, host.getTimeouts());
+        assertEquals(3, host.getLatency().getCount());
+        assertEquals(1, host.getPoolMisses());
+        assertEquals(2, host.getPoolHits());
+        assertEquals(1, host.getConnect().getCount());
+        assertEquals(3, host.getWrite().getCount());
+    }
+}
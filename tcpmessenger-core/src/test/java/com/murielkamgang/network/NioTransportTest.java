@@ -0,0 +1,124 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest {
+
+    private LoopbackDevice device;
+    private ServerSocket serverSocket;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() throws Exception {
+        if (messenger != null) {
+            TCPMessenger.releaseInstance(messenger);
+        }
+        if (device != null) {
+            device.shutdown();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void connectsWithoutTimeOut() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 0);
+        socketConfig.nio = true;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+
+        assertEquals("hello", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "hello"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pipelinedRoundTrip() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.nio = true;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+
+        final RequestFuture<String> slow =
+                messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "slow", 300), String.class);
+        final RequestFuture<String> fast =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "fast"), String.class);
+        assertEquals("fast", fast.get(5, TimeUnit.SECONDS));
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void envelopeWithoutResponseOnlyFailsItsConnection() throws Exception {
+        serverSocket = new ServerSocket(0);
+        startBrokenDevice();
+        final SocketConfig socketConfig = new SocketConfig(serverSocket.getLocalPort(), 5000, true);
+        socketConfig.nio = true;
+        messenger = TCPMessenger.getInstance(socketConfig);
+
+        try {
+            messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "first"), String.class)
+                    .get(5, TimeUnit.SECONDS);
+            fail("envelope without response was accepted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StreamCorruptedException);
+        }
+        //the event loop is still running
+        assertEquals("second", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "second"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Start a device answering the first pipelined command with an envelope without response, and the next ones
+     * with the text of the command
+     */
+    private void startBrokenDevice() {
+        final AtomicBoolean broken = new AtomicBoolean(true);
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final ObjectMapper mapper = new ObjectMapper();
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        final JsonParser parser = mapper.getFactory().createParser(socket.getInputStream());
+                        final OutputStream out = socket.getOutputStream();
+                        while (parser.nextToken() != null) {
+                            final JsonNode envelope = mapper.readTree(parser);
+                            final ObjectNode reply = mapper.createObjectNode();
+                            reply.set(Constant.ENVELOPE_ID, envelope.get(Constant.ENVELOPE_ID));
+                            if (!broken.getAndSet(false)) {
+                                reply.set(Constant.ENVELOPE_RESPONSE,
+                                        envelope.get(Constant.ENVELOPE_CMD).get("text"));
+                            }
+                            out.write(mapper.writeValueAsBytes(reply));
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    //closed by the test
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
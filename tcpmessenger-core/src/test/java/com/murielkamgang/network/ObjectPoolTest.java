@@ -0,0 +1,63 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ObjectPoolTest {
+
+    @Test
+    public void releasedObjectIsReused() {
+        final CountingPool pool = new CountingPool();
+        final Object object = pool.acquire();
+        pool.release(object);
+
+        assertSame(object, pool.acquire());
+        assertEquals(1, pool.created);
+    }
+
+    @Test
+    public void objectsBeyondThePoolSizeAreDiscarded() {
+        final CountingPool pool = new CountingPool();
+        final List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < Constant.OBJECT_POOL_SIZE + 3; i++) {
+            objects.add(pool.acquire());
+        }
+        for (Object object : objects) {
+            pool.release(object);
+        }
+        assertEquals(3, pool.discarded.size());
+
+        final Set<Object> reused = new HashSet<>();
+        for (int i = 0; i < Constant.OBJECT_POOL_SIZE; i++) {
+            reused.add(pool.acquire());
+        }
+        assertEquals(Constant.OBJECT_POOL_SIZE, reused.size());
+        assertEquals(Constant.OBJECT_POOL_SIZE + 3, pool.created);
+        pool.acquire();
+        assertEquals("pool not emptied", Constant.OBJECT_POOL_SIZE + 4, pool.created);
+    }
+
+    private static class CountingPool extends ObjectPool<Object> {
+
+        private final List<Object> discarded = new ArrayList<>();
+        private int created;
+
+        @Override
+        protected Object create() {
+            created++;
+            return new Object();
+        }
+
+        @Override
+        protected void discard(Object object) {
+            discarded.add(object);
+        }
+    }
+}
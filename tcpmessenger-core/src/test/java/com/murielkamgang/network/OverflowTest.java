@@ -0,0 +1,172 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OverflowTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        if (messenger != null) {
+            TCPMessenger.releaseInstance(messenger);
+            device.shutdown();
+        }
+    }
+
+    @Test
+    public void requestSentWhileTheQueueIsFullIsRejected() throws Exception {
+        start(SocketConfig.OVERFLOW_REJECT);
+
+        final RequestFuture<String> running = holdOne();
+        final RequestFuture<String> queued =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "queued"), String.class);
+        assertRejected(messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "rejected"), String.class));
+
+        device.release();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void backgroundCallerWaitsForRoom() throws Exception {
+        assertFalse(CallbackExecutors.isMainThread());
+        start(SocketConfig.OVERFLOW_BLOCK);
+
+        final RequestFuture<String> running = holdOne();
+        final RequestFuture<String> queued =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "queued"), String.class);
+        final CountDownLatch sent = new CountDownLatch(1);
+        final AtomicReference<RequestFuture<String>> blocked = new AtomicReference<>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                blocked.set(messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "blocked"), String.class));
+                sent.countDown();
+            }
+        }).start();
+        assertFalse("caller not blocked by the full queue", sent.await(200, TimeUnit.MILLISECONDS));
+
+        device.release();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        assertEquals("blocked", blocked.get().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestSentWhileTheQueueIsFullSharesAQueuedOne() throws Exception {
+        start(SocketConfig.OVERFLOW_COALESCE);
+
+        final RequestFuture<String> running = holdOne();
+        final RequestFuture<String> queued =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class);
+        final RequestFuture<String> joined =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class);
+        assertRejected(messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "other"), String.class));
+
+        device.release();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("shared", queued.get(5, TimeUnit.SECONDS));
+        assertEquals("shared", joined.get(5, TimeUnit.SECONDS));
+        assertEquals(2, device.handled.get());
+    }
+
+    @Test
+    public void coalescingKeepsRequestsCancellable() throws Exception {
+        start(SocketConfig.OVERFLOW_COALESCE);
+
+        final RequestFuture<String> running = holdOne();
+        running.cancel(true);
+
+        //the socket of the cancelled request is aborted, which free the only slot of the host
+        assertEquals("next", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "next"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void adaptiveLimitShrinksOncePerRoundTrip() {
+        final RecordingSink sink = new RecordingSink();
+        final RequestScheduler scheduler = adaptiveScheduler(sink);
+        for (int i = 0; i < 10; i++) {
+            scheduler.submit(RecordingSink.completion(LoopbackDevice.IP, "cmd", 0));
+        }
+        assertEquals(Constant.ADAPTIVE_LIMIT_INITIAL, sink.dispatched.size());
+
+        //4 * 0.9, the timeouts of requests sent before the first decrease do not decrease the limit again
+        for (int i = 0; i < 3; i++) {
+            timeOut(scheduler, sink.dispatched.get(i));
+        }
+        assertEquals(Constant.ADAPTIVE_LIMIT_INITIAL + 2, sink.dispatched.size());
+    }
+
+    @Test
+    public void adaptiveLimitNeverDropsBelowOne() {
+        final RecordingSink sink = new RecordingSink();
+        final RequestScheduler scheduler = adaptiveScheduler(sink);
+        for (int i = 0; i < 100; i++) {
+            scheduler.submit(RecordingSink.completion(LoopbackDevice.IP, "cmd", 0));
+        }
+
+        for (int i = 0; i < 60; i++) {//oldest first, so later ones time out after a decrease
+            timeOut(scheduler, sink.dispatched.get(i));
+        }
+        assertEquals(1, sink.dispatched.size() - 60);
+        timeOut(scheduler, sink.dispatched.get(60));
+        assertEquals(1, sink.dispatched.size() - 61);
+    }
+
+    private static RequestScheduler adaptiveScheduler(RecordingSink sink) {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxRequestsPerHost = 8;
+        socketConfig.adaptiveLimit = true;
+        return new RequestScheduler(socketConfig, 0, sink);
+    }
+
+    private static void timeOut(RequestScheduler scheduler, Completion completion) {
+        scheduler.onDone(completion.request.ip, completion.dispatchedAt, new SocketTimeoutException());
+    }
+
+    /**
+     * Send a request the device hold until released, it take the only slot of the host
+     *
+     * @return the future of the held request
+     */
+    private RequestFuture<String> holdOne() throws InterruptedException {
+        final RequestFuture<String> running =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "running"), String.class);
+        assertTrue(device.awaitHeld(1));
+        return running;
+    }
+
+    private static void assertRejected(RequestFuture<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("queue bound not enforced");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueueFullException);
+        }
+    }
+
+    private void start(int overflowPolicy) throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxRequestsPerHost = 1;
+        socketConfig.maxQueuedPerHost = 1;
+        socketConfig.overflowPolicy = overflowPolicy;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+}
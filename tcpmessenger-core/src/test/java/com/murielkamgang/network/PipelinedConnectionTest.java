@@ -0,0 +1,143 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedConnectionTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+        port = socketConfig.port;
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void responsesAreMatchedToTheirRequest() throws Exception {
+        final List<RequestFuture<String>> futures = new ArrayList<>();
+        futures.add(messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "slow", 300), String.class));
+        for (int i = 0; i < 20; i++) {
+            futures.add(messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "echo-" + i), String.class));
+        }
+
+        assertEquals("slow", futures.get(0).get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("echo-" + i, futures.get(i + 1).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void concurrentFirstRequestsShareTheConnect() throws Exception {
+        final List<RequestFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(messenger.sendAsync(LoopbackDevice.echo("localhost", "echo-" + i), String.class));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("echo-" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void failedConnectFailsEveryWaitingRequest() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        serverSocket.close();//nothing listens on that port anymore
+        final TCPMessenger unreachable =
+                TCPMessenger.getInstance(new SocketConfig(serverSocket.getLocalPort(), 5000, true));
+        try {
+            final List<RequestFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(unreachable.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "echo-" + i),
+                        String.class));
+            }
+
+            for (RequestFuture<String> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail("connect did not fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SocketException);
+                }
+            }
+        } finally {
+            TCPMessenger.releaseInstance(unreachable);
+        }
+    }
+
+    @Test
+    public void idleConnectionIsClosedAfterTheIdleTimeOut() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(port, 5000, true);
+        socketConfig.idleTimeOut = 60000;
+        final Watchdog watchdog = new Watchdog();
+        final PipelinedConnection connection = new PipelinedConnection(LoopbackDevice.IP,
+                new Socket(LoopbackDevice.IP, port), socketConfig, new JsonCodec(), new BufferPool(),
+                new ResponseListener() {
+                    @Override
+                    public void onResponse(TCPMessenger.Request request, Object response) {
+                    }
+
+                    @Override
+                    public void onError(TCPMessenger.Request request, Throwable throwable) {
+                    }
+
+                    @Override
+                    public void onPush(String ip, Object message) {
+                    }
+                }, watchdog);
+        try {
+            final long now = System.currentTimeMillis();
+            connection.check(now + socketConfig.timeOut);
+            assertTrue("closed after the socket time out", connection.isOpen());
+            connection.check(now + socketConfig.idleTimeOut);
+            assertFalse(connection.isOpen());
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    @Test
+    public void commandFailingToEncodeOnlyFailsItsRequest() throws Exception {
+        final RequestFuture<String> held =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "held"), String.class);
+        assertTrue(device.awaitHeld(1));//in flight on the connection
+        final RequestFuture<String> invalid =
+                messenger.sendAsync(new TCPMessenger.Request(LoopbackDevice.IP, new Object()), String.class);
+
+        try {
+            invalid.get(5, TimeUnit.SECONDS);
+            fail("command without serializer was sent");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        device.release();
+        assertEquals("held", held.get(5, TimeUnit.SECONDS));
+        assertEquals("after", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "after"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+}
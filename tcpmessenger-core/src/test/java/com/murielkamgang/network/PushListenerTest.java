@@ -0,0 +1,56 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PushListenerTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void pushedMessagesReachEveryListener() throws Exception {
+        final BlockingQueue<String> received = new ArrayBlockingQueue<>(10);
+        messenger.addPushListener(LoopbackDevice.IP, String.class, new TCPMessenger.PushListener<String>() {
+            @Override
+            public void onPush(String ip, String message) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        messenger.addPushListener(LoopbackDevice.IP, String.class, new TCPMessenger.PushListener<String>() {
+            @Override
+            public void onPush(String ip, String message) {
+                received.add(message);
+            }
+        });
+        //the connection is open once a request went through it
+        assertEquals("open", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "open"), String.class)
+                .get(5, TimeUnit.SECONDS));
+
+        device.push("first");
+        device.push("second");
+        assertEquals("first", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("second", received.poll(5, TimeUnit.SECONDS));
+    }
+}
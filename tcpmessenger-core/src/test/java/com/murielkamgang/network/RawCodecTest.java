@@ -0,0 +1,91 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RawCodecTest {
+
+    private static final String TEXT = "h\u00e9llo";
+    private static final byte[] BYTES = TEXT.getBytes(StandardCharsets.UTF_8);
+
+    private final RawCodec codec = new RawCodec();
+
+    @Test
+    public void bytesBuffersAndStringsAreEncodedAsIs() throws Exception {
+        assertArrayEquals(BYTES, encode(BYTES));
+        assertArrayEquals(BYTES, encode(TEXT));
+        assertArrayEquals(BYTES, encode(new StringBuilder(TEXT)));
+
+        final ByteBuffer heap = ByteBuffer.allocate(BYTES.length + 2);
+        heap.put((byte) 0).put(BYTES).flip().position(1);
+        assertArrayEquals(BYTES, encode(heap.slice()));
+        assertArrayEquals(BYTES, encode(heap));
+        assertEquals("buffer left untouched", 1, heap.position());
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(BYTES.length);
+        direct.put(BYTES).flip();
+        assertArrayEquals(BYTES, encode(direct));
+        assertEquals("buffer left untouched", 0, direct.position());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherCommandIsRefused() throws Exception {
+        encode(42);
+    }
+
+    @Test
+    public void frameIsDecodedToEveryResponseType() throws Exception {
+        final byte[] frame = new byte[BYTES.length + 2];
+        System.arraycopy(BYTES, 0, frame, 1, BYTES.length);
+
+        assertArrayEquals(BYTES, codec.decode(frame, 1, BYTES.length, byte[].class));
+        assertArrayEquals(BYTES, (byte[]) codec.decode(frame, 1, BYTES.length, Object.class));
+        assertEquals(ByteBuffer.wrap(BYTES), codec.decode(frame, 1, BYTES.length, ByteBuffer.class));
+        assertEquals(TEXT, codec.decode(frame, 1, BYTES.length, String.class));
+        assertArrayEquals(BYTES, codec.decode(frame, 1, BYTES.length, RawResponse.class).toByteArray());
+        assertEquals(TEXT, codec.decode(new ByteArrayInputStream(BYTES), String.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherResponseTypeIsRefused() throws Exception {
+        codec.decode(BYTES, 0, BYTES.length, Integer.class);
+    }
+
+    @Test
+    public void rawCommandIsAnsweredWithTheFrameOfTheResponse() throws Exception {
+        final SocketConfig deviceConfig = new SocketConfig(0, 5000);
+        deviceConfig.framed = true;
+        final LoopbackDevice device = new LoopbackDevice(deviceConfig);
+        final SocketConfig socketConfig = new SocketConfig(deviceConfig.port, 5000);
+        socketConfig.framed = true;
+        socketConfig.codec = codec;
+        final TCPMessenger messenger = TCPMessenger.getInstance(socketConfig);
+        try {
+            final TCPMessenger.Request request = new TCPMessenger.Request(LoopbackDevice.IP,
+                    "{\"type\":\"echo\",\"text\":\"raw\"}");
+            try (RawResponse response = messenger.sendAsync(request, RawResponse.class).get(5, TimeUnit.SECONDS)) {
+                assertEquals("\"raw\"", new String(response.toByteArray(), StandardCharsets.UTF_8));
+            }
+            assertEquals("\"raw\"", messenger.sendAsync(request, String.class).get(5, TimeUnit.SECONDS));
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+            device.shutdown();
+        }
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(value, out);
+        return out.toByteArray();
+    }
+}
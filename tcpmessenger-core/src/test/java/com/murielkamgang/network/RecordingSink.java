@@ -0,0 +1,50 @@
+package com.murielkamgang.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link RequestScheduler.Sink} recording what the scheduler does, to test it without a transport
+ */
+class RecordingSink implements RequestScheduler.Sink {
+
+    final List<Completion> dispatched = new ArrayList<>();
+    final List<Completion> overflowed = new ArrayList<>();
+
+    @Override
+    public void dispatch(Completion completion) {
+        dispatched.add(completion);
+    }
+
+    @Override
+    public void reject(Completion completion, RuntimeException error) {
+        throw new AssertionError("rejected " + completion.request, error);
+    }
+
+    @Override
+    public void overflow(Completion completion, IOException error) {
+        overflowed.add(completion);
+    }
+
+    @Override
+    public CommandKey keyOf(Completion completion) {
+        return new CommandKey(completion.request.ip, String.valueOf(completion.request.cmd).getBytes(),
+                completion.responseClass);
+    }
+
+    /**
+     * @param ip       the host ip
+     * @param cmd      the command
+     * @param priority the priority of the request
+     * @return the record of a new request
+     */
+    static Completion completion(String ip, Object cmd, int priority) {
+        final TCPMessenger.Request request = new TCPMessenger.Request(ip, cmd);
+        request.priority = priority;
+        final Completion completion = Completion.obtain(null, request, String.class, null,
+                new RequestFuture<String>());
+        completion.deadline = Long.MAX_VALUE;
+        return completion;
+    }
+}
@@ -0,0 +1,134 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestFutureTest {
+
+    @Test
+    public void futureIsCompletedOnce() throws Exception {
+        final RequestFuture<String> future = new RequestFuture<>();
+        assertFalse(future.isDone());
+
+        assertTrue(future.complete("first", null));
+        assertFalse(future.complete("second", null));
+        assertFalse(future.cancel(true));
+        assertTrue(future.isDone());
+        assertEquals("first", future.get());
+    }
+
+    @Test
+    public void errorIsReportedByGet() throws Exception {
+        final RequestFuture<String> future = new RequestFuture<>();
+        final Exception error = new Exception();
+        future.complete(null, error);
+
+        try {
+            future.get();
+            fail("error not reported");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void cancelledFutureIsNotCompleted() throws Exception {
+        final RequestFuture<String> future = new RequestFuture<>();
+        assertTrue(future.cancel(true));
+
+        assertFalse(future.complete("late", null));
+        assertTrue(future.isCancelled());
+        try {
+            future.get();
+            fail("cancellation not reported");
+        } catch (CancellationException e) {
+            //cancelled before its response
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void pendingFutureTimesOut() throws Exception {
+        new RequestFuture<String>().get(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void listenersAreNotifiedBeforeAndAfterCompletion() {
+        final RequestFuture<String> future = new RequestFuture<>();
+        final RecordingListener before = new RecordingListener();
+        future.addListener(before, CallbackExecutors.direct());
+        assertNull(before.response.get());
+
+        future.complete("response", null);
+        final RecordingListener after = new RecordingListener();
+        future.addListener(after, CallbackExecutors.direct());
+        assertEquals("response", before.response.get());
+        assertEquals("response", after.response.get());
+    }
+
+    @Test
+    public void cancelledFutureNotifiesACancellation() {
+        final RequestFuture<String> future = new RequestFuture<>();
+        final RecordingListener listener = new RecordingListener();
+        future.addListener(listener, CallbackExecutors.direct());
+        future.cancel(false);
+
+        assertTrue(listener.error.get() instanceof CancellationException);
+    }
+
+    @Test
+    public void mappedFutureGetsTheMappedResponseOrTheError() throws Exception {
+        final RequestFuture<String> future = new RequestFuture<>();
+        final RequestFuture<Integer> length = future.map(new RequestFuture.Function<String, Integer>() {
+            @Override
+            public Integer apply(String s) {
+                return s.length();
+            }
+        }, CallbackExecutors.direct());
+        future.complete("four", null);
+        assertEquals(Integer.valueOf(4), length.get());
+
+        final RequestFuture<String> failed = new RequestFuture<>();
+        final RequestFuture<Integer> failedLength = failed.map(new RequestFuture.Function<String, Integer>() {
+            @Override
+            public Integer apply(String s) {
+                return s.length();
+            }
+        }, CallbackExecutors.direct());
+        final Exception error = new Exception();
+        failed.complete(null, error);
+        try {
+            failedLength.get();
+            fail("error not forwarded");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    private static class RecordingListener implements RequestFuture.Listener<String> {
+
+        private final AtomicReference<String> response = new AtomicReference<>();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onResponse(String s) {
+            response.set(s);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+    }
+}
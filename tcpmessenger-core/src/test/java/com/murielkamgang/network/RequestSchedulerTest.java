@@ -0,0 +1,99 @@
+package com.murielkamgang.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RequestSchedulerTest {
+
+    private static final String OTHER_IP = "localhost";
+
+    private final RecordingSink sink = new RecordingSink();
+
+    @Test
+    public void higherPriorityGoesFirst() {
+        final RequestScheduler scheduler = scheduler(1, 0);
+        submit(scheduler, LoopbackDevice.IP, "running", 0);
+        submit(scheduler, LoopbackDevice.IP, "low", -1);
+        submit(scheduler, LoopbackDevice.IP, "first", 0);
+        submit(scheduler, LoopbackDevice.IP, "high", 1);
+        submit(scheduler, LoopbackDevice.IP, "second", 0);
+        assertDispatched("running");
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.onDone(LoopbackDevice.IP, 0, null);
+        }
+        assertDispatched("running", "high", "first", "second", "low");
+    }
+
+    @Test
+    public void hostLimitDoesNotDelayOtherHosts() {
+        final RequestScheduler scheduler = scheduler(1, 0);
+        submit(scheduler, LoopbackDevice.IP, "running", 0);
+        submit(scheduler, LoopbackDevice.IP, "queued", 0);
+        submit(scheduler, OTHER_IP, "other", 0);
+        assertDispatched("running", "other");
+
+        scheduler.onDone(OTHER_IP, 0, null);
+        assertDispatched("running", "other");
+        scheduler.onDone(LoopbackDevice.IP, 0, null);
+        assertDispatched("running", "other", "queued");
+    }
+
+    @Test
+    public void hostsAreServedRoundRobin() {
+        final RequestScheduler scheduler = scheduler(10, 1);
+        submit(scheduler, LoopbackDevice.IP, "a1", 0);
+        submit(scheduler, LoopbackDevice.IP, "a2", 0);
+        submit(scheduler, LoopbackDevice.IP, "a3", 0);
+        submit(scheduler, OTHER_IP, "b1", 0);
+        submit(scheduler, OTHER_IP, "b2", 0);
+        assertDispatched("a1");
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.onExecuted();
+        }
+        assertDispatched("a1", "a2", "b1", "a3", "b2");
+    }
+
+    @Test
+    public void oldestQueuedRequestIsDroppedWhenTheQueueIsFull() {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxRequestsPerHost = 1;
+        socketConfig.maxQueuedPerHost = 2;
+        socketConfig.overflowPolicy = SocketConfig.OVERFLOW_DROP_OLDEST;
+        final RequestScheduler scheduler = new RequestScheduler(socketConfig, 0, sink);
+        submit(scheduler, LoopbackDevice.IP, "running", 0);
+        submit(scheduler, LoopbackDevice.IP, "oldest", 0);
+        submit(scheduler, LoopbackDevice.IP, "queued", 0);
+        submit(scheduler, LoopbackDevice.IP, "newest", 0);
+
+        assertEquals(1, sink.overflowed.size());
+        assertEquals("oldest", sink.overflowed.get(0).request.cmd);
+        scheduler.onDone(LoopbackDevice.IP, 0, null);
+        scheduler.onDone(LoopbackDevice.IP, 0, null);
+        assertDispatched("running", "queued", "newest");
+    }
+
+    private RequestScheduler scheduler(int maxRequestsPerHost, int maxRunning) {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxRequestsPerHost = maxRequestsPerHost;
+        return new RequestScheduler(socketConfig, maxRunning, sink);
+    }
+
+    private static void submit(RequestScheduler scheduler, String ip, String cmd, int priority) {
+        scheduler.submit(RecordingSink.completion(ip, cmd, priority));
+    }
+
+    private void assertDispatched(String... cmds) {
+        final List<Object> dispatched = new ArrayList<>();
+        for (Completion completion : sink.dispatched) {
+            dispatched.add(completion.request.cmd);
+        }
+        assertEquals(Arrays.asList((Object[]) cmds), dispatched);
+    }
+}
@@ -0,0 +1,73 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.responseCacheSize = 16;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void identicalCommandIsServedFromTheCache() throws Exception {
+        assertEquals("cached", send("cached", 10000));
+        assertEquals("cached", send("cached", 10000));
+        assertEquals(1, device.handled.get());
+
+        assertEquals("other", send("other", 10000));
+        assertEquals(2, device.handled.get());
+    }
+
+    @Test
+    public void expiredResponseIsNotServed() {
+        final ResponseCache cache = new ResponseCache(16);
+        final CommandKey expired = new CommandKey(LoopbackDevice.IP, "expired".getBytes(), String.class);
+        final CommandKey fresh = new CommandKey(LoopbackDevice.IP, "fresh".getBytes(), String.class);
+        cache.put(expired, "expired", 0);
+        cache.put(fresh, "fresh", 60000);
+
+        assertNull(cache.get(expired));
+        assertEquals("fresh", cache.get(fresh));
+    }
+
+    @Test
+    public void invalidatedResponseIsFetchedAgain() throws Exception {
+        assertEquals("cached", send("cached", 10000));
+        messenger.invalidateCache(LoopbackDevice.echo(LoopbackDevice.IP, "cached"));
+        assertEquals("cached", send("cached", 10000));
+        assertEquals(2, device.handled.get());
+    }
+
+    @Test
+    public void requestWithoutTtlIsNotCached() throws Exception {
+        assertEquals("cached", send("cached", 0));
+        assertEquals("cached", send("cached", 0));
+        assertEquals(2, device.handled.get());
+    }
+
+    private String send(String text, long cacheTtl) throws Exception {
+        final TCPMessenger.Request request = LoopbackDevice.echo(LoopbackDevice.IP, text);
+        request.cacheTtl = cacheTtl;
+        return messenger.sendAsync(request, String.class).get(5, TimeUnit.SECONDS);
+    }
+}
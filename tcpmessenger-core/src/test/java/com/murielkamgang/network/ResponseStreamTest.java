@@ -0,0 +1,126 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResponseStreamTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void everyElementIsDeliveredThenTheStreamCompletes() throws Exception {
+        start();
+        final RecordingStreamCallback callback = new RecordingStreamCallback();
+
+        messenger.sendStream(LoopbackDevice.split(LoopbackDevice.IP, "a,b,c"), String.class, callback)
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(callback.ended.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "c"), callback.elements);
+        assertNull(callback.error.get());
+    }
+
+    @Test
+    public void streamLongerThanTheReadAheadIsDeliveredInOrder() throws Exception {
+        start();
+        final List<String> expected = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Constant.STREAM_WINDOW * 10; i++) {
+            expected.add(String.valueOf(i));
+            text.append(i).append(',');
+        }
+        final RecordingStreamCallback callback = new RecordingStreamCallback();
+
+        messenger.sendStream(LoopbackDevice.split(LoopbackDevice.IP, text.toString()), String.class, callback)
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(callback.ended.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, callback.elements);
+    }
+
+    @Test
+    public void callbackThrowingFailsTheStream() throws Exception {
+        start();
+        final IllegalStateException thrown = new IllegalStateException("element refused");
+        final RecordingStreamCallback callback = new RecordingStreamCallback() {
+            @Override
+            public void onElement(TCPMessenger.Request request, String s) {
+                super.onElement(request, s);
+                throw thrown;
+            }
+        };
+
+        try {
+            messenger.sendStream(LoopbackDevice.split(LoopbackDevice.IP, "a,b,c"), String.class, callback)
+                    .get(5, TimeUnit.SECONDS);
+            fail("stream not failed");
+        } catch (ExecutionException e) {
+            assertSame(thrown, e.getCause());
+        }
+        assertTrue(callback.ended.await(5, TimeUnit.SECONDS));
+        assertSame(thrown, callback.error.get());
+        assertEquals(Arrays.asList("a"), callback.elements);
+    }
+
+    @Test
+    public void cancelledStreamFreesItsHost() throws Exception {
+        start();
+        final RequestFuture<Void> stream = messenger.sendStream(LoopbackDevice.hold(LoopbackDevice.IP, "held"),
+                String.class, new RecordingStreamCallback());
+        assertTrue(device.awaitHeld(1));
+
+        assertTrue(stream.cancel(true));
+        assertTrue(stream.isCancelled());
+        assertEquals("next", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "next"), String.class)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private void start() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    private static class RecordingStreamCallback implements TCPMessenger.StreamCallback<String> {
+
+        final List<String> elements = new ArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        @Override
+        public void onElement(TCPMessenger.Request request, String s) {
+            elements.add(s);
+        }
+
+        @Override
+        public void onComplete(TCPMessenger.Request request) {
+            ended.countDown();
+        }
+
+        @Override
+        public void onError(TCPMessenger.Request request, Throwable throwable) {
+            error.set(throwable);
+            ended.countDown();
+        }
+    }
+}
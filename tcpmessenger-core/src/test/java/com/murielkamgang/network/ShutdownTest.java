@@ -0,0 +1,95 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShutdownTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @After
+    public void tearDown() {
+        device.shutdown();
+    }
+
+    @Test
+    public void requestsWaitingForTheirWindowFail() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.coalescingWindow = 60000;
+        start(socketConfig);
+
+        final RequestFuture<String> batched =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "batched"), String.class);
+        final RecordingCallback callback = new RecordingCallback();
+        messenger.sendCommand(LoopbackDevice.echo(LoopbackDevice.IP, "notified"), String.class, callback);
+        TCPMessenger.releaseInstance(messenger);
+
+        assertRejected(batched);
+        assertTrue(callback.invoked.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.error.get() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void runningQueuedAndJoinedRequestsFail() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxRequestsPerHost = 1;
+        socketConfig.maxQueuedPerHost = 1;
+        socketConfig.overflowPolicy = SocketConfig.OVERFLOW_COALESCE;
+        start(socketConfig);
+
+        final RequestFuture<String> running =
+                messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "running"), String.class);
+        assertTrue(device.awaitHeld(1));
+        final RequestFuture<String> queued =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class);
+        final RequestFuture<String> joined =
+                messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class);
+        TCPMessenger.releaseInstance(messenger);
+
+        assertRejected(running);
+        assertRejected(queued);
+        assertRejected(joined);
+    }
+
+    private void start(SocketConfig socketConfig) throws Exception {
+        socketConfig.callbackExecutor = CallbackExecutors.direct();
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    private static void assertRejected(RequestFuture<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("request not failed by the shutdown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static class RecordingCallback implements TCPMessenger.Callback<String> {
+
+        private final CountDownLatch invoked = new CountDownLatch(1);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onResponse(TCPMessenger.Request request, String s) {
+            invoked.countDown();
+        }
+
+        @Override
+        public void onError(TCPMessenger.Request request, Throwable throwable) {
+            error.set(throwable);
+            invoked.countDown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.murielkamgang.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SingleFlightTest {
+
+    private LoopbackDevice device;
+    private TCPMessenger messenger;
+
+    @Before
+    public void setUp() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.singleFlight = true;
+        device = new LoopbackDevice(socketConfig);
+        messenger = TCPMessenger.getInstance(socketConfig);
+    }
+
+    @After
+    public void tearDown() {
+        TCPMessenger.releaseInstance(messenger);
+        device.shutdown();
+    }
+
+    @Test
+    public void concurrentIdenticalCommandsShareOneRoundTrip() throws Exception {
+        final List<RequestFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "shared", 300), String.class));
+        }
+
+        for (RequestFuture<String> future : futures) {
+            assertEquals("shared", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, device.handled.get());
+    }
+
+    @Test
+    public void differentCommandsAreNotShared() throws Exception {
+        final RequestFuture<String> first =
+                messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "first", 300), String.class);
+        final RequestFuture<String> second =
+                messenger.sendAsync(LoopbackDevice.sleep(LoopbackDevice.IP, "second", 300), String.class);
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, device.handled.get());
+    }
+
+    @Test
+    public void commandSentAfterTheFlightLandedIsSentAgain() throws Exception {
+        assertEquals("shared", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class)
+                .get(5, TimeUnit.SECONDS));
+        assertEquals("shared", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "shared"), String.class)
+                .get(5, TimeUnit.SECONDS));
+        assertEquals(2, device.handled.get());
+    }
+}
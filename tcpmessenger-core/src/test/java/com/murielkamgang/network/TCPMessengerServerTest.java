@@ -0,0 +1,195 @@
+package com.murielkamgang.network;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCPMessengerServerTest {
+
+    private LoopbackDevice device;
+    private TCPMessengerServer server;
+
+    @After
+    public void tearDown() {
+        if (device != null) {
+            device.shutdown();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void commandIsHandledByTheHandlerOfItsType() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        server = new TCPMessengerServer(socketConfig);
+        server.addHandler("ping", String.class, new TCPMessengerServer.Handler<String>() {
+            @Override
+            public Object handle(String ip, String command) {
+                return "pong";
+            }
+        });
+        server.setDefaultHandler(JsonNode.class, new TCPMessengerServer.Handler<JsonNode>() {
+            @Override
+            public Object handle(String ip, JsonNode command) {
+                return "default";
+            }
+        });
+        server.start();
+        socketConfig.port = server.getPort();
+        final TCPMessenger messenger = TCPMessenger.getInstance(socketConfig);
+        try {
+            assertEquals("pong", messenger.sendAsync(new TCPMessenger.Request(LoopbackDevice.IP, "ping"),
+                    String.class).get(5, TimeUnit.SECONDS));
+            assertEquals("default", messenger.sendAsync(LoopbackDevice.echo(LoopbackDevice.IP, "echo"),
+                    String.class).get(5, TimeUnit.SECONDS));
+
+            server.removeHandler("ping");
+            assertEquals("default", messenger.sendAsync(new TCPMessenger.Request(LoopbackDevice.IP, "ping"),
+                    String.class).get(5, TimeUnit.SECONDS));
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+        }
+    }
+
+    @Test
+    public void connectionPastTheHostLimitIsClosed() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        socketConfig.maxConnectionsPerHost = 1;
+        device = new LoopbackDevice(socketConfig);
+
+        try (Socket first = new Socket(LoopbackDevice.IP, socketConfig.port);
+             Socket second = new Socket(LoopbackDevice.IP, socketConfig.port)) {
+            second.setSoTimeout(5000);
+            assertEquals(-1, second.getInputStream().read());
+
+            first.setSoTimeout(5000);
+            first.getOutputStream().write("{\"type\":\"echo\",\"text\":\"open\"}".getBytes(StandardCharsets.UTF_8));
+            final InputStream in = first.getInputStream();
+            assertEquals('"', in.read());
+        }
+    }
+
+    @Test
+    public void failingCommandFailsOnlyItsRequest() throws Exception {
+        assertFailsOnItsOwn(new SocketConfig(0, 5000, true));
+    }
+
+    @Test
+    public void failingFramedCommandFailsOnlyItsRequest() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.framed = true;
+        assertFailsOnItsOwn(socketConfig);
+    }
+
+    @Test
+    public void failingNioCommandFailsOnlyItsRequest() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000, true);
+        socketConfig.nio = true;
+        assertFailsOnItsOwn(socketConfig);
+        socketConfig.framed = true;
+        assertFailsOnItsOwn(socketConfig);
+    }
+
+    @Test
+    public void clientNotReadingItsResponsesIsNotReadEither() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        device = new LoopbackDevice(socketConfig);
+
+        final char[] text = new char[16 * 1024];
+        Arrays.fill(text, 'x');
+        final byte[] command = ("{\"type\":\"echo\",\"text\":\"" + new String(text) + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        final int count = 2000;
+        final Socket client = new Socket();
+        client.setReceiveBufferSize(16 * 1024);
+        client.connect(new InetSocketAddress(LoopbackDevice.IP, socketConfig.port));
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final OutputStream out = client.getOutputStream();
+                    for (int i = 0; i < count; i++) {
+                        out.write(command);
+                    }
+                } catch (IOException e) {
+                    //closed by the test
+                }
+            }
+        });
+        writer.start();
+        try {
+            writer.join(5000);
+            assertTrue("every command written", writer.isAlive());
+            final int handled = device.handled.get();
+            assertTrue("handled " + handled + " commands", handled < count / 2);
+        } finally {
+            client.close();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void unframedCommandBiggerThanAFrameClosesTheConnection() throws Exception {
+        final SocketConfig socketConfig = new SocketConfig(0, 5000);
+        device = new LoopbackDevice(socketConfig);
+
+        final byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < chunk.length; i += 2) {
+            chunk[i] = '1';
+            chunk[i + 1] = ',';
+        }
+        try (Socket client = new Socket(LoopbackDevice.IP, socketConfig.port)) {
+            final OutputStream out = client.getOutputStream();
+            out.write('[');
+            for (int written = 0; written < 2 * Constant.MAX_FRAME_SIZE; written += chunk.length) {
+                out.write(chunk);
+            }
+            fail("endless command not rejected");
+        } catch (IOException e) {
+            //connection closed by the server
+        }
+    }
+
+    /**
+     * Fail a command while another one is held on the same connection, the held one must still be answered
+     */
+    private void assertFailsOnItsOwn(SocketConfig socketConfig) throws Exception {
+        if (device != null) {
+            device.shutdown();
+        }
+        device = new LoopbackDevice(socketConfig);
+        final TCPMessenger messenger = TCPMessenger.getInstance(socketConfig);
+        try {
+            final RequestFuture<String> running =
+                    messenger.sendAsync(LoopbackDevice.hold(LoopbackDevice.IP, "running"), String.class);
+            assertTrue(device.awaitHeld(1));
+            try {
+                messenger.sendAsync(LoopbackDevice.fail(LoopbackDevice.IP), String.class).get(5, TimeUnit.SECONDS);
+                fail("command did not fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof CommandFailedException);
+            }
+
+            device.release();
+            assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        } finally {
+            TCPMessenger.releaseInstance(messenger);
+        }
+    }
+}
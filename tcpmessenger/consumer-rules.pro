@@ -0,0 +1,6 @@
+# ProGuard rules applied to the apps using this library.
+
+# Created through reflection by CallbackExecutors in tcpmessenger-core, which does not depend on Android.
+-keep class com.murielkamgang.network.MainThreadExecutor {
+    public <init>();
+}
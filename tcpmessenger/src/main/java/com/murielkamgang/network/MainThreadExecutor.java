@@ -0,0 +1,20 @@
+package com.murielkamgang.network;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running each task on the Android main thread, the default callback executor when this module is
+ * present, see {@link CallbackExecutors#mainThread()}
+ */
+public class MainThreadExecutor implements Executor {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+        handler.post(command);
+    }
+}